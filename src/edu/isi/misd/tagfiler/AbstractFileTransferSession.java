@@ -16,20 +16,26 @@ package edu.isi.misd.tagfiler;
  * limitations under the License.
  */
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-
 import edu.isi.misd.tagfiler.client.ClientURLResponse;
 import edu.isi.misd.tagfiler.client.ConcurrentClientURL;
 import edu.isi.misd.tagfiler.ui.CustomTagMap;
 import edu.isi.misd.tagfiler.ui.FileListener;
+import edu.isi.misd.tagfiler.util.ChecksumCache;
 import edu.isi.misd.tagfiler.util.DatasetUtils;
+import edu.isi.misd.tagfiler.util.DigestProvider;
+import edu.isi.misd.tagfiler.util.FileTable;
+import edu.isi.misd.tagfiler.util.MetadataCache;
+import edu.isi.misd.tagfiler.util.TagFilerProperties;
 
 /**
  * Implementation of {@code edu.isi.misd.tagfiler.FileTransfer}
@@ -50,6 +56,12 @@ public abstract class AbstractFileTransferSession implements FileTransfer {
     
     protected static final String RESUME_TARGET = "resume";
     
+    // the tags of the dataset files listing
+    private static final String FILES_TAGS[] = {BYTES, SHA256SUM, VNAME, NAME, CHECK_POINT_OFFSET};
+    
+    // the tags of a page of the dataset files listing, without the sort keys
+    private static final String PAGE_TAGS[] = {BYTES, SHA256SUM, CHECK_POINT_OFFSET};
+    
     protected static final String ALL_TARGET = "all";
     
 	protected String cookie = null;
@@ -90,6 +102,12 @@ public abstract class AbstractFileTransferSession implements FileTransfer {
     // map containing the versions of all files to be transferred.
     protected Map<String, Integer> versionMap = new HashMap<String, Integer>();
 
+    // the provider of the digest algorithm of the checksums
+    protected DigestProvider digestProvider;
+
+    // the columnar table backing the files list and maps of the session
+    protected FileTable fileTable;
+
 	// flag to mark a failure
     protected boolean cancel;
 
@@ -105,6 +123,25 @@ public abstract class AbstractFileTransferSession implements FileTransfer {
     // the transfer target: 'all' or 'resume'
     protected String target = ALL_TARGET;
 
+    // the on-disk cache of the dataset files listings
+    private MetadataCache metadataCache = createMetadataCache();
+
+    /**
+     * Create the on-disk cache of the dataset files listings
+     * 
+     * @return the cache or null if the cache is disabled
+     */
+    private static MetadataCache createMetadataCache() {
+    	if (!TagFilerProperties.getProperty("tagfiler.cache.metadata", false)) {
+    		return null;
+    	}
+    	String dir = TagFilerProperties.getProperty("tagfiler.cache.dir");
+    	if (dir == null || dir.trim().length() == 0) {
+    		dir = System.getProperty("user.home") + File.separator + ".tagfiler" + File.separator + "metadata";
+    	}
+    	return new MetadataCache(new File(dir));
+    }
+
 	/**
      * Updates the session cookie
      */
@@ -140,32 +177,61 @@ public abstract class AbstractFileTransferSession implements FileTransfer {
 	}
 
     /**
-     * Get the values for the "bytes" and "sha256sum" tags of the dataset files
+     * Get the reader of the values for the "bytes" and "sha256sum" tags of the dataset files
+     * The caller must close the reader
      * 
 	 * @param applet
 	 *            the applet object
 	 * @param fl
 	 *            the file listener to send error message
-     * @return the JSON Array with the tags values
+     * @return the reader of the tags values or null in case of failure
      */
-    protected JSONArray getFilesTagValues(AbstractTagFilerApplet applet, FileListener fl) {
-    	String tags[] = {"bytes", "sha256sum", "vname", "name", "check point offset"};
-    	String tagsList = DatasetUtils.joinEncode(tags, ";");
-        String query = null;
+    protected FileTagsReader getFilesTagReader(AbstractTagFilerApplet applet, FileListener fl) {
+    	return getFilesTagReader(applet, fl, target.equals(ALL_TARGET));
+    }
+
+    /**
+     * Get the reader of the values for the "bytes" and "sha256sum" tags of the dataset files
+     * The records are parsed while the response content is read
+     * The caller must close the reader
+     * 
+	 * @param applet
+	 *            the applet object
+	 * @param fl
+	 *            the file listener to send error message
+	 * @param version
+	 *            true to query the files of the dataset version; false for the latest files
+     * @return the reader of the tags values or null in case of failure
+     */
+    protected FileTagsReader getFilesTagReader(final AbstractTagFilerApplet applet, FileListener fl, final boolean version) {
+    	int pageSize = (int) TagFilerProperties.getProperty("tagfiler.query.page", 0L);
+    	if (pageSize > 0) {
+    		// the pages are fetched concurrently ahead of the reader
+    		FileTagsReader.PageFetcher fetcher = new FileTagsReader.PageFetcher() {
+    			public byte[] fetch(int limit, long offset) throws IOException {
+    				return getFilesTagPage(applet, version, limit, offset);
+    			}
+    		};
+    		return new FileTagsReader(fetcher, pageSize, (int) TagFilerProperties.getProperty("tagfiler.query.threads", 4L));
+    	}
+    	String query = getFilesTagQuery(version, 0, 0);
+		System.out.println("Files Query: "+query);
+		
+		// the cached listing is used if the server confirms it was not modified
+		MetadataCache.Entry entry = metadataCache != null ? metadataCache.get(query) : null;
 		try {
-			if (target.equals(ALL_TARGET)) {
-				query = DatasetUtils.getFilesTags(dataset, datasetVersion,
-				        tagFilerServerURL, tagsList);
-			} else {
-				query = DatasetUtils.getFilesTags(dataset,
-				        tagFilerServerURL, tagsList);
+			if (entry != null && entry.isImmutable()) {
+				System.out.println("Files Response: cached");
+				metadataCache.hit();
+				return new FileTagsReader(entry.open());
 			}
-		} catch (UnsupportedEncodingException e) {
+		} catch (IOException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
+			entry = null;
 		}
-		System.out.println("Files Query: "+query);
-        ClientURLResponse response = client.getTagsValues(query, cookie);
+        ClientURLResponse response = (entry == null) ? client.getTagsValues(query, cookie) :
+        	client.getTagsValues(query, entry.getEtag(), entry.getLastModified(), cookie);
 
         if (response == null) {
         	notifyFailure("Error: NULL response in getting the files tag values for the study " + dataset, true);
@@ -173,29 +239,175 @@ public abstract class AbstractFileTransferSession implements FileTransfer {
         }
 	cookie = client.updateSessionCookie(applet, cookie);
 
-        if (response.getStatus() != 200)
-        {
-        	// if status is 404, the tag might have been deleted
-        	if (response.getStatus() != 404) {
-            	fl.notifyFailure(dataset, response.getStatus(), response.getErrorMessage());
+        try {
+            if (response.getStatus() == 304 && entry != null) {
+            	response.release();
+				System.out.println("Files Response: not modified");
+				metadataCache.hit();
+				return new FileTagsReader(entry.open());
+            }
+            if (response.getStatus() != 200)
+            {
+            	// if status is 404, the tag might have been deleted
+            	if (response.getStatus() != 404) {
+                	fl.notifyFailure(dataset, response.getStatus(), response.getErrorMessage());
+            	}
+            	response.release();
+            	return null;
+            }
+            InputStream is = response.getEntityInputStream();
+            String etag = response.getResponseHeader("ETag");
+            String lastModified = response.getResponseHeader("Last-Modified");
+            boolean immutable = isImmutableListing(version);
+            if (metadataCache != null && metadataCache.isCacheable(etag, lastModified, immutable)) {
+            	// the listing is stored in the cache while it is parsed
+            	is = metadataCache.store(query, etag, lastModified, immutable, is);
+            }
+			return new FileTagsReader(is, response);
+		} catch (IOException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+	        response.release();
+	        return null;
+		}
+    }
+
+    /**
+     * Replace the files list and the bytes and checksums maps with the views of a new files table
+     * The files are stored in primitive columns and addressed by their id in the table
+     */
+    protected void newFileTable() {
+    	fileTable = new FileTable();
+    	fileNames = fileTable.getNames();
+    	bytesMap = fileTable.getBytesMap();
+    	checksumMap = fileTable.getChecksumMap();
+    }
+
+    /**
+     * Check if the files listing of a query never changes
+     * 
+	 * @param version
+	 *            true for the files of the dataset version; false for the latest files
+     * @return true if the listing can be reused without revalidation
+     */
+    protected boolean isImmutableListing(boolean version) {
+    	return false;
+    }
+
+    /**
+     * Get a page of the values for the "bytes" and "sha256sum" tags of the dataset files
+     * 
+	 * @param applet
+	 *            the applet object
+	 * @param version
+	 *            true to query the files of the dataset version; false for the latest files
+	 * @param limit
+	 *            the maximum number of files in the page
+	 * @param offset
+	 *            the number of files before the page
+     * @return the JSON content of the page
+     * @throws IOException
+     *             if the page can not be retrieved
+     */
+    private byte[] getFilesTagPage(AbstractTagFilerApplet applet, boolean version, int limit, long offset) throws IOException {
+        String query = getFilesTagQuery(version, limit, offset);
+		System.out.println("Files Query: "+query);
+		MetadataCache.Entry entry = metadataCache != null ? metadataCache.get(query) : null;
+		if (entry != null && entry.isImmutable()) {
+			metadataCache.hit();
+			return entry.read();
+		}
+        ClientURLResponse response = (entry == null) ? client.getTagsValues(query, getSessionCookie()) :
+        	client.getTagsValues(query, entry.getEtag(), entry.getLastModified(), getSessionCookie());
+        if (response == null) {
+        	throw new IOException("NULL response in getting the files tag values for the study " + dataset);
+        }
+        synchronized (this) {
+        	cookie = client.updateSessionCookie(applet, cookie);
+        }
+        try {
+        	int status = response.getStatus();
+        	if (status == 304 && entry != null) {
+    			metadataCache.hit();
+    			return entry.read();
+        	} else if (status == 404) {
+        		// no files beyond the offset
+        		return "[]".getBytes("UTF-8");
+        	} else if (status != 200) {
+        		throw new IOException("Can not get the files tags. Status " + status + ": " + response.getErrorMessage());
         	}
+        	InputStream is = response.getEntityInputStream();
+        	ByteArrayOutputStream content = new ByteArrayOutputStream();
+        	byte buffer[] = new byte[8192];
+        	int res;
+        	while ((res = is.read(buffer)) != -1) {
+        		content.write(buffer, 0, res);
+        	}
+        	is.close();
+        	
+            String etag = response.getResponseHeader("ETag");
+            String lastModified = response.getResponseHeader("Last-Modified");
+            boolean immutable = isImmutableListing(version);
+            if (metadataCache != null && metadataCache.isCacheable(etag, lastModified, immutable)) {
+            	metadataCache.store(query, etag, lastModified, immutable, content.toByteArray());
+            }
+        	return content.toByteArray();
+        } finally {
         	response.release();
-        	return null;
         }
-		String values = response.getEntityString();
-		System.out.println("Files Response: "+values);
-		JSONArray array = null;
+    }
+
+    /**
+     * Get the query for the values of the "bytes" and "sha256sum" tags of the dataset files
+     * 
+	 * @param version
+	 *            true to query the files of the dataset version; false for the latest files
+	 * @param limit
+	 *            the maximum number of files; 0 for all the files
+	 * @param offset
+	 *            the number of files skipped
+     * @return the query URL
+     */
+    private String getFilesTagQuery(boolean version, int limit, long offset) {
+    	String tagsList = DatasetUtils.joinEncode(FILES_TAGS, ";");
+    	if (limit > 0) {
+    		// the pages are fetched concurrently; sort them by name and version so they do not overlap
+    		tagsList = DatasetUtils.sortAscending(NAME) + ";" + DatasetUtils.sortAscending(VNAME) + ";" + 
+    			DatasetUtils.joinEncode(PAGE_TAGS, ";");
+    	}
+        String query = null;
 		try {
-			array = new JSONArray(values);
-		} catch (JSONException e) {
+			if (version) {
+				query = DatasetUtils.getFilesTags(dataset, datasetVersion,
+				        tagFilerServerURL, tagsList, limit, offset);
+			} else {
+				query = DatasetUtils.getFilesTags(dataset,
+				        tagFilerServerURL, tagsList, limit, offset);
+			}
+		} catch (UnsupportedEncodingException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
-		} catch (Throwable e) {
-			e.printStackTrace();
 		}
-        response.release();
-        
-        return array;
+		return query;
+    }
+
+    /**
+     * Get the statistics of the metadata cache
+     * 
+     * @return the statistics or a message if the cache is disabled
+     */
+    protected String getMetadataCacheStatistics() {
+    	return metadataCache != null ? metadataCache.getStatistics() : "disabled";
+    }
+
+    /**
+     * Get the statistics of the local checksum cache
+     * 
+     * @return the statistics or a message if the cache is disabled
+     */
+    protected String getChecksumCacheStatistics() {
+    	ChecksumCache cache = ChecksumCache.getDefault();
+    	return cache != null ? cache.getStatistics() : "disabled";
     }
 
 	/**
@@ -38,12 +38,16 @@ import javax.swing.JPanel;
 import netscape.javascript.JSException;
 import netscape.javascript.JSObject;
 import edu.isi.misd.tagfiler.client.ConcurrentJakartaClient;
+import edu.isi.misd.tagfiler.client.DefaultRetryPolicy;
+import edu.isi.misd.tagfiler.client.RetryPolicy;
 import edu.isi.misd.tagfiler.exception.FatalException;
 import edu.isi.misd.tagfiler.security.TagFilerSecurity;
 import edu.isi.misd.tagfiler.ui.CustomTagMap;
 import edu.isi.misd.tagfiler.ui.CustomTagMapImplementation;
 import edu.isi.misd.tagfiler.ui.FileListener;
 import edu.isi.misd.tagfiler.util.ClientUtils;
+import edu.isi.misd.tagfiler.util.DigestProvider;
+import edu.isi.misd.tagfiler.util.DigestProviders;
 import edu.isi.misd.tagfiler.util.TagFilerProperties;
 
 /**
@@ -60,6 +64,9 @@ public abstract class AbstractTagFilerApplet extends JApplet {
     // parameter name for the chunk size
     private static final String CHUNK_SIZE = "tagfiler.chunkbytes";
 
+    // parameter name for the checksum algorithm
+    private static final String CHECKSUM_TYPE = "tagfiler.checksum.type";
+
     // parameter name for the socket buffer size
     private static final String SOCKET_BUFFER_SIZE = "tagfiler.socket.buffer.size";
 
@@ -90,6 +97,9 @@ public abstract class AbstractTagFilerApplet extends JApplet {
     // parameter name for the maximum retries during a broken connection
     private static final String TAGFILER_MAX_RETRIES = "tagfiler.retries";
 
+    // parameter name for the class of the retry policy
+    private static final String RETRY_POLICY = "tagfiler.retry.policy";
+
     // timeout for JavaScript call execution (milliseconds)
     private static final long JAVASCRIPT_TIMEOUT = 10 * 1000;
     
@@ -132,10 +142,16 @@ public abstract class AbstractTagFilerApplet extends JApplet {
 
     protected int chunkSize = 4194304;
 
+    // the checksum algorithm of the session or null for the default one
+    protected String checksumType;
+
     protected int socketTimeout = 120*1000;
 
     protected int maxRetries = 10;
 
+    // the class of the retry policy or null for the default one
+    protected String retryPolicyClass;
+
     // the mode for transfering the file
     protected boolean allowChunks;
     
@@ -223,6 +239,15 @@ public abstract class AbstractTagFilerApplet extends JApplet {
         	chunkSize = Integer.parseInt(value);
         }
 
+        // arguments
+        checksumType = this.getParameter(CHECKSUM_TYPE);
+
+        // arguments
+        retryPolicyClass = this.getParameter(RETRY_POLICY);
+        if (retryPolicyClass == null) {
+        	retryPolicyClass = TagFilerProperties.getProperty(RETRY_POLICY);
+        }
+
         // arguments
         String testFile = this.getParameter(TAGFILER_APPLET_TEST_FILE);
         if (testFile != null) {
@@ -556,6 +581,16 @@ public abstract class AbstractTagFilerApplet extends JApplet {
     public int getChunkSize() {
     	return chunkSize;
     }
+
+	/**
+     * Get the digest provider of the checksums
+     * 
+     * @return the provider of the applet parameter or the default one if the parameter is missing or not available
+     */
+    public DigestProvider getDigestProvider() {
+    	DigestProvider provider = DigestProviders.get(checksumType);
+    	return provider != null ? provider : DigestProviders.getDefault();
+    }
     
     /**
      * Get the maximum number of retries
@@ -565,6 +600,24 @@ public abstract class AbstractTagFilerApplet extends JApplet {
     public int getMaxRetries() {
 		return maxRetries;
 	}
+    
+    /**
+     * Create the policy for retrying the failed requests
+     * The policy class is set by the tagfiler.retry.policy parameter or property
+     * and must have a public constructor without arguments
+     * 
+     * @return the retry policy
+     */
+    public RetryPolicy getRetryPolicy() {
+    	if (retryPolicyClass != null && retryPolicyClass.trim().length() > 0) {
+    		try {
+    			return (RetryPolicy) Class.forName(retryPolicyClass.trim()).getDeclaredConstructor().newInstance();
+    		} catch (Exception e) {
+    			System.out.println("Can not create the retry policy " + retryPolicyClass + ": " + e + ". The default policy is used.");
+    		}
+    	}
+    	return new DefaultRetryPolicy(maxRetries);
+    }
 
 	/**
      * Get the mode for transferring the file
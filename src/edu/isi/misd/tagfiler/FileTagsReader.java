@@ -0,0 +1,282 @@
+package edu.isi.misd.tagfiler;
+
+/* 
+ * Copyright 2010 University of Southern California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import edu.isi.misd.tagfiler.client.ClientURLResponse;
+import edu.isi.misd.tagfiler.util.JSONArrayReader;
+
+/**
+ * Pull reader of the dataset files tags listing.
+ * The records are parsed one at a time from the response content,
+ * so the listing is never held in memory.
+ * The listing can be read in pages fetched concurrently ahead of the reader.
+ *
+ * @author agent
+ *
+ */
+public class FileTagsReader {
+
+	/**
+	 * Fetcher of a page of the listing
+	 *
+	 */
+	public interface PageFetcher {
+
+	    /**
+	     * Fetch a page of the listing
+	     * The method is called concurrently for different pages
+	     *
+	     * @param limit
+	     *            the maximum number of records in the page
+	     * @param offset
+	     *            the number of records before the page
+	     * @return the JSON content of the page
+	     * @throws IOException
+	     *             if the page can not be fetched
+	     */
+		public byte[] fetch(int limit, long offset) throws IOException;
+	}
+
+    // the response with the files tags; null for a paged listing
+	private ClientURLResponse response;
+
+    // the fetcher of the pages; null for a single response
+	private PageFetcher fetcher;
+
+    // the number of records in a page
+	private int pageSize;
+
+    // the threads fetching the pages
+	private ExecutorService executor;
+
+    // the pages fetched ahead of the reader, in the listing order
+	private LinkedList<Future<byte[]>> pages;
+
+    // the offset of the next page to be fetched
+	private long nextOffset;
+
+    // the number of records read from the current page
+	private int pageCount;
+
+    // the reader of the JSON array
+	private JSONArrayReader reader;
+
+    // the number of records read
+	private int count;
+
+    // the "name" tag of the current record
+	private String name;
+
+    // the "vname" tag of the current record
+	private String vname;
+
+    // the "bytes" tag of the current record or -1 if it is NULL
+	private long bytes;
+
+    // the "sha256sum" tag of the current record or null
+	private String checksum;
+
+    // the "check point offset" tag of the current record or -1 if it is NULL
+	private long checkPointOffset;
+
+    /**
+     * Constructor
+     *
+     * @param response
+     *            the response with the files tags; it is released by close()
+     */
+	public FileTagsReader(ClientURLResponse response) throws UnsupportedEncodingException {
+		this(response.getEntityInputStream(), response);
+	}
+
+    /**
+     * Constructor
+     *
+     * @param is
+     *            the input stream of the files tags; it is closed by close()
+     */
+	public FileTagsReader(InputStream is) throws UnsupportedEncodingException {
+		this(is, null);
+	}
+
+    /**
+     * Constructor
+     *
+     * @param is
+     *            the input stream of the files tags; it is closed by close()
+     * @param response
+     *            the response providing the input stream or null; it is released by close()
+     */
+	public FileTagsReader(InputStream is, ClientURLResponse response) throws UnsupportedEncodingException {
+        if (is == null) throw new IllegalArgumentException("is");
+		this.response = response;
+		reader = new JSONArrayReader(is);
+	}
+
+    /**
+     * Constructor for a paged listing
+     * The pages are fetched concurrently and merged in the listing order
+     *
+     * @param fetcher
+     *            the fetcher of the pages
+     * @param pageSize
+     *            the number of records in a page
+     * @param threads
+     *            the maximum number of pages fetched at the same time
+     */
+	public FileTagsReader(PageFetcher fetcher, int pageSize, int threads) {
+        if (fetcher == null || pageSize <= 0) throw new IllegalArgumentException(fetcher+", "+pageSize);
+		this.fetcher = fetcher;
+		this.pageSize = pageSize;
+		threads = Math.max(1, threads);
+		executor = Executors.newFixedThreadPool(threads);
+		pages = new LinkedList<Future<byte[]>>();
+		for (int i = 0; i < threads; i++) {
+			fetchPage();
+		}
+	}
+
+    /**
+     * Read the next record
+     *
+     * @return true if a record was read or false at the end of the listing
+     * @throws IOException
+     *             if the response can not be read
+     * @throws JSONException
+     *             if the response is not a JSON array of objects
+     */
+	public boolean next() throws IOException, JSONException {
+		JSONObject obj = reader != null ? reader.next() : null;
+		while (obj == null) {
+			if (fetcher == null || (reader != null && pageCount < pageSize)) {
+				// the last page was read
+				return false;
+			}
+			nextPage();
+			obj = reader.next();
+		}
+		count++;
+		pageCount++;
+		name = obj.getString(AbstractFileTransferSession.NAME);
+		vname = obj.isNull(AbstractFileTransferSession.VNAME) ? null : obj.getString(AbstractFileTransferSession.VNAME);
+		bytes = obj.isNull(AbstractFileTransferSession.BYTES) ? -1 : obj.getLong(AbstractFileTransferSession.BYTES);
+		checksum = obj.isNull(AbstractFileTransferSession.SHA256SUM) ? null : obj.getString(AbstractFileTransferSession.SHA256SUM);
+		checkPointOffset = obj.isNull(AbstractFileTransferSession.CHECK_POINT_OFFSET) ? -1 : obj.getLong(AbstractFileTransferSession.CHECK_POINT_OFFSET);
+		return true;
+	}
+
+    /**
+     * Close the reader and release the response
+     */
+	public void close() {
+		if (reader != null) {
+			reader.close();
+		}
+		if (response != null) {
+			response.release();
+		}
+		if (executor != null) {
+			// the pages fetched beyond the end of the listing are discarded
+			executor.shutdownNow();
+		}
+	}
+
+    /**
+     * Schedule the fetch of the next page
+     */
+	private void fetchPage() {
+		final long offset = nextOffset;
+		nextOffset += pageSize;
+		pages.add(executor.submit(new Callable<byte[]>() {
+			public byte[] call() throws Exception {
+				return fetcher.fetch(pageSize, offset);
+			}
+		}));
+	}
+
+    /**
+     * Open the next page of the listing
+     * A new page is scheduled to be fetched in place of the opened one
+     */
+	private void nextPage() throws IOException {
+		Future<byte[]> page = pages.removeFirst();
+		fetchPage();
+		byte content[] = null;
+		try {
+			content = page.get();
+		} catch (InterruptedException e) {
+			throw new IOException("Interrupted while fetching a page of the listing");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException("Failure in fetching a page of the listing: " + e.getCause());
+		}
+		if (reader != null) {
+			reader.close();
+		}
+		reader = new JSONArrayReader(new ByteArrayInputStream(content));
+		pageCount = 0;
+	}
+
+	public int getCount() {
+		return count;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public String getVersionName() {
+		return vname;
+	}
+
+    /**
+     * Get the version of the current record from its "vname" tag
+     *
+     * @return the file version
+     */
+	public int getVersion() {
+		return Integer.parseInt(vname.substring(vname.lastIndexOf("@") + 1));
+	}
+
+	public long getBytes() {
+		return bytes;
+	}
+
+	public String getChecksum() {
+		return checksum;
+	}
+
+	public long getCheckPointOffset() {
+		return checkPointOffset;
+	}
+}
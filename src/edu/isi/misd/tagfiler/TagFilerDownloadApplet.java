@@ -18,6 +18,7 @@ package edu.isi.misd.tagfiler;
 
 import java.io.File;
 import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -77,6 +78,9 @@ public class TagFilerDownloadApplet extends AbstractTagFilerApplet {
     // if true, process download
     private boolean download;
 
+    // if true, verify the downloaded files
+    private boolean verify;
+
     /**
      * Initializes the applet by reading parameters, polling the tagfiler
      * servlet to retrieve any authentication requests, and constructing the
@@ -315,6 +319,19 @@ public class TagFilerDownloadApplet extends AbstractTagFilerApplet {
             }
         }
 
+        /**
+         * Called when a file is added to a download in progress
+         * @param filename
+         *            the file to be downloaded.
+         * @param size
+         *            the number of bytes added to the progress bar.
+         */
+        public void notifyFileQueued(String filename, long size) {
+        	filesToDownload.add(filename);
+        	totalFiles++;
+        	totalBytes += size + 1;
+        }
+
         /**
          * Called when a Dataset Name update completes
          */
@@ -405,6 +422,44 @@ public class TagFilerDownloadApplet extends AbstractTagFilerApplet {
         }
     }
 
+    /**
+     * send event for verifying the downloaded files
+     * This function is called from JavaScript
+     */
+    public void verifyFiles() {
+        synchronized (lock) {
+        	verify = true;
+        	lock.notifyAll();
+        }
+    }
+
+    /**
+     * Verify the files of the download directory against the dataset files
+     */
+    private void verify() {
+    	String dir = destinationDirectoryField.toString().trim();
+    	if (dir.length() == 0) {
+            JOptionPane.showMessageDialog(getComponent(),
+                    TagFilerProperties.getProperty("tagfiler.dialog.FieldsNotFilled"));
+            getComponent().requestFocusInWindow();
+            return;
+    	}
+    	List<String> missing = new ArrayList<String>();
+    	List<String> extra = new ArrayList<String>();
+    	List<String> mismatched = new ArrayList<String>();
+    	String message = null;
+    	if (fileDownload.verifyFiles(dir, missing, extra, mismatched)) {
+    		message = TagFilerProperties.getProperty("tagfiler.message.download.VerifySuccess", new String[] { dir, defaultControlNumber });
+    	} else {
+    		System.out.println("Missing files: " + missing + "\nExtra files: " + extra + "\nMismatched files: " + mismatched);
+    		message = TagFilerProperties.getProperty("tagfiler.message.download.VerifyFailure", 
+    				new String[] { dir, defaultControlNumber, "" + missing.size(), "" + extra.size(), "" + mismatched.size() });
+    	}
+    	updateStatus(message);
+        JOptionPane.showMessageDialog(getComponent(), message);
+        getComponent().requestFocusInWindow();
+    }
+
     /**
      * send event for selecting the download directory
      */
@@ -465,7 +520,7 @@ public class TagFilerDownloadApplet extends AbstractTagFilerApplet {
         	final List<String> fileList = fileDownload
                     .getFiles(defaultControlNumber, defaultVersion);
 
-            if (fileList.size() > 0) {
+            if (fileList.size() > 0 || fileDownload.isStreaming()) {
                 enableSelectDirectory();
             }
 
@@ -521,7 +576,7 @@ public class TagFilerDownloadApplet extends AbstractTagFilerApplet {
     	public void run() {
     		synchronized (lock) {
     			while (!stopped) {
-            		while (!download && !browseDir) {
+            		while (!download && !browseDir && !verify) {
             			try {
             				lock.wait();
         				} catch (InterruptedException e) {
@@ -544,6 +599,9 @@ public class TagFilerDownloadApplet extends AbstractTagFilerApplet {
             		} else if (browseDir) {
             			browseDir = false;
             			chooseDir();
+            		} else if (verify) {
+            			verify = false;
+            			verify();
             		}
     			}
     		}
@@ -17,11 +17,9 @@ package edu.isi.misd.tagfiler;
  */
 
 import java.io.File;
-import java.io.FilenameFilter;
 import java.io.UnsupportedEncodingException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
 import java.util.Timer;
@@ -69,16 +67,6 @@ public class TagFilerUploadApplet extends AbstractTagFilerApplet {
     // files to upload
     private List<String> filesList = new ArrayList<String>();
     
-    /**
-     * Excludes "." and ".." from directory lists in case the client is
-     * UNIX-based.
-     */
-    private static final FilenameFilter excludeDirFilter = new FilenameFilter() {
-        public boolean accept(File dir, String name) {
-            return (!name.equals(".") && !name.equals(".."));
-        }
-    };
-
     /**
      * Initializes the applet by reading parameters, polling the tagfiler
      * servlet to retrieve any authentication requests, and constructing the
@@ -229,8 +217,8 @@ public class TagFilerUploadApplet extends AbstractTagFilerApplet {
          */
         public void notifyStart(String datasetName, long totalSize) {
             if (datasetName == null || datasetName.length() == 0) throw new IllegalArgumentException(datasetName);
-            totalFiles = filesList.size();
-            totalBytes = totalSize + totalFiles;
+            totalFiles = 0;
+            totalBytes = totalSize;
             filesCompleted = 0;
             lastPercent = 0;
             bytesTransferred = 0;
@@ -243,6 +231,18 @@ public class TagFilerUploadApplet extends AbstractTagFilerApplet {
                                     Integer.toString(totalFiles) }));
         }
 
+        /**
+         * Called when a file is added to the upload
+         * @param filename
+         *            the file to be uploaded.
+         * @param size
+         *            the number of bytes added to the progress bar.
+         */
+        public void notifyFileQueued(String filename, long size) {
+        	totalFiles++;
+        	totalBytes += size + 1;
+        }
+
         /**
          * Called when a file transfer starts
          */
@@ -357,7 +357,9 @@ public class TagFilerUploadApplet extends AbstractTagFilerApplet {
                 fileUpload.setBaseDirectory(parent);
             }
             filesList.clear();
-            addFilesToList(new File[] { selectedDirectory });
+            fileUpload.getFileAttributes().clear();
+            // the directories are scanned by the upload, which starts with the first files found
+            filesList.add(selectedDirectory.getAbsolutePath());
             enableUpload();
             fileUpload.addFilesToList(filesList);
         }
@@ -365,32 +367,6 @@ public class TagFilerUploadApplet extends AbstractTagFilerApplet {
         fileChooser.setSelectedFiles(new File[] { new File("") });
     }
 
-    /**
-     * Adds the files to the list, if an entry is a directory then all its files
-     * are added as well.
-     * 
-     * @param files
-     *            the files to add
-     */
-    private void addFilesToList(File[] files) {
-        if (files == null) throw new IllegalArgumentException("files");
-        final List<File> dirs = new LinkedList<File>();
-        for (int i = 0; i < files.length; i++) {
-            if (files[i].isDirectory()) {
-                dirs.add(files[i].getAbsoluteFile());
-            } else if (files[i].isFile()) {
-                filesList.add(files[i].getAbsolutePath());
-            }
-        }
-
-        // go through any directories
-        for (File dir : dirs) {
-            final File[] children = dir.listFiles(excludeDirFilter);
-            if (children != null) {
-                addFilesToList(children);
-            }
-        }
-    }
     /**
      * validate a Date value
      */
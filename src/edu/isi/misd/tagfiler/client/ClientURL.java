@@ -18,6 +18,8 @@ package edu.isi.misd.tagfiler.client;
 
 import java.io.File;
 import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
 
 import edu.isi.misd.tagfiler.AbstractTagFilerApplet;
 
@@ -61,6 +63,22 @@ public interface ClientURL {
      */
     public ClientURLResponse getTagsValues(String url, String cookie);
     
+    /**
+     * Get the values of a dataset tags only if they were modified
+     * The server returns 304 if the values match the validators
+     * 
+     * @param url
+     *            the query url
+     * @param etag
+     *            the entity tag of the cached values or null
+     * @param lastModified
+     *            the last modification date of the cached values or null
+     * @param cookie
+     *            the cookie to be set in the request
+     * @return the HTTP Response
+     */
+    public ClientURLResponse getTagsValues(String url, String etag, String lastModified, String cookie);
+    
     /**
      * Get the content of a file to be downloaded
      * 
@@ -182,6 +200,41 @@ public interface ClientURL {
      */
     public ClientURLResponse putFileData(String url, String datasetURLBody, String cookie);
     
+    /**
+     * Creates a file version with the content of an existing file version.
+     * The content is referenced by the server and it is not transferred.
+     * 
+     * @param url
+     *            the url of the existing file version
+     * @param destination
+     *            the url of the file to be created
+     * @param cookie
+     *            the cookie to be set in the request
+     * @return the HTTP Response
+     */
+    public ClientURLResponse copyFile(String url, String destination, String cookie);
+    
+    /**
+     * Registers the files of a dataset version.
+     * The body is encoded while the request is sent.
+     * 
+     * @param url
+     *            the query url
+     * @param datasetName
+     *            the name of the dataset
+     * @param baseDirectory
+     *            the base directory of the files
+     * @param files
+     *            the files to be registered
+     * @param versionMap
+     *            the files versions map
+     * @param cookie
+     *            the cookie to be set in the request
+     * @return the HTTP Response
+     */
+    public ClientURLResponse putDatasetFiles(String url, String datasetName, String baseDirectory, 
+    		List<String> files, Map<String, Integer> versionMap, String cookie);
+    
     /**
      * Uploads a set of given files with a specified dataset name.
      * 
@@ -254,6 +307,23 @@ public interface ClientURL {
      *            the number of retries
      */
     public void setRetryCount(int count);
+
+    /**
+     * Set the policy for retrying the failed requests
+     * 
+     * @param policy
+     *            the retry policy
+     */
+    public void setRetryPolicy(RetryPolicy policy);
+
+    /**
+     * Set the mode of checking the integrity of the file blocks
+     * 
+     * @param mode
+     *            if true, the blocks are sent with their digest
+     *            and the digest of the downloaded ranges is requested
+     */
+    public void setChunkDigest(boolean mode);
     
 	/**
      * Get the reason of the exception9s)
@@ -261,6 +331,13 @@ public interface ClientURL {
      */
     public String getReason();
 
+    /**
+     * Get the number of failed attempts per failure cause
+     * 
+     * @return the map with the number of failed attempts per cause
+     */
+    public Map<String, Integer> getRetryStatistics();
+
     /**
      * Set the cookie name
      * 
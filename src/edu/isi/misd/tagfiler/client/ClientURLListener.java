@@ -54,6 +54,16 @@ public interface ClientURLListener {
      */
 	public void notifyFileTransfered(long size);
 	
+    /**
+     * Callback to notify that the server reported the stored bytes of an uploaded file
+     * 
+     * @param filename
+     *            the file name
+     * @param length
+     *            the file length reported by the server
+     */
+	public void notifyFileAcknowledged(String filename, long length);
+	
     /**
      * Callback to notify an error during the upload/download process
      * 
@@ -64,6 +74,14 @@ public interface ClientURLListener {
      */
 	public void notifyError(String err, Exception e);
 	
+    /**
+     * Callback to log a message of the client
+     * 
+     * @param message
+     *            the message to be logged
+     */
+	public void notifyLogMessage(String message);
+	
     /**
      * Callback to get the cookie.
      * 
@@ -42,6 +42,15 @@ public interface ClientURLResponse {
      */
     public int getStatus();
 
+    /**
+     * Return the value of a response header
+     * 
+     * @param headerName
+     *            name of the header
+     * @return the value of the first header with that name or null if there is none
+     */
+    public String getResponseHeader(String headerName);
+    
     /**
      * Return the body as a string
      * 
@@ -77,5 +86,11 @@ public interface ClientURLResponse {
      * 
      */
     public void release();
+    
+    /**
+     * Abort the request without reading the rest of the response
+     * 
+     */
+    public void abort();
 
 }
@@ -16,9 +16,12 @@ package edu.isi.misd.tagfiler.client;
  * limitations under the License.
  */
 
+import java.io.File;
 import java.util.List;
 import java.util.Map;
 
+import edu.isi.misd.tagfiler.util.DigestProvider;
+import edu.isi.misd.tagfiler.util.DirectoryScanner;
 import edu.isi.misd.tagfiler.util.FileWrapper;
 
 /**
@@ -43,6 +46,14 @@ public interface ConcurrentClientURL extends ClientURL{
      */
 	public void setChunkSize(int size);
 	
+    /**
+     * Set the digest provider of the files checksums
+     * 
+     * @param provider
+     *            the digest provider
+     */
+	public void setDigestProvider(DigestProvider provider);
+	
     /**
      * Set the maximum number of HTTP connections
      * 
@@ -59,6 +70,65 @@ public interface ConcurrentClientURL extends ClientURL{
      */
 	public void setChunked(boolean mode);
 	
+    /**
+     * Set the mode of handling a file failure
+     * 
+     * @param mode
+     *            if true, the failed files are quarantined and retried at the end of the transfer
+     */
+	public void setQuarantineMode(boolean mode);
+	
+    /**
+     * Set the mode of handling the slow download chunks
+     * 
+     * @param mode
+     *            if true, a slow chunk is requested again on an idle connection
+     *            and the first response is kept
+     */
+	public void setHedgeMode(boolean mode);
+	
+    /**
+     * Set the mode of balancing the download chunks in progress
+     * 
+     * @param mode
+     *            if true, an idle connection takes the second half 
+     *            of the unfetched part of a chunk in progress
+     */
+	public void setSplitMode(boolean mode);
+	
+    /**
+     * Set the maximum number of consecutive download chunks merged into a single request
+     * 
+     * @param chunks
+     *            the maximum number of chunks per request; 1 disables merging
+     */
+	public void setCoalesceChunks(int chunks);
+	
+    /**
+     * Set the mode of creating the version of a chunked file
+     * 
+     * @param mode
+     *            if true, an empty file version is created first 
+     *            and then the chunks are uploaded in parallel
+     */
+	public void setEarlyVersionMode(boolean mode);
+	
+    /**
+     * Set the maximum number of 'incomplete' tags deleted by a single request
+     * 
+     * @param size
+     *            the batch size; 0 deletes the tag as soon as the file was uploaded
+     */
+	public void setTagBatchSize(int size);
+	
+    /**
+     * Set the maximum number of uploaded files validated by a single query of their tags
+     * 
+     * @param size
+     *            the batch size; 0 completes the file without validation
+     */
+	public void setValidateBatchSize(int size);
+	
     /**
      * Upload recursively a directory
      * 
@@ -67,6 +137,23 @@ public interface ConcurrentClientURL extends ClientURL{
      */
 	public void uploadDirectory(String dir);
 	
+    /**
+     * Upload recursively files and directories while they are scanned
+     * Each file is queued for upload as soon as the scan finds it
+     * 
+     * @param files
+     *            the files and directories to be uploaded
+     * @param baseDirectory
+     *            the base directory to be used for the uploaded files
+     * @param checksumMap
+     *            the checksum Map for the uploaded files
+     * @param versionMap
+     *            the version Map for the uploaded files
+     * @param handler
+     *            the handler notified about each file before it is queued or null
+     */
+	public void uploadDirectory(File[] files, String baseDirectory, Map<String, String> checksumMap, Map<String, Integer> versionMap, DirectoryScanner.FileHandler handler);
+	
     /**
      * Upload a list of files
      * 
@@ -149,4 +236,51 @@ public interface ConcurrentClientURL extends ClientURL{
      */
 	public void download(List<FileWrapper> files, String outputDir, Map<String, String> checksumMap, Map<String, Long> bytesMap, Map<String, Integer> versionMap);
 	
+    /**
+     * Start a download fed with files while it is in progress
+     * 
+     * @param outputDir
+     *            the directory where the files will be downloaded
+     * @param checksumMap
+     *            the map containing the checksums of the files to be downloaded.
+     * @param bytesMap
+     *            the map containing the bytes of the files to be downloaded
+     * @param versionMap
+     *            the version Map of the files to be downloaded
+     */
+	public void startDownload(String outputDir, Map<String, String> checksumMap, Map<String, Long> bytesMap, Map<String, Integer> versionMap);
+	
+    /**
+     * Add a file to the download in progress
+     * 
+     * @param file
+     *            the file to be downloaded
+     */
+	public void addDownload(FileWrapper file);
+	
+    /**
+     * Close the feed of the download in progress
+     * 
+     * @param err
+     *            the error message if the feed has failed or null otherwise
+     */
+	public void endDownload(String err);
+	
+    /**
+     * Add to the download check point a file created locally
+     * 
+     * @param file
+     *            the file name
+     * @param length
+     *            the file length
+     * @param checksum
+     *            the file checksum or null
+     */
+	public void addCheckPoint(String file, long length, String checksum);
+	
+    /**
+     * Write the download check point file
+     */
+	public void writeCheckPoint();
+	
 }
@@ -17,11 +17,11 @@ package edu.isi.misd.tagfiler.client;
  */
 
 import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
-import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectOutputStream;
@@ -29,17 +29,29 @@ import java.io.RandomAccessFile;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
 import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Arrays;
 import java.util.Hashtable;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONObject;
 
 import edu.isi.misd.tagfiler.exception.FatalException;
+import edu.isi.misd.tagfiler.util.ChecksumCache;
 import edu.isi.misd.tagfiler.util.DatasetUtils;
+import edu.isi.misd.tagfiler.util.DigestProvider;
+import edu.isi.misd.tagfiler.util.DigestProviders;
+import edu.isi.misd.tagfiler.util.DirectoryScanner;
 import edu.isi.misd.tagfiler.util.FileWrapper;
+import edu.isi.misd.tagfiler.util.JSONArrayReader;
 import edu.isi.misd.tagfiler.util.LocalFileChecksum;
 import edu.isi.misd.tagfiler.util.TagFilerProperties;
 
@@ -64,9 +76,6 @@ public class ConcurrentJakartaClient extends JakartaClient implements Concurrent
     // the maximum number of HTTP connections used by the client
 	private int connections;
 	
-    // the queue for the HTTP requests
-	private LinkedBlockingQueue<FileChunk> WorkerQueue;
-	
     // the queue for passing elements to the Worker Queue
 	private LinkedBlockingQueue<FileChunk> TransmissionQueue;
 	
@@ -105,11 +114,14 @@ public class ConcurrentJakartaClient extends JakartaClient implements Concurrent
 	
     // flag to mark a checksum computation
 	private boolean enableChecksum;
+
+    // the provider of the digest algorithm of the checksums
+	private DigestProvider digestProvider = DigestProviders.getDefault();
 	
     // the Dataset Id
     protected String datasetId;
 
-    // wrapper for WorkerQueue
+    // wrapper for the Worker Queue of the current transfer pass
 	private QueueWrapper workerWrapper = new QueueWrapper();
 	
     // map containing the checksums of all files to be transferred.
@@ -121,15 +133,93 @@ public class ConcurrentJakartaClient extends JakartaClient implements Concurrent
     // directory for writing the download check point file
 	private String checkPointDir;
 
-	/**
-     * Excludes "." and ".." from directory lists in case the client is
-     * UNIX-based.
-     */
-    private static final FilenameFilter excludeDirFilter = new FilenameFilter() {
-        public boolean accept(File dir, String name) {
-            return (!name.equals(".") && !name.equals(".."));
-        }
-    };
+    // map containing the bytes of all files to be downloaded.
+	private Map<String, Long> bytesMap;
+
+    // the HEAD responses with the lengths of the files to be downloaded, resolved before the chunks planning
+	private HashMap<String, ClientURLResponse> fileLengths;
+
+    // if true, a failed file is quarantined and the rest of the files continue to be transferred
+	private boolean quarantineMode;
+
+    // the quarantined files and their failure messages
+	private LinkedHashMap<String, String> quarantine;
+
+    // true while the quarantined files are retried
+	private boolean retryPass;
+
+    // the maximum number of failed files listed in the failure message
+	private static final int MAX_REPORTED_FAILURES = 10;
+
+    // if true, slow download chunks are duplicated on idle connections
+	private boolean hedgeMode;
+
+    // the percentile of the chunks latencies used as threshold for hedging
+	private int hedgePercentile;
+
+    // the minimum number of latency samples before hedging a request
+	private int hedgeMinSamples;
+
+    // the time an idle thread waits for a new chunk before looking for a chunk to hedge (milliseconds)
+	private long hedgeInterval;
+
+    // the number of latency samples kept for computing the hedging threshold
+	private static final int HEDGE_SAMPLES = 100;
+
+    // the latencies of the last downloaded chunks (milliseconds)
+	private long latencies[] = new long[HEDGE_SAMPLES];
+
+    // the number of downloaded chunks
+	private int latencyCount;
+
+    // the download chunks in progress and their start time
+	private LinkedHashMap<FileChunk, Long> inFlight;
+
+    // the number of hedged requests
+	private int hedgedRequests;
+
+    // the number of hedged requests that completed first
+	private int hedgedWins;
+
+    // if true, the unfetched part of a download chunk in progress can be taken by an idle connection
+	private boolean splitMode;
+
+    // the minimum length of a part resulted from splitting a chunk
+	private long splitMinLength;
+
+    // the number of split chunks
+	private int splitRequests;
+
+    // the size of the buffer a thread reads the split parts with
+	private static final int PART_BUFFER_SIZE = 65536;
+
+    // the number of chunks transferred again because their digest did not match
+	private int corruptedChunks;
+
+    // the maximum number of consecutive download chunks merged into a single request
+	private int coalesceChunks = 1;
+
+    // if true, the version of a chunked file is created before uploading its chunks
+	private boolean earlyVersion;
+
+    // the maximum number of 'incomplete' tags deleted by a single request; 0 deletes each tag immediately
+	private int tagBatchSize;
+
+    // the tags reporting the version name and the length of a stored file
+	private static final String VNAME_TAG = "vname";
+	private static final String BYTES_TAG = "bytes";
+
+    // the last chunks of the files waiting for the 'incomplete' tag to be deleted, by file version name
+	private LinkedHashMap<String, FileChunk> pendingTags;
+
+    // the maximum number of uploaded files validated by a single query of their tags; 0 leaves the validation to the listener
+	private int validateBatchSize;
+
+    // the last chunks of the uploaded files waiting for their tags to be validated, by file version name
+	private LinkedHashMap<String, FileChunk> pendingValidations;
+
+    // true while files are still added to the transfer (directory scan or streamed download listing)
+	private boolean scanning;
 
     /**
      * Constructor
@@ -147,18 +237,39 @@ public class ConcurrentJakartaClient extends JakartaClient implements Concurrent
 		super(connections, socketBufferSize, socketTimeout);
 		this.connections = connections;
 		this.listener = listener;
+		retryPolicy.setListener(listener);
+		hedgePercentile = (int) TagFilerProperties.getProperty("tagfiler.hedge.percentile", 95L);
+		hedgeMinSamples = (int) TagFilerProperties.getProperty("tagfiler.hedge.samples", 20L);
+		hedgeInterval = TagFilerProperties.getProperty("tagfiler.hedge.interval", 500L);
+		splitMinLength = TagFilerProperties.getProperty("tagfiler.split.min", 1048576L);
 	}
 	
 	private void init() {
-		WorkerQueue = new LinkedBlockingQueue<FileChunk>();
-		TransmissionQueue = new LinkedBlockingQueue<FileChunk>();
 		filesCompletion = new HashMap<String, FileItem>();
 		downloadCheckPoint = new Hashtable<String, Long>();
 		downloadChecksum = new HashMap<String, String>();
+		quarantine = new LinkedHashMap<String, String>();
+		retryPass = false;
+		failure = false;
+		inFlight = new LinkedHashMap<FileChunk, Long>();
+		latencyCount = 0;
+		hedgedRequests = 0;
+		hedgedWins = 0;
+		splitRequests = 0;
+		corruptedChunks = 0;
+		pendingTags = new LinkedHashMap<String, FileChunk>();
+		pendingValidations = new LinkedHashMap<String, FileChunk>();
+		initQueues();
+	}
+	
+	/**
+	 * Create the queues and the threads pool for a new transfer pass
+	 */
+	private void initQueues() {
+		TransmissionQueue = new LinkedBlockingQueue<FileChunk>();
 		workerWrapper = new QueueWrapper();
 		workerWrapper.maxThreads = this.connections;
 		cancel = false;
-		failure = false;
 	}
 	
     /**
@@ -171,6 +282,17 @@ public class ConcurrentJakartaClient extends JakartaClient implements Concurrent
 		this.baseURL = baseURL;
 	}
 
+    /**
+     * Set the digest provider of the files checksums
+     * 
+     * @param provider
+     *            the digest provider
+     */
+	public void setDigestProvider(DigestProvider provider) {
+        if (provider == null) throw new IllegalArgumentException("provider");
+		digestProvider = provider;
+	}
+
     /**
      * Set the size of a chunk block to be transfered
      * 
@@ -201,6 +323,93 @@ public class ConcurrentJakartaClient extends JakartaClient implements Concurrent
 		allowChunks = mode;
 	}
 	
+    /**
+     * Set the policy used for retrying the failed requests
+     * The policy logs its messages through the client listener
+     * 
+     * @param policy
+     *            the retry policy
+     */
+	public void setRetryPolicy(RetryPolicy policy) {
+		super.setRetryPolicy(policy);
+		policy.setListener(listener);
+	}
+	
+    /**
+     * Set the mode of handling a file failure
+     * 
+     * @param mode
+     *            if true, the failed files are quarantined and retried at the end of the transfer
+     */
+	public void setQuarantineMode(boolean mode) {
+		quarantineMode = mode;
+	}
+	
+    /**
+     * Set the mode of handling the slow download chunks
+     * 
+     * @param mode
+     *            if true, a slow chunk is requested again on an idle connection
+     *            and the first response is kept
+     */
+	public void setHedgeMode(boolean mode) {
+		hedgeMode = mode;
+	}
+	
+    /**
+     * Set the mode of balancing the download chunks in progress
+     * 
+     * @param mode
+     *            if true, an idle connection takes the second half 
+     *            of the unfetched part of a chunk in progress
+     */
+	public void setSplitMode(boolean mode) {
+		splitMode = mode;
+	}
+	
+    /**
+     * Set the maximum number of consecutive download chunks merged into a single request
+     * The chunks are merged only while there are enough pending requests for all the connections
+     * 
+     * @param chunks
+     *            the maximum number of chunks per request; 1 disables merging
+     */
+	public void setCoalesceChunks(int chunks) {
+		coalesceChunks = Math.max(1, chunks);
+	}
+	
+    /**
+     * Set the mode of creating the version of a chunked file
+     * 
+     * @param mode
+     *            if true, an empty file version is created first 
+     *            and then the chunks are uploaded in parallel
+     */
+	public void setEarlyVersionMode(boolean mode) {
+		earlyVersion = mode;
+	}
+	
+    /**
+     * Set the maximum number of 'incomplete' tags deleted by a single request
+     * 
+     * @param size
+     *            the batch size; 0 deletes the tag as soon as the file was uploaded
+     */
+	public void setTagBatchSize(int size) {
+		tagBatchSize = Math.max(0, size);
+	}
+	
+    /**
+     * Set the maximum number of uploaded files validated by a single query of their tags
+     * A file is completed after the server reported the bytes and the checksum it stored
+     * 
+     * @param size
+     *            the batch size; 0 completes the file without validation
+     */
+	public void setValidateBatchSize(int size) {
+		validateBatchSize = Math.max(0, size);
+	}
+	
     /**
      * Upload recursively a directory
      * 
@@ -209,7 +418,73 @@ public class ConcurrentJakartaClient extends JakartaClient implements Concurrent
      */
 	public void uploadDirectory(String dir) {
         if (dir == null) throw new IllegalArgumentException(dir);
-		upload(getFiles(new File(dir)));
+		uploadDirectory(new File[] { new File(dir) }, dir, new HashMap<String, String>(), new HashMap<String, Integer>(), null);
+	}
+	
+    /**
+     * Upload recursively files and directories while they are scanned
+     * Each file is queued for upload as soon as the scan finds it
+     * The transfer completes after the scan ended and all the files were transferred
+     * 
+     * @param files
+     *            the files and directories to be uploaded
+     * @param baseDirectory
+     *            the base directory to be used for the uploaded files
+     * @param checksumMap
+     *            the checksum Map for the uploaded files
+     * @param versionMap
+     *            the version Map for the uploaded files
+     * @param handler
+     *            the handler notified about each file before it is queued or null
+     */
+	public void uploadDirectory(File[] files, String baseDirectory, Map<String, String> checksumMap, Map<String, Integer> versionMap, 
+			final DirectoryScanner.FileHandler handler) {
+        if (files == null || baseDirectory == null || checksumMap == null || versionMap == null) 
+        	throw new IllegalArgumentException(files+", "+baseDirectory+", "+checksumMap+", "+versionMap);
+		enableChecksum = listener.isEnableChecksum();
+		datasetId = listener.getDatasetId();
+		this.baseDirectory = baseDirectory;
+		this.checksumMap = checksumMap;
+		this.versionMap = versionMap;
+		totalFiles = 0;
+		init();
+		scanning = true;
+		Thread thread = new DispatcherThread(TransmissionQueue, workerWrapper);
+		thread.start();
+		
+		// the files are uploaded while the directories are scanned
+		DirectoryScanner scanner = new DirectoryScanner(
+				(int) TagFilerProperties.getProperty("tagfiler.scan.threads", 4L),
+				new DirectoryScanner.FileHandler() {
+					public void fileFound(String path, long length) {
+						synchronized (requestLock) {
+							synchronized (ConcurrentJakartaClient.this) {
+								if (cancel || failure) {
+									return;
+								}
+								totalFiles++;
+							}
+							if (handler != null) {
+								handler.fileFound(path, length);
+							}
+							uploadFile(new FileWrapper(path, 0, 0, length));
+						}
+					}
+				});
+		scanner.scan(files);
+		
+		boolean completed = false;
+		synchronized (this) {
+			scanning = false;
+			completed = (totalFiles == 0 && !cancel && !failure);
+		}
+		if (completed) {
+			notifySuccess();
+		} else {
+			// the last files might wait only for their tags
+			flushPendingTags();
+			flushValidations();
+		}
 	}
 	
     /**
@@ -226,7 +501,7 @@ public class ConcurrentJakartaClient extends JakartaClient implements Concurrent
 		for (FileWrapper file : files) {
 			uploadFile(file);
 		}
-		Thread thread = new DispatcherThread();
+		Thread thread = new DispatcherThread(TransmissionQueue, workerWrapper);
 		thread.start();
 	}
 	
@@ -266,7 +541,7 @@ public class ConcurrentJakartaClient extends JakartaClient implements Concurrent
 		totalFiles = 1;
 		init();
 		uploadFile(fileWrapper);
-		Thread thread = new DispatcherThread();
+		Thread thread = new DispatcherThread(TransmissionQueue, workerWrapper);
 		thread.start();
 	}
 	
@@ -305,8 +580,13 @@ public class ConcurrentJakartaClient extends JakartaClient implements Concurrent
 		totalFiles = 1;
 		isDownload = true;
 		checkPointDir = outputDir;
+		this.checksumMap = checksumMap;
+		this.bytesMap = bytesMap;
+		this.versionMap = versionMap;
 		init();
-        downloadFile(new FileWrapper(file, 0, versionMap.get(file), bytesMap.get(file)), outputDir, checksumMap, bytesMap, versionMap);
+		int version = (versionMap != null && versionMap.get(file) != null) ? versionMap.get(file) : 0;
+		long length = (bytesMap != null && bytesMap.get(file) != null) ? bytesMap.get(file) : 0;
+        downloadFile(new FileWrapper(file, 0, version, length), outputDir, checksumMap, bytesMap, versionMap);
 	}
 	
     /**
@@ -346,16 +626,99 @@ public class ConcurrentJakartaClient extends JakartaClient implements Concurrent
 		totalFiles = files.size();
 		isDownload = true;
 		checkPointDir = outputDir;
+		this.checksumMap = checksumMap;
+		this.bytesMap = bytesMap;
+		this.versionMap = versionMap;
 		init();
 
 		for (FileWrapper file : files) {
 			downloadCheckPoint.put(file.getName(), file.getOffset());
 		}
+		if (bytesMap == null) {
+			// resolve all the lengths before planning the chunks
+			prefetchFileLengths(files, versionMap);
+		}
 		synchronized (requestLock) {
 			for (FileWrapper file : files) {
 				downloadFile(file, outputDir, checksumMap, bytesMap, versionMap);
 			}
 		}
+		synchronized (this) {
+			fileLengths = null;
+		}
+		checkDownloadCompleted();
+	}
+	
+    /**
+     * Start a download fed with files while it is in progress
+     * The files are added with addDownload() and the feed is closed with endDownload()
+     * 
+     * @param outputDir
+     *            the directory where the files will be downloaded
+     * @param checksumMap
+     *            the map containing the checksums of the files to be downloaded.
+     * @param bytesMap
+     *            the map containing the bytes of the files to be downloaded
+     * @param versionMap
+     *            the version Map of the files to be downloaded
+     */
+	public void startDownload(String outputDir, Map<String, String> checksumMap, Map<String, Long> bytesMap, Map<String, Integer> versionMap) {
+        if (outputDir == null || bytesMap == null || versionMap == null) throw new IllegalArgumentException(outputDir+", "+bytesMap+", "+versionMap);
+		enableChecksum = listener.isEnableChecksum();
+		datasetId = listener.getDatasetId();
+		totalFiles = 0;
+		isDownload = true;
+		checkPointDir = outputDir;
+		this.checksumMap = checksumMap;
+		this.bytesMap = bytesMap;
+		this.versionMap = versionMap;
+		init();
+		scanning = true;
+	}
+	
+    /**
+     * Add a file to the download in progress
+     * The file length, version and checksum must be already in the maps of the download
+     * 
+     * @param file
+     *            the file to be downloaded
+     */
+	public void addDownload(FileWrapper file) {
+        if (file == null) throw new IllegalArgumentException("file");
+		synchronized (requestLock) {
+			synchronized (this) {
+				if (cancel || failure) {
+					return;
+				}
+				totalFiles++;
+				downloadCheckPoint.put(file.getName(), file.getOffset());
+			}
+			downloadFile(file, checkPointDir, checksumMap, bytesMap, versionMap);
+		}
+	}
+	
+    /**
+     * Close the feed of the download in progress
+     * The download completes after the files already added were downloaded
+     * 
+     * @param err
+     *            the error message if the feed has failed or null otherwise
+     */
+	public void endDownload(String err) {
+		if (err != null) {
+			notifyFailure(err);
+			return;
+		}
+		boolean completed = false;
+		synchronized (this) {
+			scanning = false;
+			completed = (totalFiles == 0 && !cancel);
+		}
+		if (completed) {
+			// all the files were already downloaded; release the idle threads
+			terminateThreads();
+			workerWrapper.checkCompleted();
+		}
 	}
 	
     /**
@@ -366,13 +729,15 @@ public class ConcurrentJakartaClient extends JakartaClient implements Concurrent
      */
 	private void uploadFile(FileWrapper fileWrapper) {
 		String filename = fileWrapper.getName();
-		File file = new File(filename);
-		long length = file.length();
+		// the length was already read when the file was planned for upload
+		long length = fileWrapper.getFileLength();
 		FileChecksum fileChecksum = null;
 		
 		// mark file to be uploaded
 		FileItem fi = new FileItem(filename, length-fileWrapper.getOffset());
-		filesCompletion.put(filename, fi);
+		synchronized (this) {
+			filesCompletion.put(filename, fi);
+		}
 		FileChunk fc = null;
 		
 		if (!allowChunks || length <= chunkSize) {
@@ -401,14 +766,21 @@ public class ConcurrentJakartaClient extends JakartaClient implements Concurrent
 					fileChecksum = initChecksum(fileWrapper);
 					fc.setFileChecksum(fileChecksum);
 				}
+			} else if (earlyVersion) {
+				// entire file to be uploaded
+				// create first the file version; then all the chunks but the last are uploaded in parallel
+				fc = new FileChunk(filename, 0, 0, length);
+				fc.setCreate(true);
 			} else {
 				// entire file to be uploaded
 				fc = new FileChunk(filename, 0, chunkSize, length);
 			}
 		}
-		if (enableChecksum && fileChecksum == null) {
+		if (enableChecksum && fileChecksum == null && fc.getLength() != fc.getTotalLength()) {
 			// files without check point offset
-			fc.setFileChecksum(new FileChecksum(filename, length, connections-1));
+			// a single chunk file gets its checksum from LocalFileChecksum
+			String digest = getCachedChecksum(filename);
+			fc.setFileChecksum(digest != null ? new FileChecksum(filename, length, digest) : new FileChecksum(filename, length, connections-1));
 		}
 		// load the queue with the first chunk
 		workerWrapper.put(fc);
@@ -424,13 +796,20 @@ public class ConcurrentJakartaClient extends JakartaClient implements Concurrent
 	private FileChecksum initChecksum(FileWrapper fileWrapper) {
 		String filename = fileWrapper.getName();
 		String file;
-		long fileLength;
+		long fileLength = fileWrapper.getFileLength();
 		if (isDownload) {
 			file = checkPointDir + File.separator + filename;
-			fileLength = fileWrapper.getFileLength();
 		} else {
 			file = filename;
-			fileLength = (new File(filename)).length();
+		}
+		String digest = (isDownload && fileWrapper.getOffset() != fileLength) ? null : getCachedChecksum(file);
+		if (digest != null) {
+			// the file did not change since its checksum was computed
+			FileChecksum fileChecksum = new FileChecksum(filename, fileLength, digest);
+			if (fileWrapper.getOffset() > 0) {
+				notifyChunkTransfered(fileWrapper.getOffset());
+			}
+			return fileChecksum;
 		}
 		// initialize the checksum
 		FileChecksum fileChecksum = new FileChecksum(filename, fileLength, connections-1);
@@ -517,26 +896,15 @@ public class ConcurrentJakartaClient extends JakartaClient implements Concurrent
 			totalLength = bytesMap.get(file);
 		} else {
 			// get the file length from the HEAD request
-			String cookie = getCookie();
 			ClientURLResponse response = null;
-			
-			// set the file download request URL
-			StringBuffer url = new StringBuffer();
-			if (baseURL != null) {
-				url.append(baseURL);
-			}
-			try {
-				url.append(URLEncoder.encode("/"+file, "UTF-8"));
-			} catch (UnsupportedEncodingException e2) {
-				// TODO Auto-generated catch block
-				e2.printStackTrace();
+			synchronized (this) {
+				if (fileLengths != null) {
+					response = fileLengths.remove(file);
+				}
 			}
-			int version = versionMap.get(file);
-			url.append("@").append(version);
-			if (browser) {
-				System.out.println("Sending HEAD query: "+url+", File: '"+file+"'");
+			if (response == null) {
+				response = getFileLength(fileWrapper, versionMap);
 			}
-			response = getFileLength(url.toString(), cookie);
 			if (response == null) {
 				notifyFailure("Failure in getting the length of the file \"" + file + "\" of dataset \"" + listener.getDataset() + "\".\\n\\n" +
 						TagFilerProperties.getProperty("tagfiler.connection.lost"), true);
@@ -547,12 +915,16 @@ public class ConcurrentJakartaClient extends JakartaClient implements Concurrent
 			} else {
 				String err = ConcurrentJakartaClient.getStatusMessage(response);
 				response.release();
-    			notifyFailure("<p>Failure in downloading the file \"" + file + "\".<p>Can not get the length of the file.<p>Status " + err);
+    			notifyFileFailure(file, "<p>Failure in downloading the file \"" + file + "\".<p>Can not get the length of the file.<p>Status " + err);
+    			return;
 			}
 		}
 		
 		// mark file to be downloaded
-		filesCompletion.put(file, new FileItem(file, totalLength - fileWrapper.getOffset()));
+		FileItem fi = new FileItem(file, totalLength - fileWrapper.getOffset());
+		synchronized (this) {
+			filesCompletion.put(file, fi);
+		}
 		
 		// put all the chunks into the HTTP request queue
 		long position = 0;
@@ -560,7 +932,7 @@ public class ConcurrentJakartaClient extends JakartaClient implements Concurrent
 		if (allowChunks && fileWrapper.getOffset() > 0) {
 			// file partial downloaded - resume from the check point offset
 			position = fileWrapper.getOffset();
-			filesCompletion.get(file).setLastCheckPoint((int) (fileWrapper.getOffset()/chunkSize));
+			fi.setLastCheckPoint((int) (fileWrapper.getOffset()/chunkSize));
 			if (enableChecksum && checksumMap != null && checksumMap.get(file) != null) {
 				// re-compute the checksum up to the check point offset
 				fileChecksum = initChecksum(fileWrapper);
@@ -568,14 +940,14 @@ public class ConcurrentJakartaClient extends JakartaClient implements Concurrent
 			if (fileWrapper.getOffset() == fileWrapper.getFileLength()) {
 				// the file is already downloaded
 				// we need maybe to check the checksum
-				filesCompletion.get(file).update(0);
+				fi.update(0);
 				if (fileChecksum != null) {
 					String fileCksum = fileChecksum.getDigest();
 					String cksum = checksumMap.get(file);
 			        if (fileCksum == null || !fileCksum.equals(cksum)) {
 			        	System.out.println("Failure in downloading the file \"" + fileWrapper.getName() +
 			        			"\". Checksum failed. Checksum tag: "+cksum+". Checksum computed: "+fileCksum+".");
-	        			notifyFailure("<p>Failure in downloading the file \"" + fileWrapper.getName() + "\".<p>Checksum failed.");
+	        			notifyFileFailure(fileWrapper.getName(), "<p>Failure in downloading the file \"" + fileWrapper.getName() + "\".<p>Checksum failed.");
 			        }
 			        downloadChecksum.put(fileWrapper.getName(), fileCksum);
 				}
@@ -587,6 +959,10 @@ public class ConcurrentJakartaClient extends JakartaClient implements Concurrent
 		}
 		while (position < totalLength || totalLength == 0) {
 			long size = allowChunks ? chunkSize : totalLength;
+			if (allowChunks && !splitMode && coalesceChunks > 1 && workerWrapper.getPendingCount() >= connections) {
+				// all the connections have enough requests; merge consecutive chunks into a single request
+				size = (long) chunkSize * coalesceChunks;
+			}
 			if (position+size > totalLength) {
 				size = totalLength - position;
 			}
@@ -595,7 +971,7 @@ public class ConcurrentJakartaClient extends JakartaClient implements Concurrent
 				fc.setFileChecksum(fileChecksum);
 				fc.setChecksum(checksumMap.get(file));
 			}
-			fc.setVersion(versionMap.get(file));
+			fc.setVersion(versionMap != null ? versionMap.get(file) : fileWrapper.getVersion());
 			workerWrapper.put(fc);
 			position += size;
 			if (totalLength == 0) {
@@ -604,67 +980,505 @@ public class ConcurrentJakartaClient extends JakartaClient implements Concurrent
 		}
 	}
 	
+    
     /**
-     * Get recursively the files of a directory
+     * Send a HEAD request for the length of a file to be downloaded
      * 
-     * @param dir
-     *            the directory
-     * @return the list with the files names
+     * @param fileWrapper
+     *            the file to be downloaded
+     * @param versionMap
+     *            the version Map of the files or null to use the file version
+     * @return the HTTP Response
      */
-    private List<FileWrapper> getFiles(File dir) {
-        if (dir == null) throw new IllegalArgumentException(""+dir);
-        List<FileWrapper> files = new ArrayList<FileWrapper>();
-        File[] children = dir.listFiles(excludeDirFilter);
-        
-        for (int i = 0; i < children.length; i++) {
-            if (children[i].isDirectory()) {
-            	files.addAll(getFiles(children[i]));
-            } else if (children[i].isFile()) {
-            	files.add(new FileWrapper(children[i].getAbsolutePath(), 0, 0, children[i].length()));
-            }
-        }
-        
-        return files;
-    }
+	private ClientURLResponse getFileLength(FileWrapper fileWrapper, Map<String, Integer> versionMap) {
+		String file = fileWrapper.getName();
+		
+		// set the file download request URL
+		StringBuffer url = new StringBuffer();
+		if (baseURL != null) {
+			url.append(baseURL);
+		}
+		try {
+			url.append(URLEncoder.encode("/"+file, "UTF-8"));
+		} catch (UnsupportedEncodingException e2) {
+			// TODO Auto-generated catch block
+			e2.printStackTrace();
+		}
+		int version = (versionMap != null && versionMap.get(file) != null) ? versionMap.get(file) : fileWrapper.getVersion();
+		if (versionMap != null || version > 0) {
+			url.append("@").append(version);
+		}
+		if (browser) {
+			System.out.println("Sending HEAD query: "+url+", File: '"+file+"'");
+		}
+		return getFileLength(url.toString(), getCookie());
+	}
     
     /**
-     * Terminate the threads from the pools
-     * Put in the queue elements to mark threads termination
+     * Get concurrently the lengths of the files to be downloaded
+     * The HEAD requests are sent on a thread per connection,
+     * so the chunks planning does not wait for a round trip per file
+     * 
+     * @param files
+     *            the files to be downloaded
+     * @param versionMap
+     *            the version Map of the files or null to use the files versions
      */
-	private void terminateThreads() {
+	private void prefetchFileLengths(List<FileWrapper> files, final Map<String, Integer> versionMap) {
 		synchronized (this) {
-			cancel = true;
+			fileLengths = new HashMap<String, ClientURLResponse>();
 		}
-		if (!browser) {
-			System.out.print("\nHTTP Connections: " + connections);
+		if (files.size() < 2) {
+			// a single file is resolved by the download
+			return;
 		}
- 		workerWrapper.terminateThreads();
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(connections, files.size()));
+		for (final FileWrapper file : files) {
+			executor.execute(new Runnable() {
+				public void run() {
+					if (cancel) {
+						return;
+					}
+					ClientURLResponse response = getFileLength(file, versionMap);
+					if (response != null) {
+						synchronized (ConcurrentJakartaClient.this) {
+							fileLengths.put(file.getName(), response);
+						}
+					}
+				}
+			});
+		}
+		executor.shutdown();
 		try {
-			TransmissionQueue.put(new FileChunk("", 0, 0, 0));
+			executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
 		} catch (InterruptedException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
 		}
-		if (!browser) {
-			System.out.println(".");
-		}
 	}
-	
+    
     /**
-     * Upload or download completed successfully. 
-     * Terminate the threads from the pools
-     * Notify listener about operation completion
+     * Get the checksum of a local file from the checksum cache
+     * 
+     * @param file
+     *            the local file path
+     * @return the checksum or null if it is not known
      */
-	private void notifySuccess() {
-		// wait until the request feed ended to avoid possible deadlocks 
-		synchronized (requestLock) {
-			terminateThreads();
-		}
-		synchronized (listenerLock) {
-			listener.notifySuccess();
+	private String getCachedChecksum(String file) {
+		ChecksumCache cache = ChecksumCache.getDefault();
+		return cache != null ? cache.get(new File(file), digestProvider.getName()) : null;
+	}
+    
+    /**
+     * Store the computed checksum of a local file into the checksum cache
+     * 
+     * @param file
+     *            the local file path
+     * @param fileChecksum
+     *            the checksum of the file
+     */
+	private void putCachedChecksum(String file, FileChecksum fileChecksum) {
+		ChecksumCache cache = ChecksumCache.getDefault();
+		if (cache != null && fileChecksum.knownDigest == null) {
+			// a downloaded file is digested as it is written; it is stamped once it was closed
+			File localFile = new File(file);
+			ChecksumCache.Stamp stamp = fileChecksum.stamp != null ? fileChecksum.stamp : ChecksumCache.stamp(localFile);
+			cache.put(localFile, stamp, digestProvider.getName(), fileChecksum.getDigest());
+		}
+	}
+    
+    /**
+     * Terminate the threads from the pools
+     * Put in the queue elements to mark threads termination
+     */
+	private void terminateThreads() {
+		synchronized (this) {
+			cancel = true;
+		}
+		if (!browser) {
+			System.out.print("\nHTTP Connections: " + connections);
+		}
+ 		workerWrapper.terminateThreads();
+		try {
+			TransmissionQueue.put(new FileChunk("", 0, 0, 0));
+		} catch (InterruptedException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+		}
+		if (!browser) {
+			System.out.println(".");
+		}
+	}
+	
+    /**
+     * Upload or download completed successfully. 
+     * Terminate the threads from the pools
+     * Notify listener about operation completion
+     */
+	private void notifySuccess() {
+		// wait until the request feed ended to avoid possible deadlocks 
+		synchronized (requestLock) {
+			terminateThreads();
+		}
+		notifyPassCompleted();
+	}
+	
+    /**
+     * A transfer pass completed and all its threads were terminated.
+     * If files were quarantined, retry them once in a final pass.
+     * Otherwise notify the listener about the operation result.
+     */
+	private void notifyPassCompleted() {
+		LinkedHashMap<String, String> failed = null;
+		synchronized (this) {
+			failed = new LinkedHashMap<String, String>(quarantine);
+			if (hedgedRequests > 0) {
+				System.out.println("Hedged requests: " + hedgedRequests + ", completed first: " + hedgedWins + ".");
+			}
+			if (splitRequests > 0) {
+				System.out.println("Split chunks: " + splitRequests + ".");
+			}
+			if (corruptedChunks > 0) {
+				System.out.println("Corrupted chunks transferred again: " + corruptedChunks + ".");
+			}
+		}
+		if (failed.size() == 0) {
+			// the listener may still add files to the check point or write it, if it fails to complete the download
+			synchronized (listenerLock) {
+				listener.notifySuccess();
+			}
+			if (isDownload && downloadCheckPoint != null) {
+				String filename = checkPointDir + File.separator + TagFilerProperties.getProperty("tagfiler.checkpoint.file");
+				if ((new File(filename)).delete()) {
+					System.out.println("Deleted the check point file \""+filename+"\"");
+				}
+				downloadCheckPoint = null;
+				downloadChecksum = null;
+			}
+		} else if (!retryPass) {
+			retryQuarantine(failed.keySet());
+		} else {
+			// report the files that failed again
+			StringBuffer buffer = new StringBuffer();
+			buffer.append("<p>").append(failed.size()).append(" file(s) failed to be transferred.");
+			int count = 0;
+			for (Map.Entry<String, String> entry : failed.entrySet()) {
+				System.out.println("Failed file \"" + entry.getKey() + "\": " + entry.getValue());
+				if (count++ < MAX_REPORTED_FAILURES) {
+					buffer.append(entry.getValue());
+				}
+			}
+			if (count > MAX_REPORTED_FAILURES) {
+				buffer.append("<p>... and ").append(count - MAX_REPORTED_FAILURES).append(" more.");
+			}
+			notifyFailure(buffer.toString());
+		}
+	}
+	
+    /**
+     * Start a final pass for the quarantined files.
+     * The files are transferred again from the beginning.
+     * 
+     * @param files
+     *            the quarantined files
+     */
+	private void retryQuarantine(Set<String> files) {
+		System.out.println("Retrying " + files.size() + " quarantined file(s).");
+		synchronized (requestLock) {
+			synchronized (this) {
+				retryPass = true;
+				quarantine = new LinkedHashMap<String, String>();
+				totalFiles = files.size();
+			}
+			initQueues();
+			for (String file : files) {
+				if (isDownload) {
+					int version = (versionMap != null && versionMap.get(file) != null) ? versionMap.get(file) : 0;
+					long length = (bytesMap != null && bytesMap.get(file) != null) ? bytesMap.get(file) : 0;
+					downloadFile(new FileWrapper(file, 0, version, length), checkPointDir, checksumMap, bytesMap, versionMap);
+				} else {
+					uploadFile(new FileWrapper(file, 0, 0, (new File(file)).length()));
+				}
+			}
+			if (!isDownload) {
+				Thread thread = new DispatcherThread(TransmissionQueue, workerWrapper);
+				thread.start();
+			}
+		}
+		if (isDownload) {
+			checkDownloadCompleted();
+		}
+	}
+	
+    /**
+     * Complete the download pass if all the files were processed and no thread is running
+     */
+	private void checkDownloadCompleted() {
+		boolean completed = false;
+		synchronized (this) {
+			completed = (totalFiles == 0);
+		}
+		if (completed) {
+			workerWrapper.checkCompleted();
+		}
+	}
+	
+    /**
+     * Check if a file was quarantined during the current transfer pass
+     * 
+     * @param filename
+     *            the file name
+     * @return true if the file was quarantined
+     */
+	private synchronized boolean isQuarantined(String filename) {
+		return quarantineMode && quarantine.containsKey(filename);
+	}
+	
+    /**
+     * A file transfer has failed.
+     * In quarantine mode, the file is put aside to be retried at the end of the transfer
+     * and the rest of the files continue to be transferred. 
+     * Otherwise the entire transfer fails.
+     * 
+     * @param filename
+     *            the file name
+     * @param err
+     *            the error message
+     */
+	private void notifyFileFailure(String filename, String err) {
+		if (!quarantineMode) {
+			notifyFailure(err);
+			return;
+		}
+		boolean completed = false;
+		synchronized (this) {
+			if (quarantine.containsKey(filename)) {
+				return;
+			}
+			System.out.println("Quarantined file \"" + filename + "\".");
+			quarantine.put(filename, err);
+			FileItem fi = filesCompletion.remove(filename);
+			if (fi != null) {
+				// the file was not counted yet as transferred
+				fi.setFailed();
+				completed = (--totalFiles == 0 && !scanning);
+			}
+			if (isDownload && downloadCheckPoint != null) {
+				// the file will be downloaded again from the beginning
+				downloadCheckPoint.put(filename, 0L);
+			}
+		}
+		if (completed) {
+			if (isDownload) {
+				terminateThreads();
+				workerWrapper.checkCompleted();
+			} else {
+				notifySuccess();
+			}
+		} else if (!isDownload) {
+			// the rest of the files might wait only for their tags
+			flushPendingTags();
+			flushValidations();
+		}
+	}
+	
+    /**
+     * Defer the delete of the 'incomplete' tag of an uploaded file
+     * The file is marked as transferred after its tag was deleted
+     * 
+     * @param file
+     *            the last chunk of the file
+     */
+	private void deferTagDelete(FileChunk file) {
+		String vname = listener.getDataset() + DatasetUtils.getBaseName(file.getName(), baseDirectory) + "@" + versionMap.get(file.getName());
+		synchronized (this) {
+			pendingTags.put(vname, file);
+		}
+		flushPendingTags();
+	}
+	
+    /**
+     * Delete in a single request the 'incomplete' tags waiting to be deleted
+     * The tags are deleted when the batch is full or when no other file is in progress
+     */
+	private void flushPendingTags() {
+		LinkedHashMap<String, FileChunk> batch = null;
+		synchronized (this) {
+			if (pendingTags.size() > 0 && (pendingTags.size() >= tagBatchSize || pendingTags.size() + pendingValidations.size() >= totalFiles)) {
+				batch = pendingTags;
+				pendingTags = new LinkedHashMap<String, FileChunk>();
+			}
+		}
+		if (batch == null) {
+			return;
+		}
+		
+		// long batches are sent in several requests to keep the URLs under the length limit
+		String tag = TagFilerProperties.getProperty("tagfiler.tag.incomplete");
+		int index = baseURL.indexOf("/file/");
+		if (index == -1) {
+			// the tags URL is built from the files URL
+			for (FileChunk file : batch.values()) {
+				notifyFileFailure(file.getName(), " Can not delete the \""+tag+"\" tag of the file \"" + file.getName() + "\".<p>Invalid URL " + baseURL);
+			}
+			return;
+		}
+		String server = baseURL.substring(0, index);
+		List<List<String>> groups = null;
+		try {
+			groups = DatasetUtils.splitFilesVersionsTag(server, new ArrayList<String>(batch.keySet()), tag, 
+					(int) TagFilerProperties.getProperty("tagfiler.url.max", 4000L));
+		} catch (UnsupportedEncodingException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+			return;
+		}
+		for (List<String> group : groups) {
+			String url = null;
+			try {
+				url = DatasetUtils.getFilesVersionsTag(server, group, tag);
+			} catch (UnsupportedEncodingException e) {
+				// TODO Auto-generated catch block
+				e.printStackTrace();
+			}
+			System.out.println("Sending DELETE query for " + group.size() + " file(s): "+url);
+			ClientURLResponse response = delete(url, getCookie());
+	        if (response == null) {
+	        	notifyFailure(" Can not delete the \""+tag+"\" tag of " + group.size() + " file(s) of the dataset \"" + listener.getDataset() + "\"." +
+	        			TagFilerProperties.getProperty("tagfiler.connection.lost"), true);
+	        	return;
+	        }
+	        updateSessionCookie();
+	        int status = response.getStatus();
+	        response.release();
+	        if (status != 200) {
+	        	String errMsg = " Can not delete the \""+tag+"\" tag of the file \"%s\".<p>Status " + ConcurrentJakartaClient.getStatusMessage(response);
+	        	for (String vname : group) {
+	        		FileChunk file = batch.get(vname);
+	        		notifyFileFailure(file.getName(), errMsg.replace("%s", file.getName()));
+	        	}
+	        } else {
+	        	for (String vname : group) {
+	        		FileChunk file = batch.get(vname);
+	        		notifyFileTransfered(file.getName(), file.getLength(), file.getTotalLength());
+	        	}
+	        }
 		}
 	}
 	
+    /**
+     * Defer the completion of an uploaded file until its tags were validated
+     * 
+     * @param file
+     *            the last chunk of the file
+     */
+	private void deferValidation(FileChunk file) {
+		String vname = listener.getDataset() + DatasetUtils.getBaseName(file.getName(), baseDirectory) + "@" + versionMap.get(file.getName());
+		synchronized (this) {
+			pendingValidations.put(vname, file);
+		}
+		flushValidations();
+	}
+	
+    /**
+     * Query in a single request the bytes and the checksums of the files waiting to be validated
+     * The files are queried when the batch is full or when no other file is in progress
+     * A file stored with other bytes or checksum fails; a file the server did not report is completed 
+     * without confirmation and is left to the listener
+     */
+	private void flushValidations() {
+		LinkedHashMap<String, FileChunk> batch = null;
+		synchronized (this) {
+			if (pendingValidations.size() > 0 && (pendingValidations.size() >= validateBatchSize || pendingTags.size() + pendingValidations.size() >= totalFiles)) {
+				batch = pendingValidations;
+				pendingValidations = new LinkedHashMap<String, FileChunk>();
+			}
+		}
+		if (batch == null) {
+			return;
+		}
+		
+		// long batches are sent in several requests to keep the URLs under the length limit
+		String checksumTag = TagFilerProperties.getProperty("tagfiler.tag.checksum");
+		int index = baseURL.indexOf("/file/");
+		List<List<String>> groups = null;
+		String tags = null;
+		try {
+			tags = DatasetUtils.joinEncode(new String[] {VNAME_TAG, BYTES_TAG, checksumTag}, ";");
+			if (index != -1) {
+				groups = DatasetUtils.splitFilesVersionsTags(baseURL.substring(0, index), new ArrayList<String>(batch.keySet()), tags, 
+						(int) TagFilerProperties.getProperty("tagfiler.url.max", 4000L));
+			}
+		} catch (UnsupportedEncodingException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+		}
+		if (groups == null) {
+			// the tags URL is built from the files URL
+			groups = new ArrayList<List<String>>();
+		}
+		HashMap<String, JSONObject> reported = new HashMap<String, JSONObject>();
+		for (List<String> group : groups) {
+			ClientURLResponse response = null;
+			try {
+				String url = DatasetUtils.getFilesVersionsTags(baseURL.substring(0, index), group, tags);
+				System.out.println("Sending validation query for " + group.size() + " file(s): "+url);
+				response = getTagsValues(url, getCookie());
+				if (response == null || response.getStatus() != 200) {
+					// the files are validated by the listener
+					System.out.println("Can not validate " + group.size() + " file(s): " + (response == null ? getReason() : 
+						ConcurrentJakartaClient.getStatusMessage(response)));
+					continue;
+				}
+				updateSessionCookie();
+				JSONArrayReader reader = new JSONArrayReader(response.getEntityInputStream());
+				try {
+					JSONObject obj;
+					while ((obj = reader.next()) != null) {
+						if (!obj.isNull(VNAME_TAG)) {
+							reported.put(obj.getString(VNAME_TAG), obj);
+						}
+					}
+				} finally {
+					reader.close();
+				}
+			} catch (Exception e) {
+				// the files are validated by the listener
+				e.printStackTrace();
+			} finally {
+				if (response != null) {
+					response.release();
+				}
+			}
+		}
+		
+		for (Map.Entry<String, FileChunk> entry : batch.entrySet()) {
+			FileChunk file = entry.getValue();
+			JSONObject obj = reported.get(entry.getKey());
+			if (obj == null || obj.isNull(BYTES_TAG)) {
+				notifyFileCompleted(file.getName(), file.getLength(), -1);
+				continue;
+			}
+			long bytes = obj.optLong(BYTES_TAG, -1);
+			String cksum = null;
+			if (enableChecksum) {
+				cksum = checksumMap.get(DatasetUtils.getBaseName(file.getName(), baseDirectory));
+			}
+			if (bytes != file.getTotalLength()) {
+				notifyFileFailure(file.getName(), " The server stored " + bytes + " bytes of the file \"" + file.getName() + "\" of " + 
+						file.getTotalLength() + " bytes.");
+			} else if (cksum != null && !cksum.equals(obj.optString(checksumTag, null))) {
+				notifyFileFailure(file.getName(), " The server stored the file \"" + file.getName() + "\" with the checksum " + 
+						obj.optString(checksumTag, null) + " instead of " + cksum + ".");
+			} else {
+				notifyFileCompleted(file.getName(), file.getLength(), bytes);
+			}
+		}
+		
+		// the rest of the files might wait only for their tags
+		flushPendingTags();
+	}
+	
     /**
      * Upload or download has failed. 
      * Terminate the threads from the pools
@@ -696,9 +1510,29 @@ public class ConcurrentJakartaClient extends JakartaClient implements Concurrent
 		}
 	}
 	
+    /**
+     * Add to the download check point a file created locally
+     * 
+     * @param file
+     *            the file name
+     * @param length
+     *            the file length
+     * @param checksum
+     *            the file checksum or null
+     */
+	public synchronized void addCheckPoint(String file, long length, String checksum) {
+		if (downloadCheckPoint != null) {
+			downloadCheckPoint.put(file, length);
+			if (checksum != null) {
+				downloadChecksum.put(file, checksum);
+			}
+		}
+	}
+	
     /**
      * Write the check point for download failure. 
-     * It is written only once: at notifyFailure or when the applet exits unexpected:
+     * It is written only once: at notifyFailure, when the session fails to complete a successful download,
+     * or when the applet exits unexpected:
      *	- user exits applet page or the browser was closed or the browser crashed
      */
 	public void writeCheckPoint() {
@@ -746,19 +1580,42 @@ public class ConcurrentJakartaClient extends JakartaClient implements Concurrent
 	
     /**
      * Notify the listener that a file transfer completed
+     * An uploaded file is completed after its tags were validated if a validation batch size is set
      * @param filename
      *            the file name
      * @param size
      *            the chunk size transferred
+     * @param length
+     *            the file length
      */
-	private void notifyFileTransfered(String filename, long size) {
+	private void notifyFileTransfered(String filename, long size, long length) {
+		if (!isDownload && validateBatchSize > 0) {
+			deferValidation(new FileChunk(filename, length - size, size, length));
+			return;
+		}
+		notifyFileCompleted(filename, size, -1);
+	}
+	
+    /**
+     * Notify the listener that a file was completed
+     * @param filename
+     *            the file name
+     * @param size
+     *            the chunk size transferred
+     * @param bytes
+     *            the file length reported by the server or -1 if the server did not confirm it
+     */
+	private void notifyFileCompleted(String filename, long size, long bytes) {
 		synchronized (listenerLock) {
 			listener.notifyFileTransfered(size);
+			if (bytes != -1) {
+				listener.notifyFileAcknowledged(filename, bytes);
+			}
 		}
 		
 		synchronized (this) {
 			filesCompletion.remove(filename);
-			if (--totalFiles == 0 && !isDownload) {
+			if (--totalFiles == 0 && !isDownload && !scanning) {
 				notifySuccess();
 			}
 		}
@@ -784,13 +1641,17 @@ public class ConcurrentJakartaClient extends JakartaClient implements Concurrent
      *            the file to be uploaded
      */
 	private void sendUpload(FileChunk file) {
+		if (file.isCreate()) {
+			createVersion(file);
+			return;
+		}
 		
 		// check if the request will be cancelled due to a previous failure
 		boolean cancel = false;
 		synchronized (this) {
 			cancel = this.cancel;
 		}
-		if (cancel) {
+		if (cancel || isQuarantined(file.getName())) {
 			return;
 		}
 		
@@ -815,7 +1676,14 @@ public class ConcurrentJakartaClient extends JakartaClient implements Concurrent
 			}
 			
 			StringBuffer tagBaseUrl = new StringBuffer(url.toString().replaceFirst("/file/", "/tags/"));
-			FileItem fi = filesCompletion.get(file.getName());
+			FileItem fi = null;
+			synchronized (this) {
+				fi = filesCompletion.get(file.getName());
+			}
+			if (fi == null) {
+				// the file was quarantined
+				return;
+			}
 
 			// if this is the last chunk, Dataset Name and Checksum parameters will be added
 			String cksum = null;
@@ -826,7 +1694,7 @@ public class ConcurrentJakartaClient extends JakartaClient implements Concurrent
 			if (file.getLength() == file.getTotalLength()) {
 				if (enableChecksum) {
 					try {
-						cksum = LocalFileChecksum.computeFileChecksum(new File(file.getName()));
+						cksum = LocalFileChecksum.computeFileChecksum(new File(file.getName()), digestProvider);
 						notifyChunkTransfered(file.getLength());
 					} catch (FatalException e) {
 						// TODO Auto-generated catch block
@@ -875,6 +1743,7 @@ public class ConcurrentJakartaClient extends JakartaClient implements Concurrent
 				}
 				if (file.isLastChunk() && enableChecksum) {
 					cksum = file.getFileChecksum().getDigest();
+					putCachedChecksum(file.getName(), file.getFileChecksum());
 				}
 			}
 			
@@ -916,12 +1785,25 @@ public class ConcurrentJakartaClient extends JakartaClient implements Concurrent
 			if (browser) {
 				System.out.println("Sending UPLOAD query: "+url+", File: "+file);
 			}
-			if (file.getLength() == file.getTotalLength()) {
-				// small file; upload the entire file
-				response = postFile(url.toString(), new File(file.getName()), cookie);
-			} else {
-				response = postFile(url.toString(), ret, file.getLength(), file.getOffset(), file.getTotalLength(), cookie);
-			}
+			int count = 0;
+			do {
+				if (response != null) {
+					// the server rejected the Content-MD5 of the chunk; send the chunk again
+					response.release();
+					synchronized (this) {
+						corruptedChunks++;
+					}
+					System.out.println("Resending corrupted chunk: "+url+", File: "+file);
+				}
+				if (file.getLength() == file.getTotalLength()) {
+					// small file; upload the entire file
+					response = postFile(url.toString(), new File(file.getName()), cookie);
+				} else {
+					// a chunk of a created version has always a range
+					response = postFileBlock(url.toString(), ret, file.getLength(), file.getOffset(), file.getTotalLength(), 
+							file.getOffset() != 0 || file.getVersion() > 0, cookie);
+				}
+			} while (chunkDigest && isDigestMismatch(response) && count++ < retries);
 			
 			if (response == null) {
 				notifyFailure("Failure in uploading the file \"" + file + "\" of dataset \"" + listener.getDataset() + "\".\\n\\n" +
@@ -949,7 +1831,10 @@ public class ConcurrentJakartaClient extends JakartaClient implements Concurrent
 				if (size == 0) {
 					response.release();
 					response = null;
-					if (file.getLength() != file.getTotalLength()) {
+					if (file.getLength() != file.getTotalLength() && tagBatchSize > 0) {
+						// the 'incomplete' tag will be deleted together with the tags of other files
+						deferTagDelete(file);
+					} else if (file.getLength() != file.getTotalLength()) {
 						// send a DELETE request for 'incomplete' tag
 						tagBaseUrl.append("(")
 							.append(DatasetUtils.urlEncode(TagFilerProperties.getProperty("tagfiler.tag.incomplete")))
@@ -967,14 +1852,14 @@ public class ConcurrentJakartaClient extends JakartaClient implements Concurrent
 		                    if (status != 200) {
 			                    String errMsg = "<p>Can not delete the \""+TagFilerProperties.getProperty("tagfiler.tag.incomplete")+"\" tag.<p>Status ";
 			                    errMsg += (status == 200) ? "" : ConcurrentJakartaClient.getStatusMessage(response);
-			                	notifyFailure(" Can not delete the \""+TagFilerProperties.getProperty("tagfiler.tag.incomplete")+"\" tag of the dataset \""  + DatasetUtils.urlDecode(tagBaseUrl.toString()) + "\"." + errMsg);
+			                	notifyFileFailure(file.getName(), " Can not delete the \""+TagFilerProperties.getProperty("tagfiler.tag.incomplete")+"\" tag of the dataset \""  + DatasetUtils.urlDecode(tagBaseUrl.toString()) + "\"." + errMsg);
 				                return;
 		                    } else {
-		                    	notifyFileTransfered(fi.getName(), file.getLength());
+		                    	notifyFileTransfered(fi.getName(), file.getLength(), file.getTotalLength());
 		                    }
 		                }
 					} else {
-                    	notifyFileTransfered(fi.getName(), file.getLength());
+                    	notifyFileTransfered(fi.getName(), file.getLength(), file.getTotalLength());
 					}
 				}
 				else if (size > 0) {
@@ -996,7 +1881,7 @@ public class ConcurrentJakartaClient extends JakartaClient implements Concurrent
 								e.printStackTrace();
 							}
 						}
-					} else if (file.getOffset() == 0 || file.isFirstChunk()) {
+					} else if ((file.getOffset() == 0 && file.getVersion() == 0) || file.isFirstChunk()) {
 						// first chunk was completed
 						// put the rest of chunks but the last into the Transmission Queue
 						position = file.getOffset() + chunkSize;
@@ -1023,7 +1908,7 @@ public class ConcurrentJakartaClient extends JakartaClient implements Concurrent
 				String err = ConcurrentJakartaClient.getStatusMessage(response);
 				response.release();
 				response = null;
-				notifyFailure("<p>Failure in uploading the file \"" + file + "\".<p>Status " + err);
+				notifyFileFailure(file.getName(), "<p>Failure in uploading the file \"" + file + "\".<p>Status " + err);
 			}
 			if (response != null) {
 				response.release();
@@ -1037,6 +1922,85 @@ public class ConcurrentJakartaClient extends JakartaClient implements Concurrent
 		}
 	}
 	
+    /**
+     * Create the version of a file to be uploaded in chunks
+     * Put all the chunks but the last into the Transmission Queue
+     * The last chunk follows, as usually, when the rest of the file was uploaded
+     * @param file
+     *            the request for creating the file version
+     */
+	private void createVersion(FileChunk file) {
+		// check if the request will be cancelled due to a previous failure
+		boolean cancel = false;
+		synchronized (this) {
+			cancel = this.cancel;
+		}
+		if (cancel || isQuarantined(file.getName())) {
+			return;
+		}
+		String cookie = getCookie();
+		
+		// set the file create request URL
+		StringBuffer url = new StringBuffer();
+		if (baseURL != null) {
+			url.append(baseURL);
+		}
+		try {
+			url.append(URLEncoder.encode(DatasetUtils.getBaseName(file.getName(), baseDirectory), "UTF-8"))
+				.append(DatasetUtils.getUploadQueryCheckPoint(0))
+				.append(DatasetUtils.getUploadQuerySuffix(TagFilerProperties.getProperty("tagfiler.tag.incomplete"), null));
+		} catch (UnsupportedEncodingException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+		} catch (FatalException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+		}
+		
+		if (browser) {
+			System.out.println("Sending CREATE query: "+url+", File: "+file);
+		}
+		ClientURLResponse response = createFile(url.toString(), cookie);
+		if (response == null) {
+			notifyFailure("Failure in uploading the file \"" + file + "\" of dataset \"" + listener.getDataset() + "\".\\n\\n" +
+					TagFilerProperties.getProperty("tagfiler.connection.lost"), true);
+			return;
+		}
+		
+		// Check result
+		int status = response.getStatus();
+		updateSessionCookie();
+		if (201 == status || 204 == status) {
+			int version = DatasetUtils.getVersion(response.getLocationString());
+			response.release();
+			versionMap.put(file.getName(), version);
+			
+			// put all the chunks but the last into the Transmission Queue
+			long position = 0;
+			long filesize = file.getTotalLength();
+			synchronized (this) {
+				while (position + chunkSize < filesize) {
+					try {
+						FileChunk fc = new FileChunk(file.getName(), position, chunkSize, filesize);
+						if (enableChecksum) {
+							fc.setFileChecksum(file.getFileChecksum());
+						}
+						fc.setVersion(version);
+						TransmissionQueue.put(fc);
+					} catch (InterruptedException e) {
+						// TODO Auto-generated catch block
+						e.printStackTrace();
+					}
+					position += chunkSize;
+				}
+			}
+		} else {
+			String err = ConcurrentJakartaClient.getStatusMessage(response);
+			response.release();
+			notifyFileFailure(file.getName(), "<p>Failure in uploading the file \"" + file + "\".<p>Status " + err);
+		}
+	}
+	
     /**
      * Send a download request 
      * Execute the download HTTP request
@@ -1050,7 +2014,7 @@ public class ConcurrentJakartaClient extends JakartaClient implements Concurrent
 		synchronized (this) {
 			cancel = this.cancel;
 		}
-		if (cancel) {
+		if (cancel || isQuarantined(file.getName())) {
 			return;
 		}
 		String cookie = getCookie();
@@ -1071,23 +2035,42 @@ public class ConcurrentJakartaClient extends JakartaClient implements Concurrent
 		}
 		
 		// Execute the HTTP request
+		// a hedged request is not retried and does not report failures; its twin request does it
 		int count = 0;
-		while (true) {
+		startChunk(file);
+		while (!file.isLost()) {
 			// execute it up to re
 			ClientURLResponse response = null;
 			if (browser) {
-				System.out.println((count == 0 ? "Sending " : "Resending ") + "DOWNLOAD query: "+url+", File: "+file);
+				System.out.println((count == 0 ? (file.isHedge() ? "Sending hedged " : "Sending ") : "Resending ") + "DOWNLOAD query: "+url+", File: "+file);
 			}
-			if (file.getLength() == file.getTotalLength()) {
+			file.setStartTime(System.currentTimeMillis());
+			long first = file.getOffset();
+			long length = file.getLength();
+			if (splitMode && allowChunks) {
+				// request only the part of the chunk not received yet
+				synchronized (file.getOwner()) {
+					first = file.getOwner().getOffset() + file.getPartPosition();
+					length = file.getPartEnd() - file.getPartPosition();
+					file.setRequestEnd(file.getPartEnd());
+				}
+			} else {
+				// request only the blocks not written by a previous attempt
+				first += file.getWritten();
+				length -= file.getWritten();
+			}
+			if (first == 0 && length == file.getTotalLength()) {
 				// small file; upload the entire file
 				response = downloadFile(url.toString(), cookie);
 			} else {
-				response = downloadFile(url.toString(), file.getLength(), file.getOffset(), cookie);
+				response = downloadFile(url.toString(), length, first, cookie);
 			}
 			if (response == null) {
-				notifyFailure("Failure in downloading the file \"" + file + "\" of dataset \"" + listener.getDataset() + "\".\\n\\n" +
-						TagFilerProperties.getProperty("tagfiler.connection.lost"), true);
-				return;
+				if ((!file.isHedge() || file.isWriter()) && !file.isLost()) {
+					notifyFailure("Failure in downloading the file \"" + file + "\" of dataset \"" + listener.getDataset() + "\".\\n\\n" +
+							TagFilerProperties.getProperty("tagfiler.connection.lost"), true);
+				}
+				break;
 			}
 			
 			// Check result
@@ -1096,18 +2079,158 @@ public class ConcurrentJakartaClient extends JakartaClient implements Concurrent
 			if (200 == status || 206 == status) {
 				// place response into the post request processing queue
 				file.setResponse(response);
-				if (processDownloadResult(file, thread)) {
-					return;
-				} else if (++count > retries){
-					notifyFailure("<p>Failure in downloading the file \"" + file + "\".<p>Input stream is broken.");
-					return;
+				if (processDownloadResult(file, thread) || (file.isHedge() && !file.isWriter())) {
+					// a hedged request that started writing the chunk is retried like its twin
+					break;
+				} else if (++count > retries && !file.isLost()){
+					notifyFileFailure(file.getName(), "<p>Failure in downloading the file \"" + file + "\".<p>Input stream is broken.");
+					break;
 				}
 			} else {
 				String err = ConcurrentJakartaClient.getStatusMessage(response);
 				response.release();
-				notifyFailure("<p>Failure in downloading the file \"" + file + "\".<p>Status " + err);
+				if (!file.isHedge() || file.isWriter()) {
+					notifyFileFailure(file.getName(), "<p>Failure in downloading the file \"" + file + "\".<p>Status " + err);
+				}
+				break;
 			}
 		}
+		endChunk(file);
+	}
+	
+    /**
+     * Mark a download chunk as being in progress
+     * 
+     * @param file
+     *            the chunk
+     */
+	private synchronized void startChunk(FileChunk file) {
+		if ((hedgeMode || splitMode) && !file.isHedge() && file.getOwner() == file) {
+			inFlight.put(file, System.currentTimeMillis());
+		}
+	}
+	
+    /**
+     * Mark a download chunk as being finished
+     * 
+     * @param file
+     *            the chunk
+     */
+	private synchronized void endChunk(FileChunk file) {
+		if ((hedgeMode || splitMode) && !file.isHedge() && file.getOwner() == file) {
+			inFlight.remove(file);
+		}
+	}
+	
+    /**
+     * Get the right of writing the content of a download chunk
+     * The first request writing a chunk wins; its hedged twin request is aborted
+     * Without hedged requests there is no twin and the chunk is not claimed
+     * A request that already owns the chunk keeps it through its retries
+     * 
+     * @param file
+     *            the chunk
+     * @return true if the chunk content can be written; false if the twin request already writes it
+     */
+	private boolean claimChunk(FileChunk file) {
+		if (!hedgeMode) {
+			return true;
+		}
+		if (file.isWriter()) {
+			// a retry of the request that won the chunk
+			return true;
+		}
+		if (!file.claim()) {
+			return false;
+		}
+		synchronized (this) {
+			latencies[latencyCount++ % HEDGE_SAMPLES] = System.currentTimeMillis() - file.getStartTime();
+			if (file.isHedge()) {
+				hedgedWins++;
+			}
+		}
+		file.abortTwin();
+		return true;
+	}
+	
+    /**
+     * Get a new request for an idle thread while the Worker Queue is empty
+     * 
+     * @return the chunk to be downloaded or null if none
+     */
+	private FileChunk getIdleChunk() {
+		FileChunk fc = null;
+		if (splitMode && allowChunks) {
+			fc = getSplitChunk();
+		}
+		if (fc == null && hedgeMode) {
+			fc = getHedgeChunk();
+		}
+		return fc;
+	}
+	
+    /**
+     * Split the download chunk in progress with the largest unfetched part
+     * 
+     * @return the chunk with the second half of the unfetched part or null if no chunk is large enough
+     */
+	private synchronized FileChunk getSplitChunk() {
+		if (cancel) {
+			return null;
+		}
+		FileChunk candidate = null;
+		long max = 0;
+		for (FileChunk fc : inFlight.keySet()) {
+			long remaining = fc.getUnfetched();
+			if (remaining > max && !isQuarantined(fc.getName())) {
+				max = remaining;
+				candidate = fc;
+			}
+		}
+		if (candidate == null || max < 2 * splitMinLength) {
+			return null;
+		}
+		FileChunk tail = candidate.split(2 * splitMinLength);
+		if (tail != null) {
+			splitRequests++;
+			System.out.println("Split chunk " + candidate + " at offset " + tail.getOffset() + ".");
+		}
+		return tail;
+	}
+	
+    /**
+     * Get a duplicate of the oldest download chunk in progress 
+     * whose duration exceeds the latencies percentile
+     * 
+     * @return the hedged chunk or null if no chunk is slow enough
+     */
+	private synchronized FileChunk getHedgeChunk() {
+		if (cancel || latencyCount < hedgeMinSamples) {
+			return null;
+		}
+		
+		// compute the threshold from the latencies of the last downloaded chunks
+		int count = Math.min(latencyCount, HEDGE_SAMPLES);
+		long samples[] = new long[count];
+		System.arraycopy(latencies, 0, samples, 0, count);
+		Arrays.sort(samples);
+		int index = (int) Math.ceil(hedgePercentile * count / 100.0) - 1;
+		long threshold = samples[Math.max(0, Math.min(index, count - 1))];
+		
+		long now = System.currentTimeMillis();
+		for (Map.Entry<FileChunk, Long> entry : inFlight.entrySet()) {
+			if (now - entry.getValue() <= threshold) {
+				// the rest of the chunks started later
+				break;
+			}
+			FileChunk fc = entry.getKey();
+			if (!fc.hasHedge() && !fc.isSplit() && !fc.isClaimed() && !isQuarantined(fc.getName())) {
+				hedgedRequests++;
+				System.out.println("Hedged request for " + fc + " after " + (now - entry.getValue()) + " ms (threshold " + threshold + " ms).");
+				return fc.createHedge();
+			}
+		}
+		return null;
 	}
 	
     /**
@@ -1120,7 +2243,20 @@ public class ConcurrentJakartaClient extends JakartaClient implements Concurrent
 		boolean success = false;
 		try {
 		    String localFile = file.getName().replace('/', File.separatorChar);
-			FileItem fi = filesCompletion.get(file.getName());
+			FileItem fi = null;
+			synchronized (this) {
+				fi = filesCompletion.get(file.getName());
+			}
+			if (fi == null || fi.isFailed()) {
+				// the file was quarantined
+				file.getResponse().release();
+				return true;
+			}
+			if (file.isLost()) {
+				// the twin request already writes the chunk
+				file.getResponse().abort();
+				return true;
+			}
 		    
 		    // create intermediate directories if necessary
             File dir = new File(file.getDownloadDir());
@@ -1134,7 +2270,7 @@ public class ConcurrentJakartaClient extends JakartaClient implements Concurrent
                     }
                 }
                 if (!OK) {
-        			notifyFailure("<p>Failure in downloading the file \"" + file + "\".<p>Can not make directory \"" + dir + "\".");
+        			notifyFileFailure(file.getName(), "<p>Failure in downloading the file \"" + file + "\".<p>Can not make directory \"" + dir + "\".");
                 	return success;
                 }
             }
@@ -1144,46 +2280,94 @@ public class ConcurrentJakartaClient extends JakartaClient implements Concurrent
             if (raf == null) {
     			raf = new RandomAccessFile(file.getDownloadDir() + File.separatorChar + localFile,"rw");
     			thread.addFile(file.getName(), raf, file.getChecksum(), file.getFileChecksum());
+            }
+            if (splitMode && allowChunks) {
+            	return processChunkPart(file, fi, raf, thread);
             }
 			try {
-				raf.seek(file.getOffset());
+				// a retry continues from the first block not written by the previous attempts
+				long writeOffset = file.getOffset() + file.getWritten();
+				raf.seek(writeOffset);
 				
 				// read the response content and write it into the local file
-				long writeOffset = file.getOffset();
                 byte ret[] = new byte[chunkSize];
                 InputStream is = file.getResponse().getEntityInputStream();
+                long end = file.getOffset() + file.getLength();
+                String digest = chunkDigest ? getChunkDigest(file.getResponse()) : null;
+                if (digest != null) {
+                	// verify the range before writing it, so a corrupted chunk is requested again
+                	byte content[] = readChunk(is, (int) (end - writeOffset));
+                	if (content == null || !digest.equals(DatasetUtils.contentMD5(content, 0, content.length))) {
+                		file.getResponse().release();
+                		synchronized (this) {
+                			corruptedChunks++;
+                		}
+                		System.out.println("Corrupted chunk: " + file + ", it will be requested again.");
+                		return false;
+                	}
+                	is = new ByteArrayInputStream(content);
+                }
                 BufferedInputStream bis = new BufferedInputStream(is, chunkSize);
                 int remaining = chunkSize;
                 int offset = 0;
                 int res;
+                boolean claimed = false;
                 while ((res = bis.read(ret, offset, remaining)) != -1) {
                     remaining -= res;
                     offset += res;
                     if (remaining == 0) {
+                        if (!claimed) {
+                            if (!claimChunk(file)) {
+                                // the twin request already writes the chunk
+                                file.getResponse().release();
+                                return true;
+                            }
+                            claimed = true;
+                        }
                         raf.write(ret, 0, offset);
                         if (enableChecksum && file.getFileChecksum() != null) {
                             file.getFileChecksum().put(ret, chunkSize, (int) (writeOffset/chunkSize));
                         }
                         fi.updateDownloadCheckPoint((int) (writeOffset/chunkSize), writeOffset+chunkSize);
+                        // the block is written and digested; it is not requested again
+                        file.addWritten(chunkSize);
                         offset = 0;
                         writeOffset += chunkSize;
                         ret = new byte[chunkSize];
                         remaining = chunkSize;
-                        success = true;
                     }
                 }
                 
-                if (offset > 0 && file.getLength() == offset) {
+                if (offset > 0 && writeOffset + offset == end) {
                     // remaining chunk
+                    if (!claimed && !claimChunk(file)) {
+                        // the twin request already writes the chunk
+                        file.getResponse().release();
+                        return true;
+                    }
                 	raf.write(ret, 0, offset);
                 	if (enableChecksum && file.getFileChecksum() != null) {
                         file.getFileChecksum().put(ret, offset, (int) (writeOffset/chunkSize));
                 	}
                     fi.updateDownloadCheckPoint((int) (writeOffset/chunkSize), writeOffset+offset);
-                    success = true;
+                    file.addWritten(offset);
+                    writeOffset += offset;
+                }
+                
+                // the request succeeded if all the blocks were written
+                success = (writeOffset == end);
+                if (!success) {
+                    // the input stream is broken; the rest of the blocks are requested again
+                    file.getResponse().release();
+                    return false;
                 }
                 
                 if (file.getTotalLength() == 0) {
+                    if (!claimChunk(file)) {
+                        // the twin request already completed the file
+                        file.getResponse().release();
+                        return true;
+                    }
                 	success = true;
                 }
                 
@@ -1196,7 +2380,7 @@ public class ConcurrentJakartaClient extends JakartaClient implements Concurrent
     				if (fi.update(file.getLength()) == 0) {
     					thread.setEOF(file.getName());
     					synchronized (ConcurrentJakartaClient.this) {
-    						if (totalFiles == 0) {
+    						if (totalFiles == 0 && !scanning) {
     							terminateThreads();
     						}
     					}
@@ -1205,19 +2389,181 @@ public class ConcurrentJakartaClient extends JakartaClient implements Concurrent
 			} catch (IOException e) {
 				// TODO Auto-generated catch block
     			synchronized (this) {
-        			if (ioException == null || !ioException.equals(e.getMessage())) {
+        			// the response of a request losing against its twin was aborted
+        			if (!file.isLost() && (ioException == null || !ioException.equals(e.getMessage()))) {
             			System.err.println("IOException");
             			e.printStackTrace();
             			ioException = e.getMessage();
         			}
     			}
 			}
-		} catch (FileNotFoundException e) {
+		} catch (FileNotFoundException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+		}
+		
+		return success;
+	}
+	
+    /**
+     * Get the MD5 digest sent by the server for a downloaded range
+     * Both the Content-MD5 (RFC 1864) and the Digest (RFC 3230) headers are recognized
+     * 
+     * @param response
+     *            the download response
+     * @return the base64 MD5 digest of the response content or null if the server did not send it
+     */
+	private String getChunkDigest(ClientURLResponse response) {
+		String digest = response.getResponseHeader("Content-MD5");
+		if (digest != null) {
+			return digest.trim();
+		}
+		String instances = response.getResponseHeader("Digest");
+		if (instances != null) {
+			String values[] = instances.split(",");
+			for (int i = 0; i < values.length; i++) {
+				String value = values[i].trim();
+				int index = value.indexOf('=');
+				if (index != -1 && value.substring(0, index).equalsIgnoreCase("MD5")) {
+					return value.substring(index + 1).trim();
+				}
+			}
+		}
+		return null;
+	}
+	
+    /**
+     * Read the whole content of a downloaded range
+     * 
+     * @param is
+     *            the response input stream
+     * @param length
+     *            the range length
+     * @return the range content or null if the stream ended before or after the range end
+     */
+	private byte[] readChunk(InputStream is, int length) throws IOException {
+		byte content[] = new byte[length];
+		int offset = 0;
+		int res;
+		while (offset < length && (res = is.read(content, offset, length - offset)) != -1) {
+			offset += res;
+		}
+		if (offset < length || is.read() != -1) {
+			return null;
+		}
+		return content;
+	}
+	
+    /**
+     * Execute post processing of a download request for a chunk that can be split
+     * The content of each part is written into the local file at its position, as it is received
+     * The request completing the last part marks the chunk as written
+     * @param part
+     *            the chunk part to be downloaded
+     * @param fi
+     *            the file progress
+     * @param raf
+     *            the local file
+     * @param thread
+     *            the thread performing the request
+     * @return true if the part was received
+     */
+	private boolean processChunkPart(FileChunk part, FileItem fi, RandomAccessFile raf, WorkerThread thread) {
+		FileChunk chunk = part.getOwner();
+		try {
+			// write the response content into the local file up to the end of the part
+			// the split parts of a chunk have no twin request
+			byte buffer[] = thread.getPartBuffer();
+			InputStream is = part.getResponse().getEntityInputStream();
+			boolean claimed = (part != chunk);
+			chunk.startReceiving();
+			long limit;
+			while ((limit = part.getUnfetched()) > 0) {
+				long position = part.getPartPosition();
+				int res = is.read(buffer, 0, (int) Math.min(limit, buffer.length));
+				if (res == -1) {
+					break;
+				}
+				if (!claimed) {
+					if (!claimChunk(part)) {
+						// the twin request already writes the chunk
+						part.getResponse().release();
+						return true;
+					}
+					claimed = true;
+				}
+				raf.seek(chunk.getOffset() + position);
+				raf.write(buffer, 0, res);
+				part.advance(res);
+			}
+			if (part.getUnfetched() > 0) {
+				// the input stream is broken; the rest of the part is requested again
+				part.getResponse().release();
+				return false;
+			}
+			if (!claimed && !claimChunk(part)) {
+				// empty chunk already written by the twin request
+				part.getResponse().release();
+				return true;
+			}
+			if (part.getPartEnd() < part.getRequestEnd()) {
+				// the part was split; the rest of the response is read by another request
+				part.getResponse().abort();
+			} else {
+				is.close();
+				part.getResponse().release();
+			}
+			
+			if (!chunk.completePart()) {
+				// other parts are still in progress
+				return true;
+			}
+			
+			// all the parts of the chunk are in the local file
+			int slot = (int) (chunk.getOffset()/chunkSize);
+			if (enableChecksum && chunk.getFileChecksum() != null) {
+				chunk.getFileChecksum().putWritten((int) chunk.getLength(), slot);
+			}
+			fi.updateDownloadCheckPoint(slot, chunk.getOffset()+chunk.getLength());
+			
+			// verify checksum if download file completed
+			if (fi.update(chunk.getLength()) == 0) {
+				thread.setEOF(chunk.getName());
+				synchronized (ConcurrentJakartaClient.this) {
+					if (totalFiles == 0 && !scanning) {
+						terminateThreads();
+					}
+				}
+			}
+			return true;
+		} catch (IOException e) {
 			// TODO Auto-generated catch block
-			e.printStackTrace();
+			synchronized (this) {
+				// the response of a request losing against its twin was aborted
+				if (!part.isLost() && (ioException == null || !ioException.equals(e.getMessage()))) {
+					System.err.println("IOException");
+					e.printStackTrace();
+					ioException = e.getMessage();
+				}
+			}
+			return false;
 		}
-		
-		return success;
+	}
+	
+	/**
+	 * Check if the server rejected an uploaded block because its content does not match its Content-MD5
+	 * Other 400 responses are request errors that would fail again
+	 * 
+	 * @param response
+	 *            the response of the upload request
+	 * @return true if the block was corrupted in transit
+	 */
+	private static boolean isDigestMismatch(ClientURLResponse response) {
+		if (response == null || response.getStatus() != 400) {
+			return false;
+		}
+		String err = response.getErrorMessage();
+		return err != null && err.toLowerCase().indexOf("content-md5") != -1;
 	}
 	
     /**
@@ -1367,17 +2713,31 @@ public class ConcurrentJakartaClient extends JakartaClient implements Concurrent
 		// the file name
 		String name;
 		
+		// the checksum known from the checksum cache or null if it is computed
+		String knownDigest;
+		
+		// the stamp of the uploaded file, read before its content is digested
+		ChecksumCache.Stamp stamp;
+		
 		FileChecksum(String name, long fileLength, int chunks) {
 			maxChunks = chunks;
 			this.totalFileLength = fileLength;
 			this.name = name;
-			// initialize the message digest object
-			try {
-				messageDigest = MessageDigest.getInstance("SHA-256");
-			} catch (NoSuchAlgorithmException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
+			if (!isDownload) {
+				stamp = ChecksumCache.stamp(new File(name));
 			}
+			// initialize the message digest object
+			messageDigest = digestProvider.newDigest();
+		}
+		
+		/**
+		 * Constructor for a checksum known from the checksum cache
+		 * The chunks are only accounted in the progress
+		 */
+		FileChecksum(String name, long fileLength, String digest) {
+			this.totalFileLength = fileLength;
+			this.name = name;
+			knownDigest = digest;
 		}
 		
 	    /**
@@ -1390,16 +2750,71 @@ public class ConcurrentJakartaClient extends JakartaClient implements Concurrent
 	     * Process available chunks
 	     */
 		private void processSlots() {
-			while (slots.get(expectedChunk) != null) {
+			while (bytesMap.get(expectedChunk) != null) {
 				byte[] chunk = slots.remove(expectedChunk);
 				int length = bytesMap.remove(expectedChunk);
-				messageDigest.update(chunk, 0, length);
+				if (chunk != null) {
+					messageDigest.update(chunk, 0, length);
+				} else {
+					// the chunk was not kept in memory; read it back from the local file
+					digestChunk(expectedChunk, length);
+				}
 				fileLength += length;
 				notifyChunkTransfered(length);
 				expectedChunk++;
 			}
 		}
 		
+	    /**
+	     * Digest a chunk read back from the local file of a download
+	     * @param slot
+	     *            the chunk slot
+	     * @param len
+	     *            the chunk size
+	     */
+		private void digestChunk(int slot, int len) {
+			byte[] buffer = new byte[Math.min(len, PART_BUFFER_SIZE)];
+			try {
+				RandomAccessFile raf = new RandomAccessFile(checkPointDir + File.separatorChar + name.replace('/', File.separatorChar), "r");
+				try {
+					raf.seek((long) slot * chunkSize);
+					int remaining = len;
+					while (remaining > 0) {
+						int res = Math.min(remaining, buffer.length);
+						raf.readFully(buffer, 0, res);
+						messageDigest.update(buffer, 0, res);
+						remaining -= res;
+					}
+				} finally {
+					raf.close();
+				}
+			} catch (IOException e) {
+				// TODO Auto-generated catch block
+				// the checksum of the file will not match
+				e.printStackTrace();
+			}
+		}
+		
+	    /**
+	     * Provide a new chunk already written in the local file of a download for checksum computation
+	     * The chunk is read back from the file when it is expected
+	     * @param len
+	     *            the chunk size
+	     * @param slot
+	     *            the chunk slot
+	     */
+		synchronized void putWritten(int len, int slot) {
+			if (knownDigest != null) {
+				// no need to compute the checksum
+				notifyChunkTransfered(len);
+				return;
+			}
+			bytesMap.put(slot, len);
+			processSlots();
+			// notify a chunk process occurred
+			notifyAll();
+		}
+		
 	    /**
 	     * Provide a new chunk for checksum computation
 	     * @param chunk
@@ -1410,6 +2825,11 @@ public class ConcurrentJakartaClient extends JakartaClient implements Concurrent
 	     *            the chunk slot
 	     */
 		synchronized void put(byte[] chunk, int len, int slot) {
+			if (knownDigest != null) {
+				// no need to compute the checksum
+				notifyChunkTransfered(len);
+				return;
+			}
 			boolean ready = false;
 			while (!ready) {
 				if (slot == expectedChunk) {
@@ -1426,6 +2846,11 @@ public class ConcurrentJakartaClient extends JakartaClient implements Concurrent
 					slots.put(slot, chunk);
 					bytesMap.put(slot, len);
 					ready = true;
+				} else if (isDownload && (hedgeMode || splitMode)) {
+					// the chunk is already written in the local file; it is read back when it is expected
+					// so the thread is free to hedge or split the chunk the checksum waits for
+					bytesMap.put(slot, len);
+					ready = true;
 				} else {
 					try {
 						// the chunk is not yet expected and can not be placed in the HashMap
@@ -1446,6 +2871,9 @@ public class ConcurrentJakartaClient extends JakartaClient implements Concurrent
 	     * @return the file checksum
 	     */
 		String getDigest() {
+			if (knownDigest != null) {
+				return knownDigest;
+			}
 			// complete the digest
 			boolean ready = false;
 			while (!ready) {
@@ -1523,11 +2951,51 @@ public class ConcurrentJakartaClient extends JakartaClient implements Concurrent
 		// the file version
 		private int version;
 		
+		// the chunk duplicated by this hedged request
+		private FileChunk primary;
+		
+		// the hedged request of this chunk
+		private FileChunk hedge;
+		
+		// the request that writes the chunk content (this request or its hedged twin)
+		private FileChunk writer;
+		
+		// the number of bytes of the chunk already written into the local file
+		private long written;
+		
+		// the start time of the current request
+		private long startTime;
+		
+		// the chunk whose content is downloaded by this request (the split chunk for a part)
+		private FileChunk owner = this;
+		
+		// true once the content of the chunk is received; only then the chunk can be split
+		private boolean receiving;
+		
+		// the position reached by this request, relative to the chunk offset
+		private long partPosition;
+		
+		// the end of the part downloaded by this request, relative to the chunk offset
+		private long partEnd;
+		
+		// the end of the part requested from the server, relative to the chunk offset
+		private long requestEnd;
+		
+		// the number of parts of the chunk in progress
+		private int pendingParts = 1;
+		
+		// true if the chunk was split
+		private boolean split;
+		
+		// flag to mark a request that creates the file version
+		private boolean create;
+		
 		FileChunk(String fileName, long first, long len, long total) {
 			setName(fileName);
 			setLength(len);
 			setOffset(first);
 			setTotalLength(total);
+			partEnd = len;
 		}
 
 		FileChunk(String fileName, long first, long len, long total, String outputDir) {
@@ -1587,11 +3055,11 @@ public class ConcurrentJakartaClient extends JakartaClient implements Concurrent
 			return checksum;
 		}
 		
-		public void setResponse(ClientURLResponse response) {
+		public synchronized void setResponse(ClientURLResponse response) {
 			this.response = response;
 		}
 
-		public ClientURLResponse getResponse() {
+		public synchronized ClientURLResponse getResponse() {
 			return response;
 		}
 		
@@ -1631,6 +3099,244 @@ public class ConcurrentJakartaClient extends JakartaClient implements Concurrent
 		public void setFileChecksum(FileChecksum fileChecksum) {
 			this.fileChecksum = fileChecksum;
 		}
+
+		public long getStartTime() {
+			return startTime;
+		}
+
+		public void setStartTime(long startTime) {
+			this.startTime = startTime;
+		}
+
+		public boolean isHedge() {
+			return primary != null;
+		}
+
+	    /**
+	     * Create a hedged request for this chunk
+	     * 
+	     * @return the chunk of the hedged request
+	     */
+		FileChunk createHedge() {
+			FileChunk fc = new FileChunk(name, offset, length, totalLength, downloadDir);
+			fc.setChecksum(checksum);
+			fc.setFileChecksum(fileChecksum);
+			fc.setVersion(version);
+			fc.setFirstChunk(firstChunk);
+			fc.setLastChunk(lastChunk);
+			fc.primary = this;
+			synchronized (this) {
+				hedge = fc;
+			}
+			return fc;
+		}
+
+	    /**
+	     * Check if a hedged request was issued for this chunk
+	     * 
+	     * @return true if the chunk has a hedged request
+	     */
+		synchronized boolean hasHedge() {
+			return hedge != null;
+		}
+
+	    /**
+	     * Get the right of writing the chunk content
+	     * 
+	     * @return true if this request writes the chunk; false if its twin does it
+	     */
+		boolean claim() {
+			FileChunk owner = isHedge() ? primary : this;
+			synchronized (owner) {
+				if (owner.writer == null) {
+					owner.writer = this;
+				}
+				return owner.writer == this;
+			}
+		}
+
+	    /**
+	     * Check if the chunk content is written by a request
+	     * 
+	     * @return true if this request or its twin writes the chunk
+	     */
+		boolean isClaimed() {
+			FileChunk owner = isHedge() ? primary : this;
+			synchronized (owner) {
+				return owner.writer != null;
+			}
+		}
+
+	    /**
+	     * Check if this request writes the chunk content
+	     * 
+	     * @return true if this request claimed the chunk
+	     */
+		boolean isWriter() {
+			FileChunk owner = isHedge() ? primary : this;
+			synchronized (owner) {
+				return owner.writer == this;
+			}
+		}
+
+	    /**
+	     * Check if the twin request writes the chunk content
+	     * 
+	     * @return true if the chunk was claimed by the twin request
+	     */
+		boolean isLost() {
+			FileChunk owner = isHedge() ? primary : this;
+			synchronized (owner) {
+				return owner.writer != null && owner.writer != this;
+			}
+		}
+
+	    /**
+	     * Get the number of bytes of the chunk already written
+	     * 
+	     * @return the number of bytes written by the previous attempts
+	     */
+		long getWritten() {
+			FileChunk owner = isHedge() ? primary : this;
+			synchronized (owner) {
+				return owner.written;
+			}
+		}
+
+	    /**
+	     * Mark bytes of the chunk as written
+	     * 
+	     * @param size
+	     *            the number of bytes written
+	     */
+		void addWritten(long size) {
+			FileChunk owner = isHedge() ? primary : this;
+			synchronized (owner) {
+				owner.written += size;
+			}
+		}
+
+		public FileChunk getOwner() {
+			return owner;
+		}
+
+		public boolean isCreate() {
+			return create;
+		}
+
+		public void setCreate(boolean create) {
+			this.create = create;
+		}
+
+		public long getPartPosition() {
+			return partPosition;
+		}
+
+		public long getPartEnd() {
+			synchronized (owner) {
+				return partEnd;
+			}
+		}
+
+		public long getRequestEnd() {
+			return requestEnd;
+		}
+
+		public void setRequestEnd(long requestEnd) {
+			this.requestEnd = requestEnd;
+		}
+
+		synchronized boolean isSplit() {
+			return split;
+		}
+
+	    /**
+	     * Mark the content of the chunk as being received
+	     */
+		synchronized void startReceiving() {
+			receiving = true;
+		}
+
+	    /**
+	     * Get the number of bytes of the part not received yet
+	     * 
+	     * @return the number of bytes not received yet
+	     */
+		long getUnfetched() {
+			synchronized (owner) {
+				return Math.max(0, partEnd - partPosition);
+			}
+		}
+
+	    /**
+	     * Mark the bytes received by this request
+	     * 
+	     * @param size
+	     *            the number of bytes received
+	     */
+		void advance(int size) {
+			synchronized (owner) {
+				partPosition += size;
+			}
+		}
+
+	    /**
+	     * Mark the completion of a part of the chunk
+	     * 
+	     * @return true if all the parts of the chunk were received
+	     */
+		boolean completePart() {
+			synchronized (owner) {
+				return --owner.pendingParts == 0;
+			}
+		}
+
+	    /**
+	     * Split the unfetched part of the chunk in progress
+	     * This request continues with the first half; a new request gets the second half
+	     * 
+	     * @param minLength
+	     *            the minimum unfetched length to be split
+	     * @return the request for the second half or null if the chunk can not be split
+	     */
+		synchronized FileChunk split(long minLength) {
+			if (owner != this || primary != null || hedge != null || !receiving || 
+					partEnd - partPosition < minLength) {
+				return null;
+			}
+			long middle = partPosition + (partEnd - partPosition) / 2;
+			FileChunk fc = new FileChunk(name, offset + middle, partEnd - middle, totalLength, downloadDir);
+			fc.setChecksum(checksum);
+			fc.setFileChecksum(fileChecksum);
+			fc.setVersion(version);
+			fc.owner = this;
+			fc.partPosition = middle;
+			fc.partEnd = partEnd;
+			partEnd = middle;
+			pendingParts++;
+			split = true;
+			return fc;
+		}
+
+	    /**
+	     * Abort the response in progress of the twin request
+	     */
+		void abortTwin() {
+			FileChunk twin = null;
+			if (isHedge()) {
+				twin = primary;
+			} else {
+				synchronized (this) {
+					twin = hedge;
+				}
+			}
+			if (twin != null) {
+				ClientURLResponse twinResponse = twin.getResponse();
+				if (twinResponse != null) {
+					twinResponse.abort();
+				}
+			}
+		}
 	}
 	
 	/**
@@ -1656,6 +3362,9 @@ public class ConcurrentJakartaClient extends JakartaClient implements Concurrent
 		// the las check point set
 		int lastCheckPoint;
 		
+		// true if the file was quarantined
+		private boolean failed;
+		
 		FileItem(String name, long len) {
 			length = len;
 			this.name = name;
@@ -1665,6 +3374,21 @@ public class ConcurrentJakartaClient extends JakartaClient implements Concurrent
 			return name;
 		}
 
+	    /**
+	     * Mark the file as quarantined
+	     */
+		synchronized void setFailed() {
+			failed = true;
+		}
+
+	    /**
+	     * Check if the file was quarantined
+	     * @return true if the file was quarantined
+	     */
+		synchronized boolean isFailed() {
+			return failed;
+		}
+
 		/**
 	     * Set the check point in case of resume
 	     * @param lastCheckPoint
@@ -1763,7 +3487,7 @@ public class ConcurrentJakartaClient extends JakartaClient implements Concurrent
 					ret = checkpoint;
 					checkpoint = slots.remove(lastCheckPoint);
 				}
-				if (ret != -1 && !failure) {
+				if (ret != -1 && !failure && !failed) {
 					downloadCheckPoint.put(name, ret);
 				}
 			}
@@ -1791,10 +3515,13 @@ public class ConcurrentJakartaClient extends JakartaClient implements Concurrent
 		 * @return the remaining bytes to be transfered
 		 */
 		synchronized long update(long size, boolean delete) {
+			if (failed) {
+				return -1;
+			}
 			bytes += size;
 			if (bytes == length) {
 				if (!delete) {
-					notifyFileTransfered(name, size);
+					notifyFileTransfered(name, size, length);
 				}
 				return 0;
 			} else {
@@ -1810,6 +3537,25 @@ public class ConcurrentJakartaClient extends JakartaClient implements Concurrent
 	 */
 	private class DispatcherThread extends Thread {
 		
+		// the Transmission Queue of the transfer pass
+		private LinkedBlockingQueue<FileChunk> queue;
+		
+		// the wrapper of the Worker Queue of the transfer pass
+		private QueueWrapper wrapper;
+		
+	    /**
+	     * Constructor
+	     * 
+	     * @param queue
+	     *            the Transmission Queue
+	     * @param wrapper
+	     *            the wrapper of the Worker Queue
+	     */
+		DispatcherThread(LinkedBlockingQueue<FileChunk> queue, QueueWrapper wrapper) {
+			this.queue = queue;
+			this.wrapper = wrapper;
+		}
+		
 	    /**
 	     * Thread execution
 	     * 
@@ -1819,7 +3565,7 @@ public class ConcurrentJakartaClient extends JakartaClient implements Concurrent
 			while (!ready) {
 				FileChunk file = null;
 				try {
-					file = TransmissionQueue.take();
+					file = queue.take();
 				} catch (InterruptedException e) {
 					// TODO Auto-generated catch block
 					e.printStackTrace();
@@ -1827,7 +3573,7 @@ public class ConcurrentJakartaClient extends JakartaClient implements Concurrent
 				if (file == null || file.getName().length() == 0) {
 					break;
 				}
-				workerWrapper.put(file);
+				wrapper.put(file);
 			}
 		}
 	}
@@ -1847,7 +3593,22 @@ public class ConcurrentJakartaClient extends JakartaClient implements Concurrent
 		
 		// files checksum map
 		private HashMap<String, String> checksum = new HashMap<String, String>();
-				
+		
+		// the wrapper of the Worker Queue of the transfer pass
+		private QueueWrapper wrapper;
+		
+		// the buffer the split parts are read with
+		private byte partBuffer[];
+		
+	    /**
+	     * Constructor
+	     * 
+	     * @param wrapper
+	     *            the wrapper of the Worker Queue
+	     */
+		WorkerThread(QueueWrapper wrapper) {
+			this.wrapper = wrapper;
+		}
 		
 	    /**
 	     * Thread execution
@@ -1856,7 +3617,7 @@ public class ConcurrentJakartaClient extends JakartaClient implements Concurrent
 		public void run() {
 			boolean ready = false;
 			while (!ready) {
-				FileChunk file = workerWrapper.get();
+				FileChunk file = wrapper.get();
 				if (file == null || file.getName().length() == 0) {
 					break;
 				}
@@ -1866,8 +3627,18 @@ public class ConcurrentJakartaClient extends JakartaClient implements Concurrent
 					sendDownload(file, this);
 				}
 			}
+			// close the handles of the quarantined files
+			for (RandomAccessFile handle : filesHandle.values()) {
+				try {
+					handle.close();
+				} catch (IOException e) {
+					// TODO Auto-generated catch block
+					e.printStackTrace();
+				}
+			}
+			filesHandle.clear();
 			if (isDownload) {
-				workerWrapper.deregisterThread();
+				wrapper.deregisterThread();
 			}
 		}
 		
@@ -1905,7 +3676,9 @@ public class ConcurrentJakartaClient extends JakartaClient implements Concurrent
 			        if (fileCksum == null || !fileCksum.equals(cksum)) {
 			        	System.out.println("Failure in downloading the file \"" + name +
 			        			"\". Checksum failed. Checksum tag: "+cksum+". Checksum computed: "+fileCksum+".");
-	        			notifyFailure("<p>Failure in downloading the file \"" + name + "\".<p>Checksum failed.");
+	        			notifyFileFailure(name, "<p>Failure in downloading the file \"" + name + "\".<p>Checksum failed.");
+			        } else {
+			        	putCachedChecksum(checkPointDir + File.separator + name, fileChecksum);
 			        }
 			        downloadChecksum.put(name, fileCksum);
 				}
@@ -1915,6 +3688,18 @@ public class ConcurrentJakartaClient extends JakartaClient implements Concurrent
 			}
 		}
 		
+	    /**
+	     * Get the buffer the split parts are read with; it is allocated at the first use
+	     * 
+	     * @return the buffer
+	     */
+		private byte[] getPartBuffer() {
+			if (partBuffer == null) {
+				partBuffer = new byte[Math.min(chunkSize, PART_BUFFER_SIZE)];
+			}
+			return partBuffer;
+		}
+		
 	    /**
 	     * Get the handle of a file to be downloaded
 	     * @param name
@@ -1943,6 +3728,12 @@ public class ConcurrentJakartaClient extends JakartaClient implements Concurrent
 	    // the list of threads performing HTTP requests
 		private ArrayList<Thread> threads = new ArrayList<Thread>();
 		
+	    // the Worker Queue
+		private LinkedBlockingQueue<FileChunk> queue = new LinkedBlockingQueue<FileChunk>();
+		
+	    // true if the transfer pass was completed
+		private boolean completed;
+		
 	    /**
 	     * Put a FileChunk to be processed
 	     * 
@@ -1951,7 +3742,7 @@ public class ConcurrentJakartaClient extends JakartaClient implements Concurrent
 	     */
 		void put(FileChunk fc) {
 			try {
-				WorkerQueue.put(fc);
+				queue.put(fc);
 			} catch (InterruptedException e1) {
 				// TODO Auto-generated catch block
 				e1.printStackTrace();
@@ -1960,7 +3751,7 @@ public class ConcurrentJakartaClient extends JakartaClient implements Concurrent
 			// create a new HTTP request thread if all others are busy and the threads pool is not full
 			synchronized (this) {
 				if (waitingThreads == 0 && activeThreads < maxThreads) {
-					Thread thread = new WorkerThread();
+					Thread thread = new WorkerThread(this);
 					threads.add(thread);
 					activeThreads++;
 					thread.start();
@@ -1969,25 +3760,41 @@ public class ConcurrentJakartaClient extends JakartaClient implements Concurrent
 		}
 		
 	    /**
-	     * Get the handle of a file to be downloaded
-	     * @param name
-	     *            the file name
+	     * A thread terminated
+	     * The transfer pass is completed when the last thread terminates
 	     */
 		synchronized private void deregisterThread() {
-			if (--activeThreads == 0 && !failure) {
-				if (isDownload) {
-					String filename = checkPointDir + File.separator + TagFilerProperties.getProperty("tagfiler.checkpoint.file");
-					if ((new File(filename)).delete()) {
-						System.out.println("Deleted the check point file \""+filename+"\"");
-					}
-					downloadCheckPoint = null;
-					downloadChecksum = null;
-				}
-				synchronized (listenerLock) {
-					listener.notifySuccess();
-				}
+			if (--activeThreads == 0) {
+				complete();
+			}
+		}
+		
+	    /**
+	     * Complete the transfer pass if no thread is running
+	     */
+		synchronized private void checkCompleted() {
+			if (activeThreads == 0) {
+				complete();
+			}
+		}
+		
+	    /**
+	     * Complete the transfer pass only once
+	     */
+		private void complete() {
+			if (!completed && !failure) {
+				completed = true;
+				notifyPassCompleted();
 			}
-			 
+		}
+		
+	    /**
+	     * Get the number of FileChunks waiting to be processed
+	     * 
+	     * @return the number of FileChunks in the queue
+	     */
+		int getPendingCount() {
+			return queue.size();
 		}
 		
 	    /**
@@ -2001,7 +3808,15 @@ public class ConcurrentJakartaClient extends JakartaClient implements Concurrent
 				synchronized (this) {
 					waitingThreads++;
 				}
-				fc = WorkerQueue.take();
+				if ((hedgeMode || splitMode) && isDownload) {
+					// while idle, look for a chunk in progress to be split or requested again
+					fc = queue.poll(hedgeInterval, TimeUnit.MILLISECONDS);
+					while (fc == null && (fc = getIdleChunk()) == null) {
+						fc = queue.poll(hedgeInterval, TimeUnit.MILLISECONDS);
+					}
+				} else {
+					fc = queue.take();
+				}
 				synchronized (this) {
 					waitingThreads--;
 				}
@@ -2028,7 +3843,7 @@ public class ConcurrentJakartaClient extends JakartaClient implements Concurrent
 			}
 			for (int i=0; i<threads.size(); i++) {
 				try {
-					WorkerQueue.put(new FileChunk("", 0, 0, 0));
+					queue.put(new FileChunk("", 0, 0, 0));
 				} catch (InterruptedException e1) {
 					// TODO Auto-generated catch block
 					e1.printStackTrace();
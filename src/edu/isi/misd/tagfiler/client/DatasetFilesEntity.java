@@ -0,0 +1,157 @@
+package edu.isi.misd.tagfiler.client;
+
+/* 
+ * Copyright 2010 University of Southern California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.http.entity.AbstractHttpEntity;
+
+import edu.isi.misd.tagfiler.util.DatasetUtils;
+
+/**
+ * Request entity registering the files of a dataset version.
+ * The "vcontains" entries are encoded while the entity is written,
+ * so the body is never held in memory. A file listed more than once is registered once.
+ * The entity is repeatable, so the request can be retried.
+ *
+ * @author agent
+ *
+ */
+public class DatasetFilesEntity extends AbstractHttpEntity {
+
+    // the name of the dataset
+	private String datasetName;
+
+    // the base directory of the files
+	private String baseDirectory;
+
+    // the files to be registered
+	private List<String> files;
+
+    // the files versions map
+	private Map<String, Integer> versionMap;
+
+    // the indexes of the files listed before in the list
+	private BitSet duplicates = new BitSet();
+
+    // the body length or -1 if it was not computed yet
+	private long contentLength = -1;
+
+    /**
+     * Constructor
+     *
+     * @param datasetName
+     *            the name of the dataset
+     * @param baseDirectory
+     *            the base directory of the files
+     * @param files
+     *            the files to be registered
+     * @param versionMap
+     *            the files versions map
+     */
+	public DatasetFilesEntity(String datasetName, String baseDirectory, List<String> files, Map<String, Integer> versionMap) {
+        if (datasetName == null || baseDirectory == null || files == null || versionMap == null) 
+        	throw new IllegalArgumentException(""+datasetName+", "+baseDirectory+", "+files+", "+versionMap);
+		this.datasetName = datasetName;
+		this.baseDirectory = baseDirectory;
+		this.files = files;
+		this.versionMap = versionMap;
+		HashSet<String> listed = new HashSet<String>();
+		for (int i = 0; i < files.size(); i++) {
+			if (!listed.add(files.get(i))) {
+				duplicates.set(i);
+			}
+		}
+		setContentType("application/x-www-form-urlencoded");
+	}
+
+	public boolean isRepeatable() {
+		return true;
+	}
+
+	public boolean isStreaming() {
+		return false;
+	}
+
+    /**
+     * Get the body length
+     * The entries are encoded once without being stored, 
+     * so the request is sent with a Content-Length header
+     */
+	public synchronized long getContentLength() {
+		if (contentLength == -1) {
+			long length = 0;
+			boolean first = true;
+			for (int i = duplicates.nextClearBit(0); i < files.size(); i = duplicates.nextClearBit(i + 1)) {
+				length += (first ? 0 : 1) + getEntry(i).length;
+				first = false;
+			}
+			contentLength = length;
+		}
+		return contentLength;
+	}
+
+    /**
+     * Get the body content
+     * The content is built in memory; the request is sent by writeTo()
+     */
+	public InputStream getContent() throws IOException {
+		ByteArrayOutputStream content = new ByteArrayOutputStream();
+		writeTo(content);
+		return new ByteArrayInputStream(content.toByteArray());
+	}
+
+	public void writeTo(OutputStream outstream) throws IOException {
+        if (outstream == null) throw new IllegalArgumentException("outstream");
+		boolean first = true;
+		for (int i = duplicates.nextClearBit(0); i < files.size(); i = duplicates.nextClearBit(i + 1)) {
+			if (!first) {
+				outstream.write('&');
+			}
+			outstream.write(getEntry(i));
+			first = false;
+		}
+		outstream.flush();
+	}
+
+    /**
+     * Get the number of files registered by the entity
+     */
+	public int getFilesCount() {
+		return files.size() - duplicates.cardinality();
+	}
+
+    /**
+     * Encode the "vcontains" entry of a file
+     *
+     * @param index
+     *            the index of the file
+     * @return the ASCII bytes of the entry
+     */
+	private byte[] getEntry(int index) {
+		String file = files.get(index);
+		return DatasetUtils.getDatasetFileEntry(datasetName, baseDirectory, file, versionMap.get(file)).getBytes();
+	}
+}
@@ -0,0 +1,236 @@
+package edu.isi.misd.tagfiler.client;
+
+/* 
+ * Copyright 2010 University of Southern California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.HashMap;
+import java.util.Map;
+
+import edu.isi.misd.tagfiler.util.TagFilerProperties;
+
+/**
+ * Retry policy with capped exponential backoff and a circuit breaker per server host.
+ * While the circuit of a host is open, all the threads sending requests to that host are paused.
+ *
+ * @author agent
+ *
+ */
+public class DefaultRetryPolicy implements RetryPolicy {
+
+	// the maximum number of retries
+	private int maxRetries;
+
+	// the delay of the first retry (milliseconds)
+	private long baseDelay;
+
+	// the upper bound of a retry delay (milliseconds)
+	private long maxDelay;
+
+	// the number of consecutive failures that opens the circuit
+	private int failureThreshold;
+
+	// the time the circuit stays open (milliseconds)
+	private long openTime;
+
+	// the circuits by server host
+	private HashMap<String, Circuit> circuits = new HashMap<String, Circuit>();
+
+	// the listener for the log messages
+	private ClientURLListener listener;
+
+	// the number of failed attempts per failure cause
+	private HashMap<String, Integer> retryCounts = new HashMap<String, Integer>();
+
+	/**
+	 * The circuit breaker state of a server host
+	 *
+	 */
+	private static class Circuit {
+		// the number of consecutive failures
+		int consecutiveFailures;
+
+		// the time until the circuit is open
+		long openUntil;
+	}
+
+    /**
+     * Constructor
+     * The parameters are read from the tagfiler properties
+     *
+     * @param retries
+     *            the maximum number of retries
+     */
+	public DefaultRetryPolicy(int retries) {
+		this(retries,
+				TagFilerProperties.getProperty("tagfiler.retry.delay.base", 100L),
+				TagFilerProperties.getProperty("tagfiler.retry.delay.max", 30000L),
+				(int) TagFilerProperties.getProperty("tagfiler.circuit.failures", 5L),
+				TagFilerProperties.getProperty("tagfiler.circuit.open", 10000L));
+	}
+
+    /**
+     * Constructor
+     *
+     * @param retries
+     *            the maximum number of retries
+     * @param baseDelay
+     *            the delay of the first retry (milliseconds)
+     * @param maxDelay
+     *            the upper bound of a retry delay (milliseconds)
+     * @param failureThreshold
+     *            the number of consecutive failures that opens the circuit
+     * @param openTime
+     *            the time the circuit stays open (milliseconds)
+     */
+	public DefaultRetryPolicy(int retries, long baseDelay, long maxDelay, int failureThreshold, long openTime) {
+		this.maxRetries = retries;
+		this.baseDelay = baseDelay;
+		this.maxDelay = maxDelay;
+		this.failureThreshold = failureThreshold;
+		this.openTime = openTime;
+	}
+
+    /**
+     * Set the maximum number of retries
+     *
+     * @param retries
+     *            the maximum number of retries
+     */
+	public synchronized void setMaxRetries(int retries) {
+		maxRetries = retries;
+	}
+
+    /**
+     * Set the listener that receives the log messages of the policy
+     *
+     * @param listener
+     *            the listener or null to discard the messages
+     */
+	public synchronized void setListener(ClientURLListener listener) {
+		this.listener = listener;
+	}
+
+    /**
+     * Check if a new attempt is allowed
+     *
+     * @param count
+     *            the number of retries already performed
+     * @return true if the request can be retried
+     */
+	public synchronized boolean canRetry(int count) {
+		return count < maxRetries;
+	}
+
+    /**
+     * Get the delay before the next attempt
+     * The delay grows exponentially with a +/-25% jitter and is capped by maxDelay
+     * A delay requested by the server has priority, but it is capped as well
+     *
+     * @param count
+     *            the retry number (starting from 1)
+     * @param retryAfter
+     *            the delay in milliseconds requested by the server or -1 if none
+     * @return the delay in milliseconds
+     */
+	public long getDelay(int count, long retryAfter) {
+		if (retryAfter >= 0) {
+			return Math.min(retryAfter, maxDelay);
+		}
+		double delay = baseDelay * Math.pow(2, count - 1);
+		delay = Math.min(delay, maxDelay);
+		return (long) Math.ceil((0.75 + Math.random() * 0.5) * delay);
+	}
+
+    /**
+     * Block the calling thread while the circuit of the host is open
+     * If the thread is interrupted, it returns with the interrupt status set
+     *
+     * @param host
+     *            the server host
+     */
+	public void awaitAvailable(String host) {
+		while (true) {
+			long delay;
+			synchronized (this) {
+				Circuit circuit = circuits.get(host);
+				delay = circuit != null ? circuit.openUntil - System.currentTimeMillis() : 0;
+			}
+			if (delay <= 0) {
+				break;
+			}
+			try {
+				Thread.sleep(delay);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+	}
+
+    /**
+     * Record a successful request
+     * The circuit of the host is closed
+     *
+     * @param host
+     *            the server host
+     */
+	public synchronized void recordSuccess(String host) {
+		circuits.remove(host);
+	}
+
+    /**
+     * Record a failed request
+     * The circuit of the host is open if there are too many consecutive failures
+     *
+     * @param host
+     *            the server host
+     * @param cause
+     *            the failure cause (exception name or HTTP status)
+     */
+	public void recordFailure(String host, String cause) {
+		String message = null;
+		ClientURLListener l;
+		synchronized (this) {
+			Integer count = retryCounts.get(cause);
+			retryCounts.put(cause, count == null ? 1 : count + 1);
+			Circuit circuit = circuits.get(host);
+			if (circuit == null) {
+				circuit = new Circuit();
+				circuits.put(host, circuit);
+			}
+			if (++circuit.consecutiveFailures >= failureThreshold) {
+				long t = System.currentTimeMillis();
+				if (circuit.openUntil < t) {
+					message = "Circuit open for " + host + " during " + openTime + " ms after " + circuit.consecutiveFailures + " consecutive failures.";
+					circuit.openUntil = t + openTime;
+				}
+			}
+			l = listener;
+		}
+		if (message != null && l != null) {
+			l.notifyLogMessage(message);
+		}
+	}
+
+    /**
+     * Get the number of failed attempts per failure cause
+     *
+     * @return the map with the number of failed attempts per cause
+     */
+	public synchronized Map<String, Integer> getRetryCounts() {
+		return new HashMap<String, Integer>(retryCounts);
+	}
+}
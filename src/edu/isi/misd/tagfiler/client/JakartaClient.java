@@ -21,12 +21,14 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.ConnectException;
+import java.net.URI;
 import java.net.URLDecoder;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.TrustManager;
@@ -43,6 +45,7 @@ import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpHead;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpRequestBase;
 import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.conn.ClientConnectionManager;
 import org.apache.http.conn.params.ConnManagerParams;
@@ -59,6 +62,8 @@ import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.BasicCookieStore;
 import org.apache.http.impl.client.DefaultHttpClient;
 import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.impl.cookie.DateParseException;
+import org.apache.http.impl.cookie.DateUtils;
 import org.apache.http.message.BasicNameValuePair;
 import org.apache.http.params.BasicHttpParams;
 import org.apache.http.params.CoreConnectionPNames;
@@ -97,9 +102,15 @@ public class JakartaClient  implements ClientURL {
 	// number of retries if the connection is broken
 	protected int retries;
 	
+	// the policy used for retrying the failed requests
+	protected RetryPolicy retryPolicy = new DefaultRetryPolicy(0);
+	
 	// the cookie name
 	protected String cookieName;
 	
+	// if true, the file blocks are sent with their Content-MD5 and their digest is requested on download
+	protected boolean chunkDigest;
+	
 	// exception messages got during the retries if the connection is broken
 	protected String connectException;
 	protected String clientProtocolException;
@@ -145,6 +156,30 @@ public class JakartaClient  implements ClientURL {
      */
     public void setRetryCount(int retries) {
 		this.retries = retries;
+		retryPolicy.setMaxRetries(retries);
+	}
+
+	/**
+     * Setter method
+     * 
+     * @param mode
+     *            if true, every file block is sent with its Content-MD5 header
+     *            and the ranged downloads ask for the digest of the range
+     */
+    public void setChunkDigest(boolean mode) {
+		chunkDigest = mode;
+	}
+
+	/**
+     * Setter method
+     * 
+     * @param policy
+     *            the policy used for retrying the failed requests
+     */
+    public void setRetryPolicy(RetryPolicy policy) {
+    	if (policy == null) throw new IllegalArgumentException("policy");
+    	policy.setMaxRetries(retries);
+		retryPolicy = policy;
 	}
 
 	/**
@@ -324,6 +359,32 @@ public class JakartaClient  implements ClientURL {
 		return execute(httpget, cookie);
 	}
     
+    /**
+     * Get the values of a dataset tags only if they were modified
+     * The server returns 304 if the values match the validators
+     * 
+     * @param url
+     *            the query url
+     * @param etag
+     *            the entity tag of the cached values or null
+     * @param lastModified
+     *            the last modification date of the cached values or null
+     * @param cookie
+     *            the cookie to be set in the request
+     * @return the HTTP Response
+     */
+    public ClientURLResponse getTagsValues(String url, String etag, String lastModified, String cookie) {
+		HttpGet httpget = new HttpGet(url);
+    	httpget.setHeader("Accept", "application/json");
+    	if (etag != null) {
+        	httpget.setHeader("If-None-Match", etag);
+    	}
+    	if (lastModified != null) {
+        	httpget.setHeader("If-Modified-Since", lastModified);
+    	}
+		return execute(httpget, cookie);
+	}
+    
     /**
      * Get the content of a file to be downloaded
      * 
@@ -356,6 +417,10 @@ public class JakartaClient  implements ClientURL {
 		HttpGet httpget = new HttpGet(url);
     	httpget.setHeader("Content-Type", "application/octet-stream");
     	httpget.setHeader("Range", "bytes="+first+"-"+(first+length-1));
+    	if (chunkDigest) {
+    		// RFC 3230; the server may answer with a Digest header of the range
+        	httpget.setHeader("Want-Digest", "MD5");
+    	}
 		return execute(httpget, cookie);
 	}
     
@@ -473,6 +538,32 @@ public class JakartaClient  implements ClientURL {
 		return execute(httpput, cookie);
 	}
     
+    /**
+     * Registers the files of a dataset version.
+     * The body is encoded while the request is sent.
+     * 
+     * @param url
+     *            the query url
+     * @param datasetName
+     *            the name of the dataset
+     * @param baseDirectory
+     *            the base directory of the files
+     * @param files
+     *            the files to be registered
+     * @param versionMap
+     *            the files versions map
+     * @param cookie
+     *            the cookie to be set in the request
+     * @return the HTTP Response
+     */
+    public ClientURLResponse putDatasetFiles(String url, String datasetName, String baseDirectory, 
+    		List<String> files, Map<String, Integer> versionMap, String cookie) {
+		HttpPut httpput = new HttpPut(url);
+    	httpput.setHeader("Content-Type", "application/x-www-form-urlencoded");
+		httpput.setEntity(new DatasetFilesEntity(datasetName, baseDirectory, files, versionMap));
+		return execute(httpput, cookie);
+	}
+    
     /**
      * Uploads a set of given files with a specified dataset name.
      * 
@@ -487,6 +578,14 @@ public class JakartaClient  implements ClientURL {
     public ClientURLResponse postFile(String url, File file, String cookie) {
 		HttpPut httpput = new HttpPut(url);
     	httpput.setHeader("Content-Type", "application/octet-stream");
+    	if (chunkDigest) {
+    		try {
+            	httpput.setHeader("Content-MD5", DatasetUtils.contentMD5(file));
+			} catch (IOException e) {
+				// the file can not be read; the request fails when the entity is sent
+				e.printStackTrace();
+			}
+    	}
     	FileEntity fileEntity = new FileEntity(file, "binary/octet-stream");
     	fileEntity.setChunked(false);
     	httpput.setEntity(fileEntity);
@@ -540,17 +639,81 @@ public class JakartaClient  implements ClientURL {
      * @return the HTTP Response
      */
     public ClientURLResponse postFile(String url, byte[] entity, long length, long first, long fileLength, String cookie) {
+		return postFileBlock(url, entity, length, first, fileLength, first != 0, cookie);
+	}
+    
+    /**
+     * Uploads a file block.
+     * 
+     * @param url
+     *            the query url
+     * @param entity
+     *            the block content
+     * @param length
+     *            the number of bytes to write
+     * @param first
+     *            the first byte to write
+     * @param fileLength
+     *            the file length
+     * @param range
+     *            if true, the Content-Range header is sent even for the first block
+     *            (the block is written into an existing file version)
+     * @param cookie
+     *            the cookie to be set in the request
+     * @return the HTTP Response
+     */
+    public ClientURLResponse postFileBlock(String url, byte[] entity, long length, long first, long fileLength, boolean range, String cookie) {
 		HttpPut httpput = new HttpPut(url);
     	httpput.setHeader("Content-Type", "application/octet-stream");
-    	if (first != 0) {
+    	if (range) {
         	httpput.setHeader("Content-Range",  "bytes "+first+"-"+(first+length-1)+"/"+fileLength);
     	}
+    	if (chunkDigest) {
+        	httpput.setHeader("Content-MD5", DatasetUtils.contentMD5(entity, 0, entity.length));
+    	}
     	ByteArrayEntity inputStreamEntity = new ByteArrayEntity(entity);
     	inputStreamEntity.setChunked(false);
     	httpput.setEntity(inputStreamEntity);
 		return execute(httpput, cookie);
 	}
     
+    /**
+     * Creates an empty file version.
+     * The file content is uploaded later in blocks.
+     * 
+     * @param url
+     *            the query url
+     * @param cookie
+     *            the cookie to be set in the request
+     * @return the HTTP Response
+     */
+    public ClientURLResponse createFile(String url, String cookie) {
+		HttpPut httpput = new HttpPut(url);
+    	httpput.setHeader("Content-Type", "application/octet-stream");
+    	ByteArrayEntity entity = new ByteArrayEntity(new byte[0]);
+    	entity.setChunked(false);
+    	httpput.setEntity(entity);
+		return execute(httpput, cookie);
+	}
+    
+    /**
+     * Creates a file version with the content of an existing file version.
+     * The request is a WebDAV COPY (RFC 4918); the content is not transferred.
+     * 
+     * @param url
+     *            the url of the existing file version
+     * @param destination
+     *            the url of the file to be created
+     * @param cookie
+     *            the cookie to be set in the request
+     * @return the HTTP Response
+     */
+    public ClientURLResponse copyFile(String url, String destination, String cookie) {
+    	HttpCopy httpcopy = new HttpCopy(url);
+    	httpcopy.setHeader("Destination", destination);
+		return execute(httpcopy, cookie);
+	}
+    
     /**
      * Validate an upload/download.
      * The server will log the action result
@@ -607,6 +770,7 @@ public class JakartaClient  implements ClientURL {
     
     /**
      * Execute a HttpUriRequest
+     * Failed attempts are retried according to the retry policy
      * 
      * @param request
      *            the request to be executed
@@ -618,14 +782,28 @@ public class JakartaClient  implements ClientURL {
     	setCookie(cookie, request);
     	request.setHeader("X-Machine-Generated", "true");
     	ClientURLResponse response = null;
+    	String host = request.getURI().getAuthority();
     	int count = 0;
     	while (true) {
+    		String cause = null;
+    		long retryAfter = -1;
+    		// wait while the server is unhealthy
+    		retryPolicy.awaitAvailable(host);
     		try {
-    			response = new JakartaClientResponse(httpclient.execute(request));
-    			break;
+    			HttpResponse httpResponse = httpclient.execute(request);
+    			int status = httpResponse.getStatusLine().getStatusCode();
+    			response = new JakartaClientResponse(httpResponse, request);
+    			if (status == 503 || status == 429) {
+    				// the server is overloaded
+    				cause = "HTTP " + status;
+    				retryAfter = getRetryAfter(httpResponse);
+    			} else {
+    				retryPolicy.recordSuccess(host);
+    				break;
+    			}
     		} catch (ConnectException e) {
     			// Can not connect and send the request
-    			// Retry maximum 10 times
+    			cause = "ConnectException";
     			synchronized (this) {
         			if (connectException == null || !connectException.equals(e.getMessage())) {
             			System.err.println("ConnectException");
@@ -635,6 +813,7 @@ public class JakartaClient  implements ClientURL {
     			}
     		} catch (ClientProtocolException e) {
     			// TODO Auto-generated catch block
+    			cause = "ClientProtocolException";
     			synchronized (this) {
         			if (clientProtocolException == null || !clientProtocolException.equals(e.getMessage())) {
             			System.err.println("ClientProtocolException");
@@ -644,6 +823,7 @@ public class JakartaClient  implements ClientURL {
     			}
     		} catch (IOException e) {
     			// The request was sent, but no response; connection might have been broken
+    			cause = "IOException";
     			synchronized (this) {
         			if (ioException == null || !ioException.equals(e.getMessage())) {
             			System.err.println("IOException");
@@ -652,16 +832,18 @@ public class JakartaClient  implements ClientURL {
         			}
     			}
     		}
-			if (++count > retries) {
+    		retryPolicy.recordFailure(host, cause);
+			if (!retryPolicy.canRetry(count++)) {
 				break;
 			} else {
 				// just in case
 				if (response != null) {
 					response.release();
+					response = null;
 				}
 				// sleep before retrying
-				int delay = (int) Math.ceil((0.75 + Math.random() * 0.5) * Math.pow(10, count) * 0.00001);
-				System.out.println("Retry delay: " + delay + " ms.");
+				long delay = retryPolicy.getDelay(count, retryAfter);
+				System.out.println("Retry delay (" + cause + "): " + delay + " ms.");
 				try {
 					Thread.sleep(delay);
 				} catch (InterruptedException e1) {
@@ -674,6 +856,42 @@ public class JakartaClient  implements ClientURL {
 		return response;
     }
     
+    /**
+     * Get the delay requested by the server through the Retry-After header
+     * 
+     * @param response
+     *            the HTTP response
+     * @return the delay in milliseconds or -1 if the header is missing or invalid
+     */
+    private long getRetryAfter(HttpResponse response) {
+    	Header header = response.getFirstHeader("Retry-After");
+    	if (header == null) {
+    		return -1;
+    	}
+    	String value = header.getValue().trim();
+    	try {
+    		// delay in seconds
+    		return Long.parseLong(value) * 1000;
+    	} catch (NumberFormatException e) {
+    		// HTTP date
+    		try {
+    			long delay = DateUtils.parseDate(value).getTime() - System.currentTimeMillis();
+    			return delay > 0 ? delay : 0;
+    		} catch (DateParseException e1) {
+    			return -1;
+    		}
+    	}
+    }
+    
+    /**
+     * Get the number of failed attempts per failure cause
+     * 
+     * @return the map with the number of failed attempts per cause
+     */
+    public Map<String, Integer> getRetryStatistics() {
+    	return retryPolicy.getRetryCounts();
+    }
+    
     /**
      * Set the cookie for the request
      * 
@@ -733,11 +951,30 @@ public class JakartaClient  implements ClientURL {
         }
     }
     
+    /**
+     * HTTP COPY request
+     *
+     */
+    private static class HttpCopy extends HttpRequestBase {
+    	
+    	HttpCopy(String url) {
+    		setURI(URI.create(url));
+    	}
+    	
+    	public String getMethod() {
+    		return "COPY";
+    	}
+    }
+    
     private class JakartaClientResponse implements ClientURLResponse {
     	private HttpResponse response;
     	
-    	JakartaClientResponse(HttpResponse response) {
+    	// the request that generated the response
+    	private HttpUriRequest request;
+    	
+    	JakartaClientResponse(HttpResponse response, HttpUriRequest request) {
     		this.response = response;
+    		this.request = request;
     	}
     	
         /**
@@ -809,6 +1046,18 @@ public class JakartaClient  implements ClientURL {
     		return response.getFirstHeader("Location").getValue();
     	}
         
+        /**
+         * Return the value of a response header
+         * 
+         * @param headerName
+         *            name of the header
+         * @return the value of the first header with that name or null if there is none
+         */
+        public String getResponseHeader(String headerName) {
+        	Header header = response.getFirstHeader(headerName);
+    		return header != null ? header.getValue() : null;
+    	}
+        
         /**
          * Return the InputStream from where the body can be read
          * 
@@ -886,6 +1135,14 @@ public class JakartaClient  implements ClientURL {
             }
     	}
 
+        /**
+         * Abort the request; the connection is closed without reading the rest of the body
+         * 
+         */
+        public void abort() {
+        	request.abort();
+        }
+
         /**
          * Utility to print the status as well as the headers
          */
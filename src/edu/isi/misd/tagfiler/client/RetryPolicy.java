@@ -0,0 +1,98 @@
+package edu.isi.misd.tagfiler.client;
+
+/* 
+ * Copyright 2010 University of Southern California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.Map;
+
+/**
+ * Interface for deciding when and how a failed HTTP request is retried
+ * The health of the servers is tracked per host
+ *
+ * @author agent
+ *
+ */
+public interface RetryPolicy {
+
+    /**
+     * Set the maximum number of retries
+     *
+     * @param retries
+     *            the maximum number of retries
+     */
+	public void setMaxRetries(int retries);
+
+    /**
+     * Set the listener that receives the log messages of the policy
+     *
+     * @param listener
+     *            the listener or null to discard the messages
+     */
+	public void setListener(ClientURLListener listener);
+
+    /**
+     * Check if a new attempt is allowed
+     *
+     * @param count
+     *            the number of retries already performed
+     * @return true if the request can be retried
+     */
+	public boolean canRetry(int count);
+
+    /**
+     * Get the delay before the next attempt
+     *
+     * @param count
+     *            the retry number (starting from 1)
+     * @param retryAfter
+     *            the delay in milliseconds requested by the server or -1 if none
+     * @return the delay in milliseconds
+     */
+	public long getDelay(int count, long retryAfter);
+
+    /**
+     * Block the calling thread while the server is considered unhealthy
+     *
+     * @param host
+     *            the server host
+     */
+	public void awaitAvailable(String host);
+
+    /**
+     * Record a successful request
+     *
+     * @param host
+     *            the server host
+     */
+	public void recordSuccess(String host);
+
+    /**
+     * Record a failed request
+     *
+     * @param host
+     *            the server host
+     * @param cause
+     *            the failure cause (exception name or HTTP status)
+     */
+	public void recordFailure(String host, String cause);
+
+    /**
+     * Get the number of failed attempts per failure cause
+     *
+     * @return the map with the number of failed attempts per cause
+     */
+	public Map<String, Integer> getRetryCounts();
+}
@@ -55,6 +55,28 @@ public interface FileDownload extends FileTransfer {
      */
     public boolean downloadFiles(String destinationDir, String target);
 
+    /**
+     * Returns true if the files are downloaded while the files listing is read.
+     * In this mode the files are not retrieved before the download.
+     */
+    public boolean isStreaming();
+
+    /**
+     * Verifies the files of a previous download against the files listing,
+     * without transferring their content.
+     * 
+     * @param destinationDir
+     *            directory of the downloaded files
+     * @param missing
+     *            receives the listed files that do not exist locally
+     * @param extra
+     *            receives the local files that are not listed
+     * @param mismatched
+     *            receives the local files whose bytes or checksum differ
+     * @return true if the local files match the files listing
+     */
+    public boolean verifyFiles(String destinationDir, List<String> missing, List<String> extra, List<String> mismatched);
+
     /**
      * Checks with the tagfiler server to verify that a dataset by the control
      * number already exists
@@ -23,9 +23,14 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Hashtable;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.json.JSONArray;
@@ -34,6 +39,7 @@ import org.json.JSONObject;
 
 import edu.isi.misd.tagfiler.AbstractFileTransferSession;
 import edu.isi.misd.tagfiler.AbstractTagFilerApplet;
+import edu.isi.misd.tagfiler.FileTagsReader;
 import edu.isi.misd.tagfiler.TagFilerDownloadApplet;
 import edu.isi.misd.tagfiler.client.ClientURLListener;
 import edu.isi.misd.tagfiler.client.ClientURLResponse;
@@ -41,8 +47,13 @@ import edu.isi.misd.tagfiler.client.ConcurrentJakartaClient;
 import edu.isi.misd.tagfiler.exception.FatalException;
 import edu.isi.misd.tagfiler.ui.CustomTagMap;
 import edu.isi.misd.tagfiler.ui.FileListener;
+import edu.isi.misd.tagfiler.util.ChecksumCache;
 import edu.isi.misd.tagfiler.util.DatasetUtils;
 import edu.isi.misd.tagfiler.util.ClientUtils;
+import edu.isi.misd.tagfiler.util.DigestProvider;
+import edu.isi.misd.tagfiler.util.DirectoryScanner;
+import edu.isi.misd.tagfiler.util.FileHasher;
+import edu.isi.misd.tagfiler.util.FileLinker;
 import edu.isi.misd.tagfiler.util.FileWrapper;
 import edu.isi.misd.tagfiler.util.TagFilerProperties;
 
@@ -65,6 +76,36 @@ public class FileDownloadImplementation extends AbstractFileTransferSession
     // the applet
     private TagFilerDownloadApplet applet = null;
 
+    // if true, the files are downloaded while the files listing is read
+    private boolean streaming;
+
+    // true while the files listing is read by a streamed download
+    private boolean listing;
+
+    // true if the download completion was reported
+    private boolean reported;
+
+    // the check point offsets of a previous download
+    private Hashtable<String, Long> checkPoint;
+
+    // the checksums of the files completed by a previous download
+    private HashMap<String, String> checkPointChecksum;
+
+    // if true, the files with the same checksum are downloaded once and the rest are created locally
+    private boolean dedup;
+
+    // the destination directory of the download
+    private String downloadDir;
+
+    // the files not downloaded because another file has the same content, and the file with the content
+    private LinkedHashMap<String, String> duplicates = new LinkedHashMap<String, String>();
+
+    // the checksums of the files not downloaded because another file has the same content
+    private HashMap<String, String> duplicateChecksums = new HashMap<String, String>();
+
+    // the downloaded files by checksum
+    private HashMap<String, String> contents = new HashMap<String, String>();
+
     /**
      * Constructs a new file download
      * 
@@ -91,10 +132,39 @@ public class FileDownloadImplementation extends AbstractFileTransferSession
 	boolean allowChunks = ((AbstractTagFilerApplet) applet).allowChunksTransfering();
     client = new ConcurrentJakartaClient(allowChunks ? ((AbstractTagFilerApplet) applet).getMaxConnections() : 2, ((AbstractTagFilerApplet) applet).getSocketBufferSize(), ((AbstractTagFilerApplet) applet).getSocketTimeout(), this);
     client.setChunked(allowChunks);
+    client.setQuarantineMode(TagFilerProperties.getProperty("tagfiler.transfer.quarantine", false));
+    client.setChunkDigest(TagFilerProperties.getProperty("tagfiler.transfer.chunk.digest", false));
+    client.setHedgeMode(TagFilerProperties.getProperty("tagfiler.transfer.hedge", false));
+    client.setSplitMode(TagFilerProperties.getProperty("tagfiler.transfer.split", false));
+    client.setCoalesceChunks((int) TagFilerProperties.getProperty("tagfiler.download.coalesce", 1L));
     client.setChunkSize(((AbstractTagFilerApplet) applet).getChunkSize());
+    digestProvider = ((AbstractTagFilerApplet) applet).getDigestProvider();
+    client.setDigestProvider(digestProvider);
     client.setRetryCount(((AbstractTagFilerApplet) applet).getMaxRetries());
+    client.setRetryPolicy(((AbstractTagFilerApplet) applet).getRetryPolicy());
     applet.setClient((ConcurrentJakartaClient) client);
     client.setCookieName(applet.getCookieName());
+    streaming = TagFilerProperties.getProperty("tagfiler.download.stream", false);
+    dedup = TagFilerProperties.getProperty("tagfiler.download.dedup", false);
+    }
+
+    /**
+     * Returns true if the files are downloaded while the files listing is read.
+     */
+    public boolean isStreaming() {
+        return streaming;
+    }
+
+    /**
+     * Check if the files listing of a query never changes
+     * The files of a dataset version are not modified after the version was created
+     * 
+	 * @param version
+	 *            true for the files of the dataset version; false for the latest files
+     * @return true if the listing can be reused without revalidation
+     */
+    protected boolean isImmutableListing(boolean version) {
+    	return version && datasetVersion > 0;
     }
 
     /**
@@ -118,15 +188,15 @@ public class FileDownloadImplementation extends AbstractFileTransferSession
     	boolean success = false;
 
         try {
-            fileNames = new ArrayList<String>();
-            checksumMap = new HashMap<String, String>();
-            bytesMap = new HashMap<String, Long>();
+            newFileTable();
+            versionMap = fileTable.getVersionMap();
             datasetSize = 0;
 
             if (customTagMap.getTagNames().size() > 0) {
                 setCustomTags();
             }
-            success = getDataSet();
+            // in streaming mode the files are retrieved by the download
+            success = streaming ? true : getDataSet();
         } catch (Exception e) {
             e.printStackTrace();
             fileDownloadListener.notifyError(e);
@@ -150,7 +220,6 @@ public class FileDownloadImplementation extends AbstractFileTransferSession
      * @param target
      *            resume or download all
      */
-    @SuppressWarnings("unchecked")
 	public boolean downloadFiles(String destDir, String target) {
         if (destDir == null || destDir.length() == 0 || target == null) throw new IllegalArgumentException(destDir+", "+target);
         this.target = target;
@@ -160,64 +229,55 @@ public class FileDownloadImplementation extends AbstractFileTransferSession
 			// TODO Auto-generated catch block
 			e1.printStackTrace();
 		}
+        downloadDir = destDir;
+        duplicates.clear();
+        duplicateChecksums.clear();
+        contents.clear();
+        if (streaming) {
+        	return streamFiles(destDir);
+        }
 
-        // the copy is done for performance reasons in the inner loop
-        ArrayList<String> tempFiles = new ArrayList<String>(fileNames);
+        // the files without check points; the hash set keeps the listing order
+        LinkedHashSet<String> tempFiles = new LinkedHashSet<String>(fileNames);
         
         List<FileWrapper> filesList = new ArrayList<FileWrapper>();
         if (target.equals(RESUME_TARGET)) {
         	// resume download
-        	String filename = destDir + File.separator + TagFilerProperties.getProperty("tagfiler.checkpoint.file");
-        	File file = new File(filename);
-        	if (file.exists() && file.isFile() && file.canRead()) {
-        		// get the download check point status
-        		try {
-					FileInputStream fis = new FileInputStream(filename);
-					ObjectInputStream in = new ObjectInputStream(fis);
-					Hashtable<String, Long> checkPoint = (Hashtable<String, Long>) in.readObject();
-					HashMap<String, String> checksum = (HashMap<String, String>) in.readObject();
-					in.close();
-					fis.close();
-					System.out.println("Check Points Read: "+checkPoint+"\n"+checksum);
-					Set<String> keys = checkPoint.keySet();
-					for (String key : keys) {
-						if (tempFiles.contains(key)) {
-							tempFiles.remove(key);
-							boolean complete = (long)bytesMap.get(key) == (long)checkPoint.get(key);
-							if (complete && enableChecksum) {
-								complete = checksum.get(key) != null && checksumMap.get(key) != null && 
-										   checksum.get(key).equals(checksumMap.get(key));
-							}
-							if (complete) {
-								// file already downloaded
-								bytesMap.remove(key);
-								versionMap.remove(key);
-								checksumMap.remove(key);
-							} else {
-								// file partial downloaded
-								filesList.add(new FileWrapper(key, checkPoint.get(key), versionMap.get(key), bytesMap.get(key)));
-							}
-						}
-					}
-				} catch (FileNotFoundException e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
-				} catch (IOException e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
-				} catch (ClassNotFoundException e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
-				}
+        	if (readCheckPoint(destDir)) {
+        		Set<String> keys = checkPoint.keySet();
+        		for (String key : keys) {
+        			if (tempFiles.remove(key)) {
+        				boolean complete = (long)bytesMap.get(key) == (long)checkPoint.get(key);
+        				if (complete && enableChecksum) {
+        					complete = checkPointChecksum.get(key) != null && checksumMap.get(key) != null && 
+        							   checkPointChecksum.get(key).equals(checksumMap.get(key));
+        				}
+        				if (complete) {
+        					// file already downloaded
+        					bytesMap.remove(key);
+        					versionMap.remove(key);
+        					checksumMap.remove(key);
+        				} else {
+        					// file partial downloaded
+        					filesList.add(new FileWrapper(key, checkPoint.get(key), versionMap.get(key), bytesMap.get(key)));
+        				}
+        			}
+        		}
         	}
         }
         
         // add the rest of the files without check points
         for (String filename : tempFiles) {
+        	if (isDuplicate(filename, checksumMap.get(filename))) {
+        		continue;
+        	}
 			filesList.add(new FileWrapper(filename, 0, versionMap.get(filename), bytesMap.get(filename)));
         }
         
         System.out.println(""+filesList.size()+" file(s) will be downloaded");
+        if (duplicates.size() > 0) {
+        	System.out.println(""+duplicates.size()+" file(s) with the same content as other files will be created locally");
+        }
         
         // get the total size of the files to be downloaded and checksum
         long totalSize = 0;
@@ -242,6 +302,319 @@ public class FileDownloadImplementation extends AbstractFileTransferSession
         return true;
     }
 
+    /**
+     * Performs the dataset download while the files listing is read.
+     * Each file is added to the download as soon as its tags were parsed.
+     * 
+     * @param destDir
+     *            destination directory for the download
+     */
+	private boolean streamFiles(String destDir) {
+        newFileTable();
+        versionMap = fileTable.getVersionMap();
+        datasetSize = 0;
+        checkPoint = null;
+        if (target.equals(RESUME_TARGET)) {
+        	readCheckPoint(destDir);
+        }
+        
+        fileDownloadListener.notifyStart(dataset, 0);
+        if (!((AbstractTagFilerApplet) applet).allowChunksTransfering()) {
+            ClientUtils.disableExpirationWarning(applet);
+        }
+        start = System.currentTimeMillis();
+        cancel = false;
+        synchronized (this) {
+        	listing = true;
+        	reported = false;
+        }
+        client.startDownload(destDir, checksumMap, bytesMap, versionMap);
+        
+    	// get the "bytes" and "sha256sum" tags of the files
+        FileTagsReader reader = getFilesTagReader(applet, fileDownloadListener, true);
+        if (reader == null) {
+        	return false;
+        }
+        String err = null;
+        int files = 0;
+        long tb = 0;
+        try {
+        	while (reader.next()) {
+    			// make sure we have a file
+    			if (reader.getBytes() == -1) {
+    				continue;
+    			}
+    			
+    			// get the file name, bytes, version and checksum
+                String file = reader.getName().substring(dataset.length()+1);
+                long bytes = reader.getBytes();
+                int version = reader.getVersion();
+                String checksum = reader.getChecksum();
+                fileNames.add(file);
+                datasetSize += bytes;
+                
+                long offset = 0;
+                if (checkPoint != null && checkPoint.get(file) != null) {
+                	offset = checkPoint.get(file);
+                	boolean complete = bytes == offset;
+                	if (complete && enableChecksum) {
+                		complete = checksum != null && checksum.equals(checkPointChecksum.get(file));
+                	}
+                	if (complete) {
+                		// file already downloaded
+                		continue;
+                	}
+                }
+                if (offset == 0 && isDuplicate(file, checksum)) {
+                	continue;
+                }
+                bytesMap.put(file, bytes);
+                versionMap.put(file, version);
+                if (checksum != null) {
+                    checksumMap.put(file, checksum);
+                }
+                
+                // the file is downloaded while the rest of the listing is read
+                tb += bytes - offset;
+                fileDownloadListener.notifyFileQueued(file, bytes - offset + (enableChecksum ? bytes : 0));
+                client.addDownload(new FileWrapper(file, offset, version, bytes));
+                files++;
+        	}
+        } catch (Exception e) {
+            e.printStackTrace();
+            err = "<p>Can not retrieve the file(s) to be downloaded.";
+        } finally {
+        	reader.close();
+        }
+        
+        System.out.println(""+files+" file(s) will be downloaded");
+        fileDownloadListener.notifyLogMessage(tb + " total bytes will be transferred");
+        boolean completed = false;
+        synchronized (this) {
+        	listing = false;
+        	completed = (fileDownloadListener.getFilesCompleted() == fileNames.size() - duplicates.size());
+        }
+        if (completed && err == null) {
+        	reportCompletion();
+        }
+        client.endDownload(err);
+        
+        return err == null;
+    }
+
+    /**
+     * Check if a file has the same content as a file already added to the download
+     * 
+     * @param file
+     *            the file name
+     * @param checksum
+     *            the file checksum or null
+     * @return true if the file will be created locally from the file with the same content
+     */
+	private boolean isDuplicate(String file, String checksum) {
+		if (!dedup || checksum == null) {
+			return false;
+		}
+		String source = contents.get(checksum);
+		if (source == null) {
+			contents.put(checksum, file);
+			return false;
+		}
+		duplicates.put(file, source);
+		duplicateChecksums.put(file, checksum);
+		return true;
+	}
+
+    /**
+     * Create the duplicate files from the downloaded files with the same content
+     * A file is copied, or created as a hard link if enabled and supported
+     * The created files are added to the check point, which is written if a file can not be created
+     * 
+     * @return true if all the duplicate files were created
+     */
+	private boolean materializeDuplicates() {
+		long t0 = System.currentTimeMillis();
+		boolean link = TagFilerProperties.getProperty("tagfiler.download.dedup.link", false);
+		int links = 0;
+		for (Map.Entry<String, String> entry : duplicates.entrySet()) {
+			File source = new File(downloadDir, entry.getValue().replace('/', File.separatorChar));
+			File target = new File(downloadDir, entry.getKey().replace('/', File.separatorChar));
+			try {
+				if (FileLinker.materialize(source, target, link)) {
+					links++;
+				}
+				client.addCheckPoint(entry.getKey(), target.length(), duplicateChecksums.get(entry.getKey()));
+				fileDownloadListener.notifyFileTransferSkip(entry.getKey());
+			} catch (IOException e) {
+				e.printStackTrace();
+				client.writeCheckPoint();
+				notifyFailure("<p>Failure in downloading the file \"" + entry.getKey() + "\".<p>" + e.getMessage(), false);
+				return false;
+			}
+		}
+		System.out.println("Deduplication: " + duplicates.size() + " file(s) created locally, " + links + " hard link(s), in " + 
+				(System.currentTimeMillis() - t0) + " ms.");
+		return true;
+	}
+
+    /**
+     * Verifies the files of a previous download against the files listing.
+     * The listed files are checked by bytes and checksum; the checksums are computed 
+     * in parallel or taken from the checksum cache. No file content is transferred.
+     * 
+     * @param destDir
+     *            directory of the downloaded files
+     * @param missing
+     *            receives the listed files that do not exist locally
+     * @param extra
+     *            receives the local files that are not listed
+     * @param mismatched
+     *            receives the local files whose bytes or checksum differ
+     * @return true if the local files match the files listing
+     */
+	public boolean verifyFiles(String destDir, List<String> missing, List<String> extra, List<String> mismatched) {
+        if (destDir == null || destDir.length() == 0 || missing == null || extra == null || mismatched == null) 
+        	throw new IllegalArgumentException(destDir+", "+missing+", "+extra+", "+mismatched);
+        long t0 = System.currentTimeMillis();
+        
+        // read the files listing again; a download removes the completed files from the maps
+        newFileTable();
+        versionMap = fileTable.getVersionMap();
+        datasetSize = 0;
+        try {
+        	if (!getDataSet()) {
+        		return false;
+        	}
+        } catch (Exception e) {
+        	e.printStackTrace();
+        	fileDownloadListener.notifyError(e);
+        	return false;
+        }
+        
+        int hashed = compareFiles(new File(destDir).getAbsoluteFile(), fileNames, bytesMap, checksumMap, digestProvider, 
+        		missing, extra, mismatched);
+        
+        String summary = "Verify: " + fileNames.size() + " file(s) listed, " + hashed + " file(s) hashed, " +
+        	missing.size() + " missing, " + extra.size() + " extra, " + mismatched.size() + " mismatched, in " + 
+        	(System.currentTimeMillis() - t0) + " ms.";
+        System.out.println(summary);
+        fileDownloadListener.notifyLogMessage(summary);
+        if (ChecksumCache.getDefault() != null) {
+            System.out.println("Checksum cache: " + getChecksumCacheStatistics());
+        }
+        return missing.size() == 0 && extra.size() == 0 && mismatched.size() == 0;
+	}
+
+    /**
+     * Compare the local files with the files listing
+     * A listed file is checked by its bytes, if listed, and by its checksum, if listed
+     * 
+     * @param root
+     *            the directory of the downloaded files
+     * @param fileNames
+     *            the listed files
+     * @param bytesMap
+     *            the listed bytes of the files
+     * @param checksumMap
+     *            the listed checksums of the files
+     * @param provider
+     *            the digest provider of the checksums
+     * @param missing
+     *            receives the listed files that do not exist locally
+     * @param extra
+     *            receives the local files that are not listed
+     * @param mismatched
+     *            receives the local files whose bytes or checksum differ
+     * @return the number of files that were hashed
+     */
+	static int compareFiles(File root, List<String> fileNames, Map<String, Long> bytesMap, Map<String, String> checksumMap, 
+			DigestProvider provider, List<String> missing, List<String> extra, List<String> mismatched) {
+        // check the bytes of the listed files; the files with the expected size are hashed
+        List<FileWrapper> hashList = new ArrayList<FileWrapper>();
+        List<String> hashNames = new ArrayList<String>();
+        for (String file : fileNames) {
+        	File localFile = new File(root, file.replace('/', File.separatorChar));
+        	if (!localFile.isFile()) {
+        		missing.add(file);
+        	} else if (bytesMap.get(file) != null && localFile.length() != (long) bytesMap.get(file)) {
+        		// a file listed without bytes is checked only by its checksum
+        		mismatched.add(file);
+        	} else if (checksumMap.get(file) != null) {
+        		hashList.add(new FileWrapper(localFile.getPath(), 0, 0, localFile.length()));
+        		hashNames.add(file);
+        	}
+        }
+        Map<String, String> digests = FileHasher.getDigests(hashList, provider, 
+        		(int) TagFilerProperties.getProperty("tagfiler.checksum.threads", 0L), ChecksumCache.getDefault());
+        for (int i = 0; i < hashList.size(); i++) {
+        	String file = hashNames.get(i);
+        	if (!checksumMap.get(file).equals(digests.get(hashList.get(i).getName()))) {
+        		mismatched.add(file);
+        	}
+        }
+        
+        // look for the local files that are not in the listing
+        final Set<String> listed = new HashSet<String>(fileNames);
+        listed.add(TagFilerProperties.getProperty("tagfiler.checkpoint.file"));
+        final String prefix = root.getPath() + File.separator;
+        final List<String> localFiles = new ArrayList<String>();
+        DirectoryScanner scanner = new DirectoryScanner((int) TagFilerProperties.getProperty("tagfiler.scan.threads", 4L), 
+        		new DirectoryScanner.FileHandler() {
+        	public void fileFound(String path, long length) {
+        		if (path.startsWith(prefix)) {
+        			String file = path.substring(prefix.length()).replace(File.separatorChar, '/');
+        			if (!listed.contains(file)) {
+        				synchronized (localFiles) {
+        					localFiles.add(file);
+        				}
+        			}
+        		}
+        	}
+        });
+        scanner.scan(new File[] { root });
+        Collections.sort(localFiles);
+        extra.addAll(localFiles);
+        
+        return hashList.size();
+	}
+
+    /**
+     * Read the check point file of a previous download
+     * 
+     * @param destDir
+     *            destination directory for the download
+     * @return true if the check point file was read
+     */
+    @SuppressWarnings("unchecked")
+	private boolean readCheckPoint(String destDir) {
+    	String filename = destDir + File.separator + TagFilerProperties.getProperty("tagfiler.checkpoint.file");
+    	File file = new File(filename);
+    	if (file.exists() && file.isFile() && file.canRead()) {
+    		// get the download check point status
+    		try {
+				FileInputStream fis = new FileInputStream(filename);
+				ObjectInputStream in = new ObjectInputStream(fis);
+				checkPoint = (Hashtable<String, Long>) in.readObject();
+				checkPointChecksum = (HashMap<String, String>) in.readObject();
+				in.close();
+				fis.close();
+				System.out.println("Check Points Read: "+checkPoint+"\n"+checkPointChecksum);
+				return true;
+			} catch (FileNotFoundException e) {
+				// TODO Auto-generated catch block
+				e.printStackTrace();
+			} catch (IOException e) {
+				// TODO Auto-generated catch block
+				e.printStackTrace();
+			} catch (ClassNotFoundException e) {
+				// TODO Auto-generated catch block
+				e.printStackTrace();
+			}
+    	}
+    	checkPoint = null;
+    	return false;
+    }
+
     /**
      * Sets the values for the custom tags of the dataset to be downloaded.
      * 
@@ -274,57 +647,53 @@ public class FileDownloadImplementation extends AbstractFileTransferSession
     private boolean getDataSet() throws Exception {
         boolean result = false;
 
+    	// get the "bytes" and "sha256sum" tags of the files
+        FileTagsReader reader = getFilesTagReader(applet, fileDownloadListener);
+        if (reader == null) {
+        	return true;
+        }
         try {
-        	// get the "bytes" and "sha256sum" tags of the files
-        	JSONArray tagsValues = getFilesTagValues(applet, fileDownloadListener);
-        	if (tagsValues != null) {
-        		// get the number of files to be downloaded
+        	// the records are loaded directly into the files tables
+        	while (reader.next()) {
+    			// make sure we have a file
         		// by replacing a file with an URL, we might have have fewer files to be downloaded
-        		int totalFiles = tagsValues.length();
-        		for (int i=0; i < tagsValues.length(); i++) {
-        			if (tagsValues.getJSONObject(i).isNull(BYTES)) {
-        				totalFiles--;
-        			}
-        		}
-        		if (totalFiles > 0) {
-                    fileDownloadListener.notifyRetrieveStart(totalFiles);
-                    
-            		for (int i=0; i < tagsValues.length(); i++) {
-            			JSONObject fileTags = tagsValues.getJSONObject(i);
-            			
-            			// make sure we have a file
-            			if (fileTags.isNull(BYTES)) {
-            				continue;
-            			}
-            			
-            			// get the file name
-                        String file = fileTags.getString(NAME).substring(dataset.length()+1);
-                        fileNames.add(file);
-
-                        // get the bytes
-                        long bytes = fileTags.getLong(BYTES);
-                        datasetSize += bytes;
-                        bytesMap.put(file, bytes);
-
-                        // get the version
-                        String vname = fileTags.getString(VNAME);
-                        int version = Integer.parseInt(vname.substring(vname.lastIndexOf("@") + 1));
-                        versionMap.put(file, version);
-
-                        // get the checksum
-                        if (!fileTags.isNull(SHA256SUM)) {
-                            String checksum = fileTags.getString(SHA256SUM);
-                            checksumMap.put(file, checksum);
-                        }
-                        fileDownloadListener.notifyFileRetrieveComplete(file);
-            		}
-            	}
+    			if (reader.getBytes() == -1) {
+    				continue;
+    			}
+    			
+    			// get the file name
+                String file = reader.getName().substring(dataset.length()+1);
+                fileNames.add(file);
+
+                // get the bytes
+                long bytes = reader.getBytes();
+                datasetSize += bytes;
+                bytesMap.put(file, bytes);
+
+                // get the version
+                versionMap.put(file, reader.getVersion());
+
+                // get the checksum
+                if (reader.getChecksum() != null) {
+                    checksumMap.put(file, reader.getChecksum());
+                }
+        	}
+        	System.out.println("Files Response: " + reader.getCount() + " record(s), " + fileNames.size() + " file(s)");
+        	
+        	// get the number of files to be downloaded
+    		if (fileNames.size() > 0) {
+                fileDownloadListener.notifyRetrieveStart(fileNames.size());
+                for (String file : fileNames) {
+                    fileDownloadListener.notifyFileRetrieveComplete(file);
+                }
         	}
             result = true;
         } catch (Exception e) {
             e.printStackTrace();
             fileDownloadListener.notifyError(e);
             result = false;
+        } finally {
+        	reader.close();
         }
 
         return result;
@@ -513,6 +882,16 @@ public class FileDownloadImplementation extends AbstractFileTransferSession
 		fileDownloadListener.notifyFailure(dataset, err);
 	}
 
+	/**
+	 * Callback to log a message of the client
+	 * 
+	 * @param message
+	 *            the message to be logged
+	 */
+	public void notifyLogMessage(String message) {
+		fileDownloadListener.notifyLogMessage(message);
+	}
+
 	/**
 	 * Callback to notify a failure during the upload/download process
 	 * 
@@ -559,24 +938,57 @@ public class FileDownloadImplementation extends AbstractFileTransferSession
 		// TODO Auto-generated method stub
 		fileDownloadListener.notifyChunkTransfered(true, size);
 		sentRequests++;
-		if (fileDownloadListener.getFilesCompleted() == fileNames.size()) {
-	        long t1 = System.currentTimeMillis();
-            if (enableChecksum) {
-            	sentRequests /= 2;
-            }
-            long downloadTime = t1 - start;
-            double downloadRate = DatasetUtils.roundTwoDecimals(((double) datasetSize)/1000/downloadTime);
-            double fileRate = DatasetUtils.roundTwoDecimals(((double) fileNames.size())*1000/downloadTime);
-            double requestRate = DatasetUtils.roundTwoDecimals(((double) sentRequests)*1000/downloadTime);
-            System.out.println("Total files: " + fileNames.size());
-            System.out.println("Total bytes: " + datasetSize);
-            System.out.println("Total download requests: " + sentRequests);
-            System.out.println("Download time: " + downloadTime + " ms");
-            System.out.println("Download rate: [" + downloadRate + " MB/sec, " + fileRate + " files/sec, " + requestRate + " requests/sec, " + (datasetSize/fileNames.size()) + " bytes/file]");
-            if (!((AbstractTagFilerApplet) applet).allowChunksTransfering()) {
-                ClientUtils.enableExpirationWarning(applet);
-            }
+		boolean completed = false;
+		synchronized (this) {
+			completed = !listing && fileDownloadListener.getFilesCompleted() == fileNames.size() - duplicates.size();
+		}
+		if (completed) {
+			reportCompletion();
+		}
+	}
+
+	/**
+	 * Callback to notify that the server reported the stored bytes of an uploaded file
+	 * The downloaded files are validated by their checksum
+	 * 
+	 * @param filename
+	 *            the file name
+	 * @param length
+	 *            the file length reported by the server
+	 */
+	public void notifyFileAcknowledged(String filename, long length) {
+	}
+
+	/**
+	 * Print the download statistics once all the files were downloaded
+	 * 
+	 */
+	private void reportCompletion() {
+		synchronized (this) {
+			if (reported) {
+				return;
+			}
+			reported = true;
 		}
+        long t1 = System.currentTimeMillis();
+        if (enableChecksum) {
+        	sentRequests /= 2;
+        }
+        long downloadTime = t1 - start;
+        double downloadRate = DatasetUtils.roundTwoDecimals(((double) datasetSize)/1000/downloadTime);
+        double fileRate = DatasetUtils.roundTwoDecimals(((double) fileNames.size())*1000/downloadTime);
+        double requestRate = DatasetUtils.roundTwoDecimals(((double) sentRequests)*1000/downloadTime);
+        System.out.println("Total files: " + fileNames.size());
+        System.out.println("Total bytes: " + datasetSize);
+        System.out.println("Total download requests: " + sentRequests);
+        System.out.println("Failed attempts: " + client.getRetryStatistics());
+        System.out.println("Metadata cache: " + getMetadataCacheStatistics());
+        System.out.println("Checksum cache: " + getChecksumCacheStatistics());
+        System.out.println("Download time: " + downloadTime + " ms");
+        System.out.println("Download rate: [" + downloadRate + " MB/sec, " + fileRate + " files/sec, " + requestRate + " requests/sec, " + (datasetSize/fileNames.size()) + " bytes/file]");
+        if (!((AbstractTagFilerApplet) applet).allowChunksTransfering()) {
+            ClientUtils.enableExpirationWarning(applet);
+        }
 	}
 
 	/**
@@ -585,6 +997,9 @@ public class FileDownloadImplementation extends AbstractFileTransferSession
 	 */
 	public void notifySuccess() {
 		// TODO Auto-generated method stub
+		if (duplicates.size() > 0 && !materializeDuplicates()) {
+			return;
+		}
         String datasetURLQuery = null;
 		try {
 			datasetURLQuery = DatasetUtils.getDatasetQuery(dataset, tagFilerServerURL);
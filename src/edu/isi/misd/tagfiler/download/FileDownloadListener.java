@@ -63,4 +63,13 @@ public interface FileDownloadListener extends FileListener {
      */
     public void notifyFileRetrieveComplete(String filename);
 
+    /**
+     * Called when a file is added to a download in progress
+     * @param filename
+     *            the file to be downloaded.
+     * @param size
+     *            the number of bytes added to the progress bar.
+     */
+    public void notifyFileQueued(String filename, long size);
+
 }
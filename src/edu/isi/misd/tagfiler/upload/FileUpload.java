@@ -19,6 +19,7 @@ package edu.isi.misd.tagfiler.upload;
 import java.util.List;
 
 import edu.isi.misd.tagfiler.FileTransfer;
+import edu.isi.misd.tagfiler.util.FileAttributesCache;
 
 /**
  * Interface for a file upload process to the tag server.
@@ -56,6 +57,11 @@ public interface FileUpload extends FileTransfer {
      */
     public void addFilesToList(List<String> filesList);
 
+    /**
+     * Returns the cache of the local file attributes of the session.
+     */
+    public FileAttributesCache getFileAttributes();
+
     /**
      * Sets the dataset name.
      * 
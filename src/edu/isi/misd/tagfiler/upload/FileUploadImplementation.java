@@ -17,16 +17,23 @@ package edu.isi.misd.tagfiler.upload;
  */
 
 import java.io.File;
+import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
-import org.json.JSONArray;
-import org.json.JSONException;
 import org.json.JSONObject;
 
 import edu.isi.misd.tagfiler.AbstractFileTransferSession;
 import edu.isi.misd.tagfiler.AbstractTagFilerApplet;
+import edu.isi.misd.tagfiler.FileTagsReader;
 import edu.isi.misd.tagfiler.TagFilerUploadApplet;
 import edu.isi.misd.tagfiler.client.ClientURLListener;
 import edu.isi.misd.tagfiler.client.ClientURLResponse;
@@ -34,9 +41,14 @@ import edu.isi.misd.tagfiler.client.ConcurrentJakartaClient;
 import edu.isi.misd.tagfiler.exception.FatalException;
 import edu.isi.misd.tagfiler.ui.CustomTagMap;
 import edu.isi.misd.tagfiler.ui.FileListener;
+import edu.isi.misd.tagfiler.util.ChecksumCache;
 import edu.isi.misd.tagfiler.util.ClientUtils;
 import edu.isi.misd.tagfiler.util.DatasetUtils;
+import edu.isi.misd.tagfiler.util.DirectoryScanner;
+import edu.isi.misd.tagfiler.util.FileAttributesCache;
+import edu.isi.misd.tagfiler.util.FileHasher;
 import edu.isi.misd.tagfiler.util.FileWrapper;
+import edu.isi.misd.tagfiler.util.JSONArrayReader;
 import edu.isi.misd.tagfiler.util.TagFilerProperties;
 
 /**
@@ -57,10 +69,31 @@ public class FileUploadImplementation extends AbstractFileTransferSession
 
     // the applet
     private TagFilerUploadApplet applet = null;
+
+    // the cache of the local file attributes
+    private FileAttributesCache fileAttributes = new FileAttributesCache();
     
     // mutex to block thread execution until all files were uploaded
     private Object lock = new Object();
 
+    // true once the client notified the end of the transfer in progress
+    private boolean transferEnded;
+
+    // the files validated during the upload; the final check reconciles only the rest
+    private HashSet<String> validatedFiles = new HashSet<String>();
+
+    // the files whose content is uploaded by another file or exists on the server, and their checksums
+    private LinkedHashMap<FileWrapper, String> duplicates = new LinkedHashMap<FileWrapper, String>();
+
+    // the local files uploading the content of the duplicates, by checksum
+    private HashMap<String, String> uploadedContents = new HashMap<String, String>();
+
+    // the files versions (name@version) on the server with the content of the duplicates, by checksum
+    private HashMap<String, String> existingContents = new HashMap<String, String>();
+
+    // the maximum number of checksums looked up on the server by a single query
+    private static final int DEDUP_QUERY_BATCH = 50;
+
     /**
      * Constructs a new file upload
      * 
@@ -87,8 +120,16 @@ public class FileUploadImplementation extends AbstractFileTransferSession
 	boolean allowChunks = ((AbstractTagFilerApplet) applet).allowChunksTransfering();
     client = new ConcurrentJakartaClient(allowChunks ? ((AbstractTagFilerApplet) applet).getMaxConnections() : 2, ((AbstractTagFilerApplet) applet).getSocketBufferSize(), ((AbstractTagFilerApplet) applet).getSocketTimeout(), this);
     client.setChunked(allowChunks);
+    client.setQuarantineMode(TagFilerProperties.getProperty("tagfiler.transfer.quarantine", false));
+    client.setChunkDigest(TagFilerProperties.getProperty("tagfiler.transfer.chunk.digest", false));
+    client.setEarlyVersionMode(TagFilerProperties.getProperty("tagfiler.upload.version.early", false));
+    client.setTagBatchSize((int) TagFilerProperties.getProperty("tagfiler.upload.tags.batch", 0L));
+    client.setValidateBatchSize((int) TagFilerProperties.getProperty("tagfiler.upload.validate.batch", 0L));
     client.setChunkSize(((AbstractTagFilerApplet) applet).getChunkSize());
+    digestProvider = ((AbstractTagFilerApplet) applet).getDigestProvider();
+    client.setDigestProvider(digestProvider);
     client.setRetryCount(((AbstractTagFilerApplet) applet).getMaxRetries());
+    client.setRetryPolicy(((AbstractTagFilerApplet) applet).getRetryPolicy());
     applet.setClient((ConcurrentJakartaClient) client);
     client.setCookieName(applet.getCookieName());
     }
@@ -105,6 +146,13 @@ public class FileUploadImplementation extends AbstractFileTransferSession
         applet.eval("setDestinationDirectory", baseDir.replaceAll("\\\\", "\\\\\\\\"));
     }
 
+    /**
+     * Returns the cache of the local file attributes of the session.
+     */
+    public FileAttributesCache getFileAttributes() {
+        return fileAttributes;
+    }
+
     /**
      * Sets the files to be uploaded on the Web Page.
      * 
@@ -204,75 +252,78 @@ public class FileUploadImplementation extends AbstractFileTransferSession
             throws FatalException {
         if (files == null) throw new IllegalArgumentException(""+files);
 
-        // the copy is done for performance reasons in the inner loop
-        ArrayList<String> tempFiles = new ArrayList<String>(files);
+        // index the files by their name in the dataset; the hash map keeps the files order
+        LinkedHashMap<String, String> tempFiles = new LinkedHashMap<String, String>();
+        for (String filename : files) {
+        	tempFiles.put(dataset + DatasetUtils.getBaseName(filename, baseDirectory), filename);
+        }
         
         List<FileWrapper> filesList = new ArrayList<FileWrapper>();
-        checksumMap = new HashMap<String, String>();
-        bytesMap = new HashMap<String, Long>();
-        fileNames = new ArrayList<String>();
-        datasetSize = 0;
+        // the versions stay in their map, as they are keyed by the local file paths
+        clearFileTables();
+        
+        // read once the attributes of the files that were not discovered by the directory scan
+        fileAttributes.load(files, (int) TagFilerProperties.getProperty("tagfiler.scan.threads", 4L));
         
         if (target.equals(RESUME_TARGET)) {
         	// check what is completed or partial done
-            JSONArray array = getFilesTagValues(applet, fileUploadListener);
-            if (array != null) {
-                for (int i=0; i<array.length(); i++) {
-                	try {
-        				JSONObject obj = array.getJSONObject(i);
-                        String vname = obj.getString(VNAME);
-                        String cksum = null;
-                        if (!obj.isNull(SHA256SUM)) {
-                            cksum = obj.getString(SHA256SUM);
-                        }
-        				for (String filename : tempFiles) {
-    						long fileSize = (new File(filename)).length();
-        					String basename = DatasetUtils.getBaseName(filename, baseDirectory);
-        					if (obj.getString(NAME).equals(dataset+basename)) {
-        	                    int version = Integer.parseInt(vname.substring(vname.lastIndexOf("@") + 1));
-        						if (cksum != null) {
-            						checksumMap.put(basename, cksum);
-        						}
-        						if (!obj.isNull(CHECK_POINT_OFFSET)) {
-        							long offset = obj.getLong(CHECK_POINT_OFFSET);
-        							if (offset != fileSize) {
-        								// the file is partial uploaded
-        								filesList.add(new FileWrapper(filename, offset, version, fileSize));
-        							} else {
-        								// upload completed for this file
-        								// initialize the tables for upload validation
-                						fileNames.add(basename);
-                	                    bytesMap.put(basename, fileSize);
-            		                    datasetSize += fileSize;
-        							}
-        							// for inner loop performance
-        							tempFiles.remove(filename);
-        						}
-        						versionMap.put(filename, version);
-        						break;
-        					}
+            FileTagsReader reader = getFilesTagReader(applet, fileUploadListener);
+            if (reader != null) {
+            	try {
+                	while (reader.next()) {
+                        String name = reader.getName();
+                        String filename = tempFiles.get(name);
+        				if (filename != null) {
+    						long fileSize = fileAttributes.length(filename);
+        					String basename = name.substring(dataset.length());
+    	                    int version = reader.getVersion();
+    						if (reader.getChecksum() != null) {
+        						checksumMap.put(basename, reader.getChecksum());
+    						}
+    						if (reader.getCheckPointOffset() != -1) {
+    							long offset = reader.getCheckPointOffset();
+    							if (offset != fileSize) {
+    								// the file is partial uploaded
+    								filesList.add(new FileWrapper(filename, offset, version, fileSize));
+    							} else {
+    								// upload completed for this file
+    								// initialize the tables for upload validation
+            						fileNames.add(basename);
+            	                    bytesMap.put(basename, fileSize);
+        		                    datasetSize += fileSize;
+        		                    if (reader.getBytes() == fileSize) {
+        		                    	validatedFiles.add(basename);
+        		                    }
+    							}
+    							// the file has a check point
+    							tempFiles.remove(name);
+    						}
+    						versionMap.put(filename, version);
         				}
-        			} catch (JSONException e) {
-        				// TODO Auto-generated catch block
-        				e.printStackTrace();
-        			}
-                }
+                	}
+    			} catch (Exception e) {
+    				// a failed page leaves the listing incomplete; the files would be uploaded again
+    				e.printStackTrace();
+    				throw new FatalException(e);
+    			} finally {
+    				reader.close();
+    			}
             }
         }
 
         // add the rest of the files without check points
-        for (String filename : tempFiles) {
+        for (String filename : tempFiles.values()) {
         	int version = 0;
         	if (versionMap.get(filename) != null) {
         		version = versionMap.get(filename);
         	}
-			filesList.add(new FileWrapper(filename, 0, version, (new File(filename)).length()));
+			filesList.add(new FileWrapper(filename, 0, version, fileAttributes.length(filename)));
         }
         
         // update the tables for the files that will be upload
         for (FileWrapper fileWrapper : filesList) {
         	String filename = fileWrapper.getName();
-        	File file = new File(filename);
+        	FileAttributesCache.Attributes file = fileAttributes.get(filename);
             if (file.exists() && file.canRead()) {
                 if (file.isFile()) {
                     long fileSize = file.length();
@@ -295,6 +346,83 @@ public class FileUploadImplementation extends AbstractFileTransferSession
         return filesList;
     }
 
+    /**
+     * Clears the tables used for the upload validation.
+     */
+    private void clearFileTables() {
+        // the versions stay in their map, as they are keyed by the local file paths
+        newFileTable();
+        datasetSize = 0;
+        synchronized (validatedFiles) {
+        	validatedFiles.clear();
+        }
+    }
+
+    /**
+     * Checks if the files are uploaded while the selected directories are scanned.
+     * The resume, the pre-hash and the deduplication need all the files before the upload starts.
+     * 
+     * @param files
+     *            the selected files and directories.
+     * @return true if a directory is selected and the upload can start during its scan
+     */
+    private boolean isStreamed(List<String> files) {
+        if (target.equals(RESUME_TARGET) || 
+        		(enableChecksum && TagFilerProperties.getProperty("tagfiler.checksum.prehash", false)) ||
+        		(enableChecksum && TagFilerProperties.getProperty("tagfiler.upload.dedup", false))) {
+        	return false;
+        }
+        for (String filename : files) {
+        	if (new File(filename).isDirectory()) {
+        		return true;
+        	}
+        }
+        return false;
+    }
+
+    /**
+     * Scans in parallel the selected directories.
+     * 
+     * @param files
+     *            the selected files and directories.
+     * @return the sorted list of the selected files and of the files found in the directories
+     */
+    private List<String> scanFiles(List<String> files) {
+        if (files == null) throw new IllegalArgumentException(""+files);
+        final List<String> found = new ArrayList<String>();
+        DirectoryScanner scanner = new DirectoryScanner(
+        		(int) TagFilerProperties.getProperty("tagfiler.scan.threads", 4L),
+        		new DirectoryScanner.FileHandler() {
+        			public void fileFound(String path, long length) {
+        				// the attributes are reused by the upload
+        				fileAttributes.put(path, length);
+        				synchronized (found) {
+        					found.add(path);
+        				}
+        			}
+        		});
+        scanner.scan(toFiles(files));
+        
+        // the scanner threads discover the files in any order
+        Collections.sort(found);
+        return found;
+    }
+
+    /**
+     * Converts a list of file names to files.
+     * 
+     * @param files
+     *            the file names.
+     * @return the files
+     */
+    private File[] toFiles(List<String> files) {
+        File result[] = new File[files.size()];
+        for (int i = 0; i < result.length; i++) {
+        	result[i] = new File(files.get(i));
+        }
+        return result;
+    }
+
     /**
      * Uploads a set of given files with a specified dataset name.
      * 
@@ -315,7 +443,35 @@ public class FileUploadImplementation extends AbstractFileTransferSession
         fileUploadListener
                 .notifyLogMessage("Computing size and checksum of files...");
         try {
-        	List<FileWrapper> filesList = buildTotalSize(files);
+        	// upload once the content shared by several files
+        	duplicates.clear();
+        	uploadedContents.clear();
+        	existingContents.clear();
+        	
+        	List<FileWrapper> filesList = null;
+        	boolean streamed = isStreamed(files);
+        	if (streamed) {
+        		// the files are queued for upload while the directories are scanned
+        		filesList = new ArrayList<FileWrapper>();
+        		clearFileTables();
+        	} else {
+        		files = scanFiles(files);
+        		addFilesToList(files);
+        		filesList = buildTotalSize(files);
+        	}
+        	
+        	// hash in parallel the files into the checksum cache, where the transfer finds their checksums
+        	ChecksumCache checksumCache = ChecksumCache.getDefault();
+        	if (enableChecksum && checksumCache != null && TagFilerProperties.getProperty("tagfiler.checksum.prehash", false)) {
+        		long t0 = System.currentTimeMillis();
+        		int hashed = FileHasher.digest(filesList, digestProvider, 
+        				(int) TagFilerProperties.getProperty("tagfiler.checksum.threads", 0L), checksumCache);
+        		System.out.println("Pre-hash: " + hashed + " file(s) hashed in " + (System.currentTimeMillis() - t0) + " ms.");
+        	}
+        	
+        	if (enableChecksum && TagFilerProperties.getProperty("tagfiler.upload.dedup", false)) {
+        		filesList = deduplicate(filesList);
+        	}
         	
         	// get the total size of the files that will be uploaded
         	long totalSize = 0;
@@ -330,6 +486,11 @@ public class FileUploadImplementation extends AbstractFileTransferSession
         		}
         	}
             fileUploadListener.notifyStart(dataset, totalSize);
+            if (!streamed) {
+            	for (String filename : files) {
+            		fileUploadListener.notifyFileQueued(filename, 0);
+            	}
+            }
             fileUploadListener.notifyLogMessage(uploadSize
                     + " total bytes will be transferred\n"+totalSize+ " total bytes in the progress bar");
 
@@ -342,13 +503,39 @@ public class FileUploadImplementation extends AbstractFileTransferSession
             if (!((AbstractTagFilerApplet) applet).allowChunksTransfering()) {
                 ClientUtils.disableExpirationWarning(applet);
             }
-            if (filesList.size() > 0) {
+            if (streamed) {
+            	t2 = System.currentTimeMillis();
+            	files = postDirectoriesHelper(files);
+            	uploadSize = datasetSize;
+            	addFilesToList(files);
+            	synchronized (lock) {
+            		while (!transferEnded && !cancel) {
+            			lock.wait();
+            		}
+            	}
+            	success = !cancel;
+            } else if (filesList.size() > 0) {
                 synchronized (lock) {
             	    success = postFileDataHelper(filesList);
                     t2 = System.currentTimeMillis();
             	    lock.wait();
                 }
             }
+            if (!cancel && duplicates.size() > 0) {
+            	if (filesList.size() == 0) {
+            		// all the files reference existing content
+            		success = true;
+            	}
+            	List<FileWrapper> copyFailures = copyDuplicates();
+            	if (copyFailures.size() > 0) {
+            		// the server did not accept the references; upload the content of these files
+            		System.out.println(copyFailures.size() + " duplicate file(s) will be uploaded.");
+            		synchronized (lock) {
+            			success = postFileDataHelper(copyFailures);
+            			lock.wait();
+            		}
+            	}
+            }
             if (cancel) {
             	success = false;
             	return success;
@@ -447,38 +634,48 @@ public class FileUploadImplementation extends AbstractFileTransferSession
             }
             
             // Register the dataset files
+            // the files are registered in batches, each body being encoded while it is sent
             datasetURLQuery = DatasetUtils
             	.getDatasetURLUploadQuery(dataset, datasetVersion, tagFilerServerURL, null);
-            datasetBody = DatasetUtils.getDatasetURLUploadBody(
-            		dataset, tagFilerServerURL, files, versionMap, baseDirectory);
+            int batch = (int) TagFilerProperties.getProperty("tagfiler.register.batch", 0L);
+            if (batch <= 0) {
+            	batch = Math.max(1, files.size());
+            }
             
             fileUploadListener.notifyLogMessage("Registering dataset files.");
             fileUploadListener.notifyLogMessage("Query: " + datasetURLQuery
-                    + "\nBody: " + datasetBody);
+                    + "\nBody: " + files.size() + " file(s) in batches of " + batch + " file(s)");
             
+            int status = -1;
+            String errMsg = null;
+            int first = 0;
             t1 = System.currentTimeMillis();
-            response = client.putFileData(datasetURLQuery, datasetBody, cookie);
+            do {
+            	List<String> batchFiles = files.subList(first, Math.min(files.size(), first + batch));
+            	first += batch;
+                response = client.putDatasetFiles(datasetURLQuery, dataset, baseDirectory, batchFiles, versionMap, cookie);
+                if (response == null) {
+                	ArrayList<String> errMsgs = new ArrayList<String>();
+                	errMsgs.add(client.getReason());
+                	errMsgs.add("Can not register the files for the dataset \"" + dataset + "\".");
+                	errMsgs.add(TagFilerProperties.getProperty("tagfiler.connection.lost"));
+                	fileUploadListener.notifyLogMessage(DatasetUtils.join(errMsgs, "\n"));
+                	throw new FatalException(DatasetUtils.join(errMsgs, "<br/>"));
+                }
+                
+                synchronized (this) {
+                    cookie = client.updateSessionCookie(applet, cookie);
+                }
+
+                // successful tagfiler POST issues 303 redirect to result page
+                status = response.getStatus();
+                success = (200 == status || 303 == status);
+                errMsg = "<p>Can not register the dataset files.<p>Status ";
+                errMsg += (status == 200) ? "" : ConcurrentJakartaClient.getStatusMessage(response);
+            	response.release();
+            } while (success && first < files.size());
             t2 = System.currentTimeMillis();
             System.out.println("Elapsed time: " + (t2-t1) + " ms.");
-            if (response == null) {
-            	ArrayList<String> errMsg = new ArrayList<String>();
-            	errMsg.add(client.getReason());
-            	errMsg.add("Can not register the files for the dataset \"" + dataset + "\".");
-            	errMsg.add(TagFilerProperties.getProperty("tagfiler.connection.lost"));
-            	fileUploadListener.notifyLogMessage(DatasetUtils.join(errMsg, "\n"));
-            	throw new FatalException(DatasetUtils.join(errMsg, "<br/>"));
-            }
-            
-            synchronized (this) {
-                cookie = client.updateSessionCookie(applet, cookie);
-            }
-
-            // successful tagfiler POST issues 303 redirect to result page
-            int status = response.getStatus();
-            success = (200 == status || 303 == status);
-            String errMsg = "<p>Can not register the dataset files.<p>Status ";
-            errMsg += (status == 200) ? "" : ConcurrentJakartaClient.getStatusMessage(response);
-        	response.release();
             if (success) {
                 datasetURLQuery = DatasetUtils
             		.getDatasetURLUploadQuery(dataset, datasetVersion, tagFilerServerURL, TagFilerProperties.getProperty("tagfiler.tag.incomplete"));
@@ -546,6 +743,10 @@ public class FileUploadImplementation extends AbstractFileTransferSession
                 System.out.println("Total files: " + files.size());
                 System.out.println("Total bytes: " + uploadSize);
                 System.out.println("Total upload requests: " + sentRequests);
+                System.out.println("Failed attempts: " + client.getRetryStatistics());
+                System.out.println("File attributes: " + fileAttributes.getStatistics());
+                System.out.println("Metadata cache: " + getMetadataCacheStatistics());
+                System.out.println("Checksum cache: " + getChecksumCacheStatistics());
                 System.out.println("Upload time: " + uploadTime + " ms");
                 System.out.println("Upload rate: [" + uploadRate + " MB/sec, " + fileRate + " files/sec, " + requestRate + " requests/sec, " + (uploadSize/files.size()) + " bytes/file]");
         		fileUploadListener.notifySuccess(dataset, datasetVersion);
@@ -568,65 +769,297 @@ public class FileUploadImplementation extends AbstractFileTransferSession
         return success;
     }
 
+    /**
+     * Group the files by checksum and keep for upload a single file of each content.
+     * The rest of the files, as well as the files whose content exists on the server, 
+     * will reference the uploaded content.
+     * 
+     * @param filesList
+     *            the files to be uploaded
+     * @return the files whose content will be uploaded
+     */
+    private List<FileWrapper> deduplicate(List<FileWrapper> filesList) {
+    	long t0 = System.currentTimeMillis();
+    	
+    	// the partially uploaded and the empty files are not deduplicated
+    	List<FileWrapper> candidates = new ArrayList<FileWrapper>();
+    	for (FileWrapper fileWrapper : filesList) {
+    		if (fileWrapper.getOffset() == 0 && fileWrapper.getFileLength() > 0) {
+    			candidates.add(fileWrapper);
+    		}
+    	}
+    	Map<String, String> digests = FileHasher.getDigests(candidates, digestProvider, 
+    			(int) TagFilerProperties.getProperty("tagfiler.checksum.threads", 0L), ChecksumCache.getDefault());
+    	
+    	// the first file of each content is uploaded
+    	List<FileWrapper> uniqueFiles = new ArrayList<FileWrapper>();
+    	for (FileWrapper fileWrapper : candidates) {
+    		String checksum = digests.get(fileWrapper.getName());
+    		if (checksum == null) {
+    			// the file can not be read; the upload reports it
+    			continue;
+    		}
+    		if (uploadedContents.containsKey(checksum)) {
+    			duplicates.put(fileWrapper, checksum);
+    		} else {
+    			uploadedContents.put(checksum, fileWrapper.getName());
+    			uniqueFiles.add(fileWrapper);
+    		}
+    	}
+    	
+    	// look up the content already on the server
+    	if (TagFilerProperties.getProperty("tagfiler.upload.dedup.remote", false)) {
+    		findExistingContents(uniqueFiles, digests);
+    		for (FileWrapper fileWrapper : uniqueFiles) {
+    			String checksum = digests.get(fileWrapper.getName());
+    			if (existingContents.containsKey(checksum)) {
+    				uploadedContents.remove(checksum);
+    				duplicates.put(fileWrapper, checksum);
+    			}
+    		}
+    	}
+    	if (duplicates.size() == 0) {
+    		return filesList;
+    	}
+    	
+    	List<FileWrapper> result = new ArrayList<FileWrapper>();
+    	long bytes = 0;
+    	for (FileWrapper fileWrapper : filesList) {
+    		if (duplicates.containsKey(fileWrapper)) {
+    			bytes += fileWrapper.getFileLength();
+    		} else {
+    			result.add(fileWrapper);
+    		}
+    	}
+    	System.out.println("Deduplication: " + duplicates.size() + " file(s) with " + bytes + " bytes reference " + 
+    			uploadedContents.size() + " uploaded and " + existingContents.size() + " existing content(s), in " + 
+    			(System.currentTimeMillis() - t0) + " ms.");
+    	return result;
+    }
+
+    /**
+     * Look up on the server the files versions with the same content as the files to be uploaded
+     * The checksums are sent in batches; a file version matches if both its checksum and bytes match
+     * 
+     * @param files
+     *            the files to be uploaded
+     * @param digests
+     *            the checksums of the files
+     */
+    private void findExistingContents(List<FileWrapper> files, Map<String, String> digests) {
+    	HashMap<String, Long> lengths = new HashMap<String, Long>();
+    	List<String> checksums = new ArrayList<String>();
+    	for (FileWrapper fileWrapper : files) {
+    		String checksum = digests.get(fileWrapper.getName());
+    		lengths.put(checksum, fileWrapper.getFileLength());
+    		checksums.add(checksum);
+    	}
+    	String tags = DatasetUtils.joinEncode(new String[] {VNAME, SHA256SUM, BYTES}, ";");
+    	for (int first = 0; first < checksums.size(); first += DEDUP_QUERY_BATCH) {
+    		List<String> batch = checksums.subList(first, Math.min(first + DEDUP_QUERY_BATCH, checksums.size()));
+    		ClientURLResponse response = null;
+    		try {
+    			String query = DatasetUtils.getFilesByChecksum(tagFilerServerURL, 
+    					TagFilerProperties.getProperty("tagfiler.tag.checksum"), batch, tags);
+    			response = client.getTagsValues(query, cookie);
+    			if (response == null || response.getStatus() != 200) {
+    				// the content will be uploaded
+    				System.out.println("Can not look up the existing content: " + (response == null ? client.getReason() : 
+    					ConcurrentJakartaClient.getStatusMessage(response)));
+    				continue;
+    			}
+    			synchronized (this) {
+    				cookie = client.updateSessionCookie(applet, cookie);
+    			}
+    			JSONArrayReader reader = new JSONArrayReader(response.getEntityInputStream());
+    			try {
+    				JSONObject obj;
+    				while ((obj = reader.next()) != null) {
+    					if (obj.isNull(VNAME) || obj.isNull(SHA256SUM) || obj.isNull(BYTES)) {
+    						continue;
+    					}
+    					String checksum = obj.getString(SHA256SUM);
+    					Long length = lengths.get(checksum);
+    					if (length != null && length == obj.getLong(BYTES) && !existingContents.containsKey(checksum)) {
+    						existingContents.put(checksum, obj.getString(VNAME));
+    					}
+    				}
+    			} finally {
+    				reader.close();
+    			}
+    		} catch (Exception e) {
+    			// the content will be uploaded
+    			e.printStackTrace();
+    		} finally {
+    			if (response != null) {
+    				response.release();
+    			}
+    		}
+    	}
+    }
+
+    /**
+     * Create the duplicate files as references to the uploaded or the existing content
+     * The references are created in parallel
+     * 
+     * @return the duplicate files that were not created and must be uploaded
+     */
+    private List<FileWrapper> copyDuplicates() throws FatalException {
+    	long t0 = System.currentTimeMillis();
+    	final List<FileWrapper> failures = new ArrayList<FileWrapper>();
+    	final String baseURL = DatasetUtils.getBaseUploadQuery(dataset, tagFilerServerURL);
+    	int threads = Math.max(1, Math.min(((AbstractTagFilerApplet) applet).getMaxConnections(), duplicates.size()));
+    	ExecutorService executor = Executors.newFixedThreadPool(threads);
+    	for (Map.Entry<FileWrapper, String> entry : duplicates.entrySet()) {
+    		final FileWrapper fileWrapper = entry.getKey();
+    		final String checksum = entry.getValue();
+    		
+    		// the file version with the content
+    		String vname = existingContents.get(checksum);
+    		if (vname == null) {
+    			String source = uploadedContents.get(checksum);
+    			Integer version = null;
+    			synchronized (versionMap) {
+    				version = versionMap.get(source);
+    			}
+    			if (version == null || version == 0) {
+    				// the content was not uploaded
+    				synchronized (failures) {
+        				failures.add(fileWrapper);
+    				}
+    				continue;
+    			}
+    			vname = dataset + DatasetUtils.getBaseName(source, baseDirectory) + "@" + version;
+    		}
+    		final String sourceVersion = vname;
+    		executor.execute(new Runnable() {
+    			public void run() {
+    				String basename = DatasetUtils.getBaseName(fileWrapper.getName(), baseDirectory);
+    				ClientURLResponse response = null;
+    				try {
+    					int index = sourceVersion.lastIndexOf("@");
+    					String url = DatasetUtils.getDatasetUrl(sourceVersion.substring(0, index), 
+    							Integer.parseInt(sourceVersion.substring(index + 1)), tagFilerServerURL);
+    					String destination = DatasetUtils.getCopyDestination(baseURL, basename, fileWrapper.getFileLength(), checksum);
+    					response = client.copyFile(url, destination, getCookie());
+    					if (response != null && (201 == response.getStatus() || 204 == response.getStatus())) {
+    						int version = DatasetUtils.getVersion(response.getLocationString());
+    						synchronized (versionMap) {
+    							versionMap.put(fileWrapper.getName(), version);
+    						}
+    						checksumMap.put(basename, checksum);
+    						return;
+    					}
+    					System.out.println("Can not reference the content of \"" + sourceVersion + "\" from \"" + basename + "\": " + 
+    							(response == null ? client.getReason() : ConcurrentJakartaClient.getStatusMessage(response)));
+    				} catch (UnsupportedEncodingException e) {
+    					// TODO Auto-generated catch block
+    					e.printStackTrace();
+    				} catch (FatalException e) {
+    					// TODO Auto-generated catch block
+    					e.printStackTrace();
+    				} finally {
+    					if (response != null) {
+    						response.release();
+    					}
+    				}
+    				synchronized (failures) {
+    					failures.add(fileWrapper);
+    				}
+    			}
+    		});
+    	}
+    	executor.shutdown();
+    	try {
+    		executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    	} catch (InterruptedException e) {
+    		// TODO Auto-generated catch block
+    		e.printStackTrace();
+    	}
+    	synchronized (this) {
+    		cookie = client.updateSessionCookie(applet, cookie);
+    	}
+    	System.out.println("Deduplication: " + (duplicates.size() - failures.size()) + " reference(s) created in " + 
+    			(System.currentTimeMillis() - t0) + " ms.");
+    	return failures;
+    }
+
     /**
      * Gets the files to be downloaded.
      */
     private boolean checkDataSet() throws Exception {
         boolean result = false;
 
+        // the files not validated during the upload
+        HashSet<String> pending = new HashSet<String>(fileNames);
+        synchronized (validatedFiles) {
+        	for (String file : validatedFiles) {
+        		if (!enableChecksum || checksumMap.get(file) != null) {
+        			pending.remove(file);
+        		}
+        	}
+        }
+        if (pending.size() == 0) {
+        	System.out.println("All the " + fileNames.size() + " file(s) were validated during the upload.");
+        	return true;
+        }
+        System.out.println(pending.size() + " file(s) of " + fileNames.size() + " to be validated from the files tags.");
+        HashSet<String> names = new HashSet<String>(fileNames);
+        
+    	// get the "bytes" and "sha256sum" tags of the files
+        FileTagsReader reader = getFilesTagReader(applet, fileUploadListener);
+    	if (reader == null) {
+    		System.out.println("The files tags reader is NULL");
+    		return result;
+    	}
         try {
-        	// get the "bytes" and "sha256sum" tags of the files
-        	JSONArray tagsValues = getFilesTagValues(applet, fileUploadListener);
-        	if (tagsValues != null) {
-            	if (fileNames.size() != tagsValues.length()) {
-            		System.out.println("fileNames.size(): " + fileNames.size() + " is different from tagsValues.length(): " + tagsValues.length() +".");
-            		return result;
-            	}
-        		for (int i=0; i < tagsValues.length(); i++) {
-        			JSONObject fileTags = tagsValues.getJSONObject(i);
-        			
-                    // get the file name
-                    String file = fileTags.getString(NAME).substring(dataset.length());
-                    if (!fileNames.remove(file)) {
-                		System.out.println("file: \"" + file + "\" not found in fileNames.");
-                    	return result;
-                    }
+        	// each record is checked while the listing is read
+        	while (reader.next()) {
+                // get the file name
+                String file = reader.getName().substring(dataset.length());
+                if (!names.contains(file)) {
+            		System.out.println("file: \"" + file + "\" not found in fileNames.");
+                	return result;
+                }
+                if (!pending.remove(file)) {
+                	// the file was validated during the upload
+                	continue;
+                }
 
-                    // get the bytes
-                    long bytes = fileTags.getLong(BYTES);
-                    Long size = bytesMap.remove(file);
-                    if (size == null || size != bytes) {
-                    	System.out.println("file: \"" + file + "\" size is: " + size + ", bytes: " + bytes + ".");
+                // get the bytes
+                long bytes = reader.getBytes();
+                Long size = bytesMap.get(file);
+                if (size == null || size != bytes) {
+                	System.out.println("file: \"" + file + "\" size is: " + size + ", bytes: " + bytes + ".");
+                	return result;
+                }
+                
+                if (enableChecksum) {
+                	String checksum = reader.getChecksum();
+                	if (checksum == null) {
+                		System.out.println("file: \"" + file + "\" SHA256SUM is NULL.");
+                		return result;
+                	}
+                    String cksum = checksumMap.get(file);
+                    if (!checksum.equals(cksum)) {
+                    	System.out.println("file: \"" + file + "\" checksum tag: " + checksum + ",  checksum file: " + cksum + ".");
                     	return result;
                     }
-                    
-                    if (enableChecksum) {
-                    	if (fileTags.isNull(SHA256SUM)) {
-                    		System.out.println("file: \"" + file + "\" SHA256SUM is NULL.");
-                    		return result;
-                    	}
-                        String checksum = fileTags.getString(SHA256SUM);
-                        String cksum = checksumMap.remove(file);
-                        if (!checksum.equals(cksum)) {
-                        	System.out.println("file: \"" + file + "\" checksum tag: " + checksum + ",  checksum file: " + cksum + ".");
-                        	return result;
-                        }
-                    }
-        		}
-        		if (fileNames.size() != 0) {
-        			System.out.println("Files not uploaded:");
-        			for (String file : fileNames) {
-        				System.out.println("\t" + file);
-        			}
-        			return result;
-        		}
-                result = true;
-        	} else {
-        		System.out.println("JSONArray tagsValues is NULL");
-        	}
+                }
+    		}
+    		if (pending.size() != 0) {
+    			System.out.println("Files not uploaded:");
+    			for (String file : pending) {
+    				System.out.println("\t" + file);
+    			}
+    			return result;
+    		}
+            result = true;
         } catch (Exception e) {
             e.printStackTrace();
             fileUploadListener.notifyError(e);
+        } finally {
+        	reader.close();
         }
 
         return result;
@@ -650,6 +1083,45 @@ public class FileUploadImplementation extends AbstractFileTransferSession
         return true;
     }
 
+    /**
+     * Helper method for transferring the files of directories while they are scanned.
+     * 
+     * @param files
+     *            the selected files and directories
+     * @return the sorted list of the transferred files
+     * @throws FatalException
+     *             if an error occurred in one of the file transfers
+     */
+    private List<String> postDirectoriesHelper(List<String> files)
+            throws FatalException {
+        if (files == null) throw new IllegalArgumentException(""+files);
+
+        final List<String> found = new ArrayList<String>();
+        synchronized (lock) {
+        	transferEnded = false;
+        }
+        client.setBaseURL(DatasetUtils.getBaseUploadQuery(dataset, tagFilerServerURL));
+        client.uploadDirectory(toFiles(files), baseDirectory, checksumMap, versionMap, 
+        		new DirectoryScanner.FileHandler() {
+        			public void fileFound(String path, long length) {
+        				fileAttributes.put(path, length);
+        				String basename = DatasetUtils.getBaseName(path, baseDirectory);
+        				synchronized (found) {
+        					found.add(path);
+        					bytesMap.put(basename, length);
+        					fileNames.add(basename);
+        					datasetSize += length;
+        				}
+        				// checksum can not be resumed - so it will be applied to the entire file
+        				fileUploadListener.notifyFileQueued(path, enableChecksum ? 2 * length : length);
+        			}
+        		});
+        
+        // the scanner threads discover the files in any order
+        Collections.sort(found);
+        return found;
+    }
+
     /**
      * Callback to get the cookie.
      * 
@@ -685,6 +1157,16 @@ public class FileUploadImplementation extends AbstractFileTransferSession
 		fileUploadListener.notifyFailure(dataset, err);
 	}
 
+	/**
+	 * Callback to log a message of the client
+	 * 
+	 * @param message
+	 *            the message to be logged
+	 */
+	public void notifyLogMessage(String message) {
+		fileUploadListener.notifyLogMessage(message);
+	}
+
 	/**
 	 * Callback to notify a failure during the upload/download process
 	 * 
@@ -733,6 +1215,27 @@ public class FileUploadImplementation extends AbstractFileTransferSession
 		fileUploadListener.notifyChunkTransfered(true, size);
 	}
 
+	/**
+	 * Callback to notify that the server reported the stored bytes of an uploaded file
+	 * The file is validated while the upload continues; the rest of the files are checked from the listing
+	 * 
+	 * @param filename
+	 *            the file name
+	 * @param length
+	 *            the file length reported by the server
+	 */
+	public void notifyFileAcknowledged(String filename, long length) {
+		String basename = DatasetUtils.getBaseName(filename, baseDirectory);
+		Long size = bytesMap.get(basename);
+		if (size != null && size == length) {
+			synchronized (validatedFiles) {
+				validatedFiles.add(basename);
+			}
+		} else {
+			System.out.println("file: \"" + basename + "\" size is: " + size + ", acknowledged bytes: " + length + ".");
+		}
+	}
+
 	/**
 	 * Callback to notify success for the entire upload/download process
 	 * 
@@ -740,6 +1243,7 @@ public class FileUploadImplementation extends AbstractFileTransferSession
 	public void notifySuccess() {
 		// TODO Auto-generated method stub
 		synchronized (lock) {
+			transferEnded = true;
 			lock.notifyAll();
 		}
 	}
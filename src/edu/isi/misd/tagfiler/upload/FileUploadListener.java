@@ -45,4 +45,13 @@ public interface FileUploadListener extends FileListener {
      */
     public void notifyFailure(String datasetName, String err);
 
+    /**
+     * Called when a file is added to the upload
+     * @param filename
+     *            the file to be uploaded.
+     * @param size
+     *            the number of bytes added to the progress bar.
+     */
+    public void notifyFileQueued(String filename, long size);
+
 }
@@ -0,0 +1,311 @@
+package edu.isi.misd.tagfiler.util;
+
+/* 
+ * Copyright 2010 University of Southern California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Persistent cache of the checksums of the local files.
+ * A checksum is reused while the file has the same path, size and modification time.
+ * The size and modification time are read before the checksum is computed, and the checksum is stored
+ * only if they did not change meanwhile and the modification time is not within the timestamps granularity
+ * of the current time; otherwise a later change of the file could keep the same size and modification time.
+ * The cache is a text file with a line per computed checksum; 
+ * the lines are appended as the checksums are computed and the file is compacted when it is loaded.
+ *
+ * @author agent
+ *
+ */
+public class ChecksumCache {
+
+	// the minimum number of stale lines for compacting the cache file
+	private static final int COMPACT_THRESHOLD = 1000;
+
+	// the granularity of the files modification time, in milliseconds (2 seconds on FAT)
+	private static final long TIMESTAMP_GRANULARITY = 2000;
+
+	// the cache of the user
+	private static ChecksumCache defaultCache;
+
+	// true if the cache of the user was created
+	private static boolean initialized;
+
+	/**
+	 * The checksum of a file
+	 *
+	 */
+	private static class Entry {
+
+	    // the digest algorithm
+		String algorithm;
+
+	    // the file length when the checksum was computed
+		long length;
+
+	    // the file modification time when the checksum was computed
+		long lastModified;
+
+	    // the hexa checksum
+		String digest;
+	}
+
+	/**
+	 * The size and modification time of a file, read before its checksum is computed
+	 *
+	 */
+	public static class Stamp {
+
+	    // the file length
+		private long length;
+
+	    // the file modification time
+		private long lastModified;
+	}
+
+    // the cache file
+	private File file;
+
+    // the checksums by file path
+	private HashMap<String, Entry> entries = new HashMap<String, Entry>();
+
+    // the writer appending the new checksums
+	private Writer writer;
+
+	// the number of checksums reused
+	private int hits;
+
+	// the number of checksums computed
+	private int stores;
+
+    /**
+     * Get the checksum cache of the user
+     *
+     * @return the cache or null if the cache is disabled
+     */
+	public static synchronized ChecksumCache getDefault() {
+		if (!initialized) {
+			initialized = true;
+			if (TagFilerProperties.getProperty("tagfiler.cache.checksum", false)) {
+				String name = TagFilerProperties.getProperty("tagfiler.cache.checksum.file");
+				if (name == null || name.trim().length() == 0) {
+					name = System.getProperty("user.home") + File.separator + ".tagfiler" + File.separator + "checksums";
+				}
+				defaultCache = new ChecksumCache(new File(name));
+			}
+		}
+		return defaultCache;
+	}
+
+    /**
+     * Constructor
+     *
+     * @param file
+     *            the cache file; it is created if it does not exist
+     */
+	public ChecksumCache(File file) {
+        if (file == null) throw new IllegalArgumentException("file");
+		this.file = file;
+		load();
+	}
+
+    /**
+     * Get the checksum of a file
+     *
+     * @param localFile
+     *            the local file
+     * @param algorithm
+     *            the digest algorithm
+     * @return the hexa checksum or null if the file changed since its checksum was computed
+     */
+	public String get(File localFile, String algorithm) {
+		String path = localFile.getAbsolutePath();
+		long length = localFile.length();
+		long lastModified = localFile.lastModified();
+		synchronized (this) {
+			Entry entry = entries.get(path);
+			if (entry == null || lastModified == 0 || !entry.algorithm.equals(algorithm) || 
+					entry.length != length || entry.lastModified != lastModified) {
+				return null;
+			}
+			hits++;
+			return entry.digest;
+		}
+	}
+
+    /**
+     * Read the size and modification time of a file before computing its checksum
+     *
+     * @param localFile
+     *            the local file
+     * @return the stamp of the file or null if the file does not exist
+     */
+	public static Stamp stamp(File localFile) {
+		Stamp stamp = new Stamp();
+		stamp.lastModified = localFile.lastModified();
+		stamp.length = localFile.length();
+		return stamp.lastModified == 0 ? null : stamp;
+	}
+
+    /**
+     * Store the checksum of a file
+     * The checksum is not stored if the file changed since it was stamped or if it was modified too recently
+     *
+     * @param localFile
+     *            the local file
+     * @param stamp
+     *            the stamp of the file read before the checksum was computed
+     * @param algorithm
+     *            the digest algorithm
+     * @param digest
+     *            the hexa checksum
+     * @return true if the checksum was stored
+     */
+	public boolean put(File localFile, Stamp stamp, String algorithm, String digest) {
+        if (algorithm == null || digest == null) throw new IllegalArgumentException(""+algorithm+", "+digest);
+		if (stamp == null || localFile.length() != stamp.length || localFile.lastModified() != stamp.lastModified) {
+			// the file does not exist or it changed while its checksum was computed
+			return false;
+		}
+		if (Math.abs(System.currentTimeMillis() - stamp.lastModified) < TIMESTAMP_GRANULARITY) {
+			// a change within the same timestamp would not be detected
+			return false;
+		}
+		Entry entry = new Entry();
+		entry.algorithm = algorithm;
+		entry.length = stamp.length;
+		entry.lastModified = stamp.lastModified;
+		entry.digest = digest;
+		String path = localFile.getAbsolutePath();
+		synchronized (this) {
+			entries.put(path, entry);
+			stores++;
+			if (writer != null) {
+				try {
+					writer.write(format(path, entry));
+					writer.flush();
+				} catch (IOException e) {
+					// TODO Auto-generated catch block
+					e.printStackTrace();
+					close();
+				}
+			}
+		}
+		return true;
+	}
+
+    /**
+     * Get the statistics of the cache
+     *
+     * @return the number of reused and computed checksums
+     */
+	public synchronized String getStatistics() {
+		return hits + " checksum(s) reused, " + stores + " checksum(s) stored";
+	}
+
+    /**
+     * Close the cache file
+     */
+	public synchronized void close() {
+		if (writer != null) {
+			try {
+				writer.close();
+			} catch (IOException e) {
+				// TODO Auto-generated catch block
+				e.printStackTrace();
+			}
+			writer = null;
+		}
+	}
+
+    /**
+     * Load the cache file and open it for appending the new checksums
+     */
+	private void load() {
+		int lines = 0;
+		if (file.isFile()) {
+			try {
+				BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+				try {
+					String line;
+					while ((line = reader.readLine()) != null) {
+						// algorithm, length, modification time, digest, path
+						String values[] = line.split("\t", 5);
+						if (values.length != 5) {
+							continue;
+						}
+						try {
+							Entry entry = new Entry();
+							entry.algorithm = values[0];
+							entry.length = Long.parseLong(values[1]);
+							entry.lastModified = Long.parseLong(values[2]);
+							entry.digest = values[3];
+							entries.put(values[4], entry);
+							lines++;
+						} catch (NumberFormatException e) {
+							// skip a corrupted line
+						}
+					}
+				} finally {
+					reader.close();
+				}
+			} catch (IOException e) {
+				// TODO Auto-generated catch block
+				e.printStackTrace();
+			}
+		}
+		try {
+			file.getParentFile().mkdirs();
+			boolean compact = lines - entries.size() > Math.max(COMPACT_THRESHOLD, entries.size());
+			if (compact) {
+				// rewrite only the last checksum of each file
+				File temp = new File(file.getPath() + ".tmp");
+				Writer out = new OutputStreamWriter(new FileOutputStream(temp), "UTF-8");
+				try {
+					for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+						out.write(format(entry.getKey(), entry.getValue()));
+					}
+				} finally {
+					out.close();
+				}
+				if (!file.delete() || !temp.renameTo(file)) {
+					temp.delete();
+				}
+			}
+			writer = new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8");
+		} catch (IOException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+			writer = null;
+		}
+	}
+
+    /**
+     * Format the line of a checksum
+     */
+	private static String format(String path, Entry entry) {
+		return entry.algorithm + "\t" + entry.length + "\t" + entry.lastModified + "\t" + entry.digest + "\t" + path + "\n";
+	}
+}
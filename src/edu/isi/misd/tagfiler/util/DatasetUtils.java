@@ -16,15 +16,21 @@ package edu.isi.misd.tagfiler.util;
  * limitations under the License.
  */
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
 import java.net.URLEncoder;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.text.DecimalFormat;
-import java.util.HashSet;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 
+import org.apache.commons.codec.binary.Base64;
+
 import edu.isi.misd.tagfiler.exception.FatalException;
 import edu.isi.misd.tagfiler.ui.CustomTagMap;
 
@@ -77,6 +83,15 @@ public class DatasetUtils {
     
     private static final String LIMIT_NONE = "&limit=none";
     
+    private static final String LIMIT = "&limit=";
+    
+    private static final String OFFSET = "&offset=";
+
+    // the tag of the file size
+    private static final String BYTES = "bytes";
+
+    // the directive sorting the results by a listed tag
+    private static final String SORT_ASCENDING = ":asc:";
 
     /**
      * 
@@ -324,6 +339,36 @@ public class DatasetUtils {
         return restURL.toString();
     }
 
+    /**
+     * Get the Destination of a file version created by copying the content of another one
+     * The destination sets the tags of a completed upload: the size, the check point offset and the checksum
+     * 
+     * @param baseURL
+     *            the Base URL for uploading the dataset
+     * @param basename
+     *            the file name relative to the dataset
+     * @param length
+     *            the file length
+     * @param checksum
+     *            the file checksum or null
+     * @return the URL of the file to be created
+     * @throws FatalException if the URL cannot be constructed
+     */
+    public static final String getCopyDestination(String baseURL, String basename, long length, String checksum) throws FatalException {
+    	try {
+    		StringBuffer destination = new StringBuffer(baseURL)
+    			.append(DatasetUtils.urlEncode(basename))
+    			.append(getUploadQueryCheckPoint(length))
+    			.append(getUploadQuerySuffix(BYTES, "" + length));
+    		if (checksum != null) {
+    			destination.append(getUploadQuerySuffix(TagFilerProperties.getProperty("tagfiler.tag.checksum"), checksum));
+    		}
+    		return destination.toString();
+    	} catch (UnsupportedEncodingException e) {
+    		throw new FatalException(e);
+    	}
+    }
+
     /**
      * 
      * @param datasetName
@@ -386,39 +431,28 @@ public class DatasetUtils {
      * 
      * @param datasetName
      *            name of the dataset
-     * @param tagFilerServer
-     *            tagfiler server URL
-     * @param files
-     *            the list of files to be registered
-     * @param versionMap
-     *            the files versions map
      * @param baseDirectory
      *            the base directory of the files
-     * @return URL for querying for all the files in a dataset
+     * @param file
+     *            the file to be registered
+     * @param version
+     *            the file version
+     * @return the "vcontains" entry of the file for the dataset registration body
      */
-    public static final String getDatasetURLUploadBody(String datasetName,
-            String tagFilerServer, List<String> files,  Map<String, Integer> versionMap,String baseDirectory) {
-        if (datasetName == null || datasetName.length() == 0 ||
-        		tagFilerServer == null || tagFilerServer.length() == 0) 
-        	throw new IllegalArgumentException(""+datasetName+", "+tagFilerServer);
+    public static final String getDatasetFileEntry(String datasetName,
+            String baseDirectory, String file, Integer version) {
+        if (datasetName == null || datasetName.length() == 0 || file == null) 
+        	throw new IllegalArgumentException(""+datasetName+", "+file);
 
-        final StringBuffer restURL = new StringBuffer();
-        HashSet <String> array = new HashSet <String>();
-        for (String file : files) {
-        	StringBuffer buff = new StringBuffer();
-		    buff.append(generateDatasetPath(datasetName, baseDirectory, file)).append("@").append(versionMap.get(file));
-			try {
-				array.add(DatasetUtils.urlEncode(buff.toString()));
-			} catch (UnsupportedEncodingException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-			}
-        }
-        String tags = DatasetUtils.join(array, "&"+VCONTAINS_PROPERTY);
-        if (tags.trim().length() > 0) {
-        	restURL.append(VCONTAINS_PROPERTY);
-        }
-        restURL.append(tags);
+        final StringBuffer restURL = new StringBuffer(VCONTAINS_PROPERTY);
+        StringBuffer buff = new StringBuffer();
+	    buff.append(generateDatasetPath(datasetName, baseDirectory, file)).append("@").append(version);
+		try {
+			restURL.append(DatasetUtils.urlEncode(buff.toString()));
+		} catch (UnsupportedEncodingException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+		}
         return restURL.toString();
     }
 
@@ -513,6 +547,29 @@ public class DatasetUtils {
     public static final String getFilesTags(String datasetName, int version,
             String tagFilerServer, String tags)
             throws UnsupportedEncodingException {
+        return getFilesTags(datasetName, version, tagFilerServer, tags, 0, 0);
+    }
+
+    /**
+     * Get the URL for a page of the files tags
+     * @param datasetName
+     *            name of the dataset
+     * @param version
+     *            the dataset version
+     * @param tagFilerServer
+     *            tagfiler server URL
+     * @param tags
+     *            the list of tags separated by comma
+     * @param limit
+     *            the maximum number of files in the page; 0 for all the files
+     * @param offset
+     *            the number of files skipped before the page
+     * @return the encoded URL for files tags
+     * @throws UnsupportedEncodingException
+     */
+    public static final String getFilesTags(String datasetName, int version,
+            String tagFilerServer, String tags, int limit, long offset)
+            throws UnsupportedEncodingException {
         if (datasetName == null || datasetName.length() == 0 ||
         		tagFilerServer == null || tagFilerServer.length() == 0) 
         	throw new IllegalArgumentException(""+datasetName+", "+tagFilerServer);
@@ -526,7 +583,7 @@ public class DatasetUtils {
                 .append(tags)
                 .append(")")
                 .append(version == 0 ? LATEST_VERSION : ANY_VERSION)
-                .append(LIMIT_NONE);
+                .append(getLimit(limit, offset));
         return restURL.toString();
     }
 
@@ -544,6 +601,27 @@ public class DatasetUtils {
     public static final String getFilesTags(String datasetName,
             String tagFilerServer, String tags)
             throws UnsupportedEncodingException {
+        return getFilesTags(datasetName, tagFilerServer, tags, 0, 0);
+    }
+
+    /**
+     * Get the URL for a page of the files tags
+     * @param datasetName
+     *            name of the dataset
+     * @param tagFilerServer
+     *            tagfiler server URL
+     * @param tags
+     *            the list of tags separated by comma
+     * @param limit
+     *            the maximum number of files in the page; 0 for all the files
+     * @param offset
+     *            the number of files skipped before the page
+     * @return the encoded URL for files tags
+     * @throws UnsupportedEncodingException
+     */
+    public static final String getFilesTags(String datasetName,
+            String tagFilerServer, String tags, int limit, long offset)
+            throws UnsupportedEncodingException {
         if (datasetName == null || datasetName.length() == 0 ||
         		tagFilerServer == null || tagFilerServer.length() == 0) 
         	throw new IllegalArgumentException(""+datasetName+", "+tagFilerServer);
@@ -556,10 +634,217 @@ public class DatasetUtils {
                 .append(tags)
                 .append(")")
                 .append(ANY_VERSION)
+                .append(getLimit(limit, offset));
+        return restURL.toString();
+    }
+
+    /**
+     * Get the query parameters for a page of results
+     * @param limit
+     *            the maximum number of results; 0 for all the results
+     * @param offset
+     *            the number of results skipped before the page
+     * @return the query parameters
+     */
+    private static String getLimit(int limit, long offset) {
+        if (limit <= 0) {
+        	return LIMIT_NONE;
+        }
+        return LIMIT + limit + OFFSET + offset;
+    }
+
+    /**
+     * Get a listed tag sorting the results in ascending order
+     * The results are sorted by the sorted tags in the order they are listed
+     * @param tag
+     *            the tag name
+     * @return the encoded tag with the sort directive
+     */
+    public static String sortAscending(String tag) {
+    	try {
+			return DatasetUtils.urlEncode(tag) + SORT_ASCENDING;
+		} catch (UnsupportedEncodingException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+			return tag + SORT_ASCENDING;
+		}
+    }
+
+    /**
+     * Get the URL for the files versions with the given checksums
+     * @param tagFilerServer
+     *            tagfiler server URL
+     * @param checksumTag
+     *            the name of the checksum tag
+     * @param checksums
+     *            the checksums values
+     * @param tags
+     *            the list of tags separated by comma
+     * @return the encoded URL for the files versions with any of the checksums
+     * @throws UnsupportedEncodingException
+     */
+    public static final String getFilesByChecksum(String tagFilerServer,
+            String checksumTag, List<String> checksums, String tags)
+            throws UnsupportedEncodingException {
+        if (tagFilerServer == null || tagFilerServer.length() == 0 || checksumTag == null ||
+        		checksums == null || checksums.size() == 0 || tags == null) 
+        	throw new IllegalArgumentException(""+tagFilerServer+", "+checksumTag+", "+checksums+", "+tags);
+
+        final StringBuffer restURL = new StringBuffer(tagFilerServer)
+                .append(QUERY_URI)
+                .append(DatasetUtils.urlEncode(checksumTag))
+                .append("=")
+                .append(joinEncode(checksums.toArray(new String[0]), ","))
+                .append("(")
+                .append(tags)
+                .append(")")
+                .append(ANY_VERSION)
                 .append(LIMIT_NONE);
         return restURL.toString();
     }
 
+    /**
+     * Get the URL for a tag of a list of files versions
+     * @param tagFilerServer
+     *            tagfiler server URL
+     * @param vnames
+     *            the files versions (name@version)
+     * @param tag
+     *            the tag name
+     * @return the encoded URL for the tag of the files versions
+     * @throws UnsupportedEncodingException
+     */
+    public static final String getFilesVersionsTag(String tagFilerServer,
+            List<String> vnames, String tag)
+            throws UnsupportedEncodingException {
+        if (tagFilerServer == null || tagFilerServer.length() == 0 ||
+        		vnames == null || vnames.size() == 0 || tag == null) 
+        	throw new IllegalArgumentException(""+tagFilerServer+", "+vnames+", "+tag);
+
+        final StringBuffer restURL = new StringBuffer(tagFilerServer)
+                .append(TAGS_URI)
+                .append(VNAME)
+                .append(joinEncode(vnames.toArray(new String[0]), ","))
+                .append("(")
+                .append(DatasetUtils.urlEncode(tag))
+                .append(")");
+        return restURL.toString();
+    }
+
+    /**
+     * Get the URL for the tags values of a list of files versions
+     * @param tagFilerServer
+     *            tagfiler server URL
+     * @param vnames
+     *            the files versions (name@version)
+     * @param tags
+     *            the encoded list of tags separated by semicolon
+     * @return the encoded URL for the tags values of the files versions
+     * @throws UnsupportedEncodingException
+     */
+    public static final String getFilesVersionsTags(String tagFilerServer,
+            List<String> vnames, String tags)
+            throws UnsupportedEncodingException {
+        if (tagFilerServer == null || tagFilerServer.length() == 0 ||
+        		vnames == null || vnames.size() == 0 || tags == null) 
+        	throw new IllegalArgumentException(""+tagFilerServer+", "+vnames+", "+tags);
+
+        final StringBuffer restURL = new StringBuffer(tagFilerServer)
+                .append(QUERY_URI)
+                .append(VNAME)
+                .append(joinEncode(vnames.toArray(new String[0]), ","))
+                .append("(")
+                .append(tags)
+                .append(")")
+                .append(ANY_VERSION)
+                .append(LIMIT_NONE);
+        return restURL.toString();
+    }
+
+    /**
+     * Split a list of files versions in groups whose tag URL fits in the maximum URL length
+     * A file version whose URL alone exceeds the limit is placed in its own group
+     * @param tagFilerServer
+     *            tagfiler server URL
+     * @param vnames
+     *            the files versions (name@version)
+     * @param tag
+     *            the tag name
+     * @param maxLength
+     *            the maximum length of an encoded URL
+     * @return the groups of files versions, in the list order
+     * @throws UnsupportedEncodingException
+     */
+    public static final List<List<String>> splitFilesVersionsTag(String tagFilerServer,
+            List<String> vnames, String tag, int maxLength)
+            throws UnsupportedEncodingException {
+        if (tagFilerServer == null || tagFilerServer.length() == 0 ||
+        		vnames == null || tag == null) 
+        	throw new IllegalArgumentException(""+tagFilerServer+", "+vnames+", "+tag);
+
+        int prefix = tagFilerServer.length() + TAGS_URI.length() + VNAME.length() + 
+        		DatasetUtils.urlEncode(tag).length() + 2;
+        return splitFilesVersions(vnames, prefix, maxLength);
+    }
+
+    /**
+     * Split a list of files versions in groups whose tags query URL fits in the maximum URL length
+     * A file version whose URL alone exceeds the limit is placed in its own group
+     * @param tagFilerServer
+     *            tagfiler server URL
+     * @param vnames
+     *            the files versions (name@version)
+     * @param tags
+     *            the encoded list of tags separated by semicolon
+     * @param maxLength
+     *            the maximum length of an encoded URL
+     * @return the groups of files versions, in the list order
+     * @throws UnsupportedEncodingException
+     */
+    public static final List<List<String>> splitFilesVersionsTags(String tagFilerServer,
+            List<String> vnames, String tags, int maxLength)
+            throws UnsupportedEncodingException {
+        if (tagFilerServer == null || tagFilerServer.length() == 0 ||
+        		vnames == null || tags == null) 
+        	throw new IllegalArgumentException(""+tagFilerServer+", "+vnames+", "+tags);
+
+        int prefix = tagFilerServer.length() + QUERY_URI.length() + VNAME.length() + 
+        		tags.length() + 2 + ANY_VERSION.length() + LIMIT_NONE.length();
+        return splitFilesVersions(vnames, prefix, maxLength);
+    }
+
+    /**
+     * Split a list of files versions in groups whose URL fits in the maximum URL length
+     * @param vnames
+     *            the files versions (name@version)
+     * @param prefix
+     *            the length of the URL without the files versions
+     * @param maxLength
+     *            the maximum length of an encoded URL
+     * @return the groups of files versions, in the list order
+     * @throws UnsupportedEncodingException
+     */
+    private static List<List<String>> splitFilesVersions(List<String> vnames, int prefix, int maxLength)
+            throws UnsupportedEncodingException {
+        List<List<String>> groups = new ArrayList<List<String>>();
+        List<String> group = new ArrayList<String>();
+        int length = prefix;
+        for (String vname : vnames) {
+        	int size = DatasetUtils.urlEncode(vname).length();
+        	if (group.size() > 0 && length + 1 + size > maxLength) {
+        		groups.add(group);
+        		group = new ArrayList<String>();
+        		length = prefix;
+        	}
+        	length += (group.size() > 0 ? 1 : 0) + size;
+        	group.add(vname);
+        }
+        if (group.size() > 0) {
+        	groups.add(group);
+        }
+        return groups;
+    }
+
     /**
      * Join the elements of the set
      * 
@@ -697,6 +982,57 @@ public class DatasetUtils {
 	     return result;
 	}
 	
+    /**
+     * Get the Content-MD5 value of a block (RFC 1864)
+     * 
+     * @param data
+     *            the byte array of the block
+     * @param offset
+     *            the block offset in the array
+     * @param length
+     *            the block length
+     * @return the base64 string of the block MD5 digest
+     */
+	public static String contentMD5(byte[] data, int offset, int length) {
+		try {
+			MessageDigest md = MessageDigest.getInstance("MD5");
+			md.update(data, offset, length);
+			return new String(Base64.encodeBase64(md.digest()), "US-ASCII");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+    /**
+     * Get the Content-MD5 value of a file (RFC 1864)
+     * 
+     * @param file
+     *            the file
+     * @return the base64 string of the file MD5 digest
+     * @throws IOException
+     *             if the file can not be read
+     */
+	public static String contentMD5(File file) throws IOException {
+		try {
+			MessageDigest md = MessageDigest.getInstance("MD5");
+			byte buffer[] = new byte[64 * 1024];
+			FileInputStream fis = new FileInputStream(file);
+			try {
+				int count;
+				while ((count = fis.read(buffer)) != -1) {
+					md.update(buffer, 0, count);
+				}
+			} finally {
+				fis.close();
+			}
+			return new String(Base64.encodeBase64(md.digest()), "US-ASCII");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
     /**
      * Get the file name relative to the base directory
      * @param fileName
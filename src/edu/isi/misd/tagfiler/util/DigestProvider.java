@@ -0,0 +1,44 @@
+package edu.isi.misd.tagfiler.util;
+
+/* 
+ * Copyright 2010 University of Southern California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.security.MessageDigest;
+
+/**
+ * Provider of the digest algorithm used for the files checksums.
+ * The same provider computes the checksums of the whole files and the incremental checksums of the chunked transfers.
+ * Additional providers are registered with the tagfiler.checksum.providers property.
+ *
+ * @author agent
+ *
+ */
+public interface DigestProvider {
+
+    /**
+     * Get the name of the algorithm
+     * 
+     * @return the name used to select the provider and to key the cached checksums
+     */
+	public String getName();
+
+    /**
+     * Create a new digest object
+     * 
+     * @return the digest object; it is used by a single thread
+     */
+	public MessageDigest newDigest();
+}
@@ -0,0 +1,142 @@
+package edu.isi.misd.tagfiler.util;
+
+/* 
+ * Copyright 2010 University of Southern California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+
+import javax.xml.crypto.dsig.DigestMethod;
+
+/**
+ * Registry of the digest providers.
+ * The Java Cryptography Architecture algorithms are registered by their standard names
+ * and by the XML Signature URIs used by the tagfiler.checksum.type property.
+ * Algorithms not available in the running JVM are not registered.
+ *
+ * @author agent
+ *
+ */
+public class DigestProviders {
+
+	// the providers by name
+	private static final HashMap<String, DigestProvider> providers = new HashMap<String, DigestProvider>();
+
+	static {
+		register("MD5", "http://www.w3.org/2001/04/xmldsig-more#md5");
+		register("SHA-1", DigestMethod.SHA1);
+		register("SHA-256", DigestMethod.SHA256);
+		register("SHA-384", "http://www.w3.org/2001/04/xmldsig-more#sha384");
+		register("SHA-512", DigestMethod.SHA512);
+		register("SHA-512/256", null);
+		String classes = TagFilerProperties.getProperty("tagfiler.checksum.providers");
+		if (classes != null) {
+			for (String name : classes.split(",")) {
+				if (name.trim().length() > 0) {
+					try {
+						register((DigestProvider) Class.forName(name.trim()).getDeclaredConstructor().newInstance());
+					} catch (Exception e) {
+						// TODO Auto-generated catch block
+						e.printStackTrace();
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Provider of an algorithm of the Java Cryptography Architecture
+	 *
+	 */
+	private static class JCADigestProvider implements DigestProvider {
+
+		// the standard name of the algorithm
+		private String name;
+
+		JCADigestProvider(String name) {
+			this.name = name;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public MessageDigest newDigest() {
+			try {
+				return MessageDigest.getInstance(name);
+			} catch (NoSuchAlgorithmException e) {
+				throw new IllegalStateException("Digest algorithm not available: " + name);
+			}
+		}
+	}
+
+    /**
+     * Register a digest provider by its name
+     * 
+     * @param provider
+     *            the digest provider
+     */
+	public static synchronized void register(DigestProvider provider) {
+        if (provider == null || provider.getName() == null) throw new IllegalArgumentException(""+provider);
+		providers.put(provider.getName(), provider);
+	}
+
+    /**
+     * Get a digest provider
+     * 
+     * @param type
+     *            the name or the XML Signature URI of the algorithm
+     * @return the digest provider or null if the algorithm is not available
+     */
+	public static synchronized DigestProvider get(String type) {
+		return type != null ? providers.get(type) : null;
+	}
+
+    /**
+     * Get the digest provider selected by the tagfiler.checksum.type property
+     * 
+     * @return the selected digest provider or SHA-256 if the selected algorithm is not available
+     */
+	public static DigestProvider getDefault() {
+		DigestProvider provider = get(TagFilerProperties.getProperty("tagfiler.checksum.type"));
+		if (provider == null) {
+			provider = get("SHA-256");
+		}
+		return provider;
+	}
+
+    /**
+     * Register an algorithm of the Java Cryptography Architecture, if it is available
+     * 
+     * @param name
+     *            the standard name of the algorithm
+     * @param uri
+     *            the XML Signature URI of the algorithm or null
+     */
+	private static void register(String name, String uri) {
+		try {
+			MessageDigest.getInstance(name);
+		} catch (NoSuchAlgorithmException e) {
+			return;
+		}
+		DigestProvider provider = new JCADigestProvider(name);
+		providers.put(name, provider);
+		if (uri != null) {
+			providers.put(uri, provider);
+		}
+	}
+}
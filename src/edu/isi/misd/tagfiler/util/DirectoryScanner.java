@@ -0,0 +1,169 @@
+package edu.isi.misd.tagfiler.util;
+
+/* 
+ * Copyright 2010 University of Southern California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Utility class for scanning directory trees.
+ * The directories are listed in parallel by a pool of threads and every regular file
+ * is passed to the handler, together with its length, as soon as it is discovered.
+ *
+ * @author agent
+ *
+ */
+public class DirectoryScanner {
+
+	/**
+	 * Handler of the files discovered by the scanner
+	 *
+	 */
+	public interface FileHandler {
+
+	    /**
+	     * A regular file was found
+	     * The method is called concurrently by the scanner threads
+	     *
+	     * @param path
+	     *            the absolute path of the file
+	     * @param length
+	     *            the file length
+	     */
+		public void fileFound(String path, long length);
+	}
+
+    /**
+     * Excludes "." and ".." from directory lists in case the client is
+     * UNIX-based.
+     */
+    private static final FilenameFilter excludeDirFilter = new FilenameFilter() {
+        public boolean accept(File dir, String name) {
+            return (!name.equals(".") && !name.equals(".."));
+        }
+    };
+
+    // the number of threads listing directories
+	private int threads;
+
+    // the handler of the discovered files
+	private FileHandler handler;
+
+    // the threads pool
+	private ExecutorService executor;
+
+    // the number of directories not listed yet
+	private int pending;
+
+    /**
+     * Constructor
+     *
+     * @param threads
+     *            the number of threads listing directories
+     * @param handler
+     *            the handler of the discovered files
+     */
+	public DirectoryScanner(int threads, FileHandler handler) {
+        if (handler == null) throw new IllegalArgumentException("handler");
+		this.threads = Math.max(1, threads);
+		this.handler = handler;
+	}
+
+    /**
+     * Scan the files and the directory trees
+     * The method returns after all the files were passed to the handler
+     *
+     * @param files
+     *            the files and directories to be scanned
+     */
+	public void scan(File files[]) {
+        if (files == null) throw new IllegalArgumentException("files");
+		executor = Executors.newFixedThreadPool(threads);
+		try {
+			for (int i = 0; i < files.length; i++) {
+				if (files[i].isDirectory()) {
+					submit(files[i].getAbsoluteFile());
+				} else if (files[i].isFile()) {
+					handler.fileFound(files[i].getAbsolutePath(), files[i].length());
+				}
+			}
+
+			// wait until all the directories were listed
+			synchronized (this) {
+				while (pending > 0) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						// TODO Auto-generated catch block
+						e.printStackTrace();
+						break;
+					}
+				}
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+    /**
+     * Schedule the listing of a directory
+     *
+     * @param dir
+     *            the directory
+     */
+	private void submit(final File dir) {
+		synchronized (this) {
+			pending++;
+		}
+		executor.execute(new Runnable() {
+			public void run() {
+				try {
+					list(dir);
+				} finally {
+					synchronized (DirectoryScanner.this) {
+						if (--pending == 0) {
+							DirectoryScanner.this.notifyAll();
+						}
+					}
+				}
+			}
+		});
+	}
+
+    /**
+     * List a directory
+     * The files are passed to the handler and the subdirectories are scheduled to be listed
+     *
+     * @param dir
+     *            the directory
+     */
+	private void list(File dir) {
+		File children[] = dir.listFiles(excludeDirFilter);
+		if (children == null) {
+			return;
+		}
+		for (int i = 0; i < children.length; i++) {
+			if (children[i].isDirectory()) {
+				submit(children[i].getAbsoluteFile());
+			} else if (children[i].isFile()) {
+				handler.fileFound(children[i].getAbsolutePath(), children[i].length());
+			}
+		}
+	}
+}
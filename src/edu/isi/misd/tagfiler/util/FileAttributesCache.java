@@ -0,0 +1,233 @@
+package edu.isi.misd.tagfiler.util;
+
+/* 
+ * Copyright 2010 University of Southern California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cache of the local file attributes used during an upload session.
+ * The attributes of a file are read once from the file system
+ * and every stage of the upload reuses them.
+ *
+ * @author agent
+ *
+ */
+public class FileAttributesCache {
+
+	/**
+	 * The attributes of a file
+	 *
+	 */
+	public static class Attributes {
+
+	    // true if the file exists
+		private boolean exists;
+
+	    // true if the file can be read
+		private boolean readable;
+
+	    // true if the file is a regular file
+		private boolean file;
+
+	    // true if the file is a directory
+		private boolean directory;
+
+	    // the file length
+		private long length;
+
+		public boolean exists() {
+			return exists;
+		}
+
+		public boolean canRead() {
+			return readable;
+		}
+
+		public boolean isFile() {
+			return file;
+		}
+
+		public boolean isDirectory() {
+			return directory;
+		}
+
+		public long length() {
+			return length;
+		}
+	}
+
+    // the attributes by file path
+	private HashMap<String, Attributes> cache = new HashMap<String, Attributes>();
+
+    // the number of file system queries performed
+	private long statCalls;
+
+    // the number of file system queries answered from the cache
+	private long savedCalls;
+
+    /**
+     * Remove all the attributes from the cache
+     */
+	public synchronized void clear() {
+		cache.clear();
+		statCalls = 0;
+		savedCalls = 0;
+	}
+
+    /**
+     * Add a regular file discovered by a directory scan
+     * The existence, the type and the length are already known from the scan
+     *
+     * @param path
+     *            the file path
+     * @param length
+     *            the file length
+     */
+	public void put(String path, long length) {
+		Attributes attributes = new Attributes();
+		attributes.exists = true;
+		attributes.file = true;
+		attributes.length = length;
+		attributes.readable = (new File(path)).canRead();
+		synchronized (this) {
+			statCalls++;
+			cache.put(path, attributes);
+		}
+	}
+
+    /**
+     * Get the attributes of a file
+     * The attributes are read from the file system only if they are not in the cache
+     *
+     * @param path
+     *            the file path
+     * @return the file attributes
+     */
+	public Attributes get(String path) {
+		synchronized (this) {
+			Attributes attributes = cache.get(path);
+			if (attributes != null) {
+				savedCalls++;
+				return attributes;
+			}
+		}
+		Attributes attributes = read(path);
+		synchronized (this) {
+			cache.put(path, attributes);
+		}
+		return attributes;
+	}
+
+    /**
+     * Get the length of a file
+     *
+     * @param path
+     *            the file path
+     * @return the file length
+     */
+	public long length(String path) {
+		return get(path).length();
+	}
+
+    /**
+     * Read in parallel the attributes of the files that are not in the cache
+     * The method returns after all the attributes were read
+     *
+     * @param paths
+     *            the files paths
+     * @param threads
+     *            the number of threads reading the attributes
+     */
+	public void load(List<String> paths, int threads) {
+        if (paths == null) throw new IllegalArgumentException("paths");
+		final List<String> missing = new ArrayList<String>();
+		synchronized (this) {
+			for (String path : paths) {
+				if (!cache.containsKey(path)) {
+					missing.add(path);
+				}
+			}
+		}
+		if (missing.size() == 0) {
+			return;
+		}
+		threads = Math.max(1, Math.min(threads, missing.size()));
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		for (int i = 0; i < threads; i++) {
+			final int first = i;
+			final int step = threads;
+			executor.execute(new Runnable() {
+				public void run() {
+					for (int j = first; j < missing.size(); j += step) {
+						String path = missing.get(j);
+						Attributes attributes = read(path);
+						synchronized (FileAttributesCache.this) {
+							cache.put(path, attributes);
+						}
+					}
+				}
+			});
+		}
+		executor.shutdown();
+		try {
+			executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+		}
+	}
+
+    /**
+     * Get the statistics of the cache
+     *
+     * @return the number of file system queries performed and saved
+     */
+	public synchronized String getStatistics() {
+		return statCalls + " stat calls, " + savedCalls + " stat calls saved";
+	}
+
+    /**
+     * Read the attributes of a file from the file system
+     *
+     * @param path
+     *            the file path
+     * @return the file attributes
+     */
+	private Attributes read(String path) {
+		File file = new File(path);
+		Attributes attributes = new Attributes();
+		attributes.exists = file.exists();
+		int calls = 1;
+		if (attributes.exists) {
+			attributes.readable = file.canRead();
+			attributes.file = file.isFile();
+			attributes.directory = !attributes.file && file.isDirectory();
+			attributes.length = file.length();
+			calls += attributes.file ? 3 : 4;
+		}
+		synchronized (this) {
+			statCalls += calls;
+		}
+		return attributes;
+	}
+}
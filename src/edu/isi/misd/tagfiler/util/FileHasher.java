@@ -0,0 +1,221 @@
+package edu.isi.misd.tagfiler.util;
+
+/* 
+ * Copyright 2010 University of Southern California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Engine for hashing the local files.
+ * The large files are read through memory mapped regions; the files are spread over a pool
+ * of low priority threads, whose size is capped so the transfers stay responsive.
+ *
+ * @author agent
+ *
+ */
+public class FileHasher {
+
+	// the size of a memory mapped region
+	private static final long REGION_SIZE = 64L * 1024 * 1024;
+
+	// the size of the read buffer for the small files
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	// the minimum file length for memory mapped reads
+	private static final long MMAP_THRESHOLD = TagFilerProperties.getProperty("tagfiler.checksum.mmap.threshold", 1024L * 1024);
+
+    /**
+     * Compute the checksum of a file
+     * 
+     * @param file
+     *            the file to be read
+     * @param provider
+     *            the digest provider
+     * @return the hexa checksum of the file
+     * @throws IOException
+     *             if the file can not be read
+     */
+	public static String digest(File file, DigestProvider provider) throws IOException {
+		MessageDigest messageDigest = provider.newDigest();
+		FileInputStream fis = new FileInputStream(file);
+		try {
+			FileChannel channel = fis.getChannel();
+			long length = channel.size();
+			if (MMAP_THRESHOLD > 0 && length >= MMAP_THRESHOLD) {
+				// the regions are mapped one at a time, so the address space use stays bounded
+				for (long position = 0; position < length; position += REGION_SIZE) {
+					long size = Math.min(REGION_SIZE, length - position);
+					MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+					messageDigest.update(buffer);
+				}
+			} else {
+				ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+				while (channel.read(buffer) != -1) {
+					buffer.flip();
+					messageDigest.update(buffer);
+					buffer.clear();
+				}
+			}
+		} finally {
+			fis.close();
+		}
+		return DatasetUtils.hexChecksum(messageDigest.digest());
+	}
+
+    /**
+     * Compute in parallel the checksums of the files that are not in the checksum cache
+     * The largest files are hashed first, so the threads complete together
+     * The method returns after all the checksums were stored in the cache
+     * 
+     * @param files
+     *            the files to be hashed
+     * @param provider
+     *            the digest provider
+     * @param threads
+     *            the maximum number of threads; 0 for all the processors but one
+     * @param cache
+     *            the cache where the checksums are stored
+     * @return the number of files that were hashed
+     */
+	public static int digest(List<FileWrapper> files, DigestProvider provider, int threads, ChecksumCache cache) {
+        if (files == null || provider == null || cache == null) throw new IllegalArgumentException(""+files+", "+provider+", "+cache);
+		List<FileWrapper> pending = new ArrayList<FileWrapper>();
+		for (FileWrapper file : files) {
+			if (cache.get(new File(file.getName()), provider.getName()) == null) {
+				pending.add(file);
+			}
+		}
+		hash(pending, provider, threads, cache, null);
+		return pending.size();
+	}
+
+    /**
+     * Get the checksums of the files
+     * The checksums found in the cache are reused; the rest are computed in parallel
+     * The method returns after all the checksums were computed
+     * 
+     * @param files
+     *            the files to be hashed
+     * @param provider
+     *            the digest provider
+     * @param threads
+     *            the maximum number of threads; 0 for all the processors but one
+     * @param cache
+     *            the cache of the checksums or null
+     * @return the hexa checksums by file name; the files that can not be read are missing
+     */
+	public static Map<String, String> getDigests(List<FileWrapper> files, DigestProvider provider, int threads, ChecksumCache cache) {
+        if (files == null || provider == null) throw new IllegalArgumentException(""+files+", "+provider);
+		Map<String, String> digests = new HashMap<String, String>();
+		List<FileWrapper> pending = new ArrayList<FileWrapper>();
+		for (FileWrapper file : files) {
+			String digest = cache != null ? cache.get(new File(file.getName()), provider.getName()) : null;
+			if (digest != null) {
+				digests.put(file.getName(), digest);
+			} else {
+				pending.add(file);
+			}
+		}
+		hash(pending, provider, threads, cache, digests);
+		return digests;
+	}
+
+    /**
+     * Compute in parallel the checksums of the files
+     * 
+     * @param pending
+     *            the files to be hashed
+     * @param provider
+     *            the digest provider
+     * @param threads
+     *            the maximum number of threads; 0 for all the processors but one
+     * @param cache
+     *            the cache where the checksums are stored or null
+     * @param digests
+     *            the map receiving the checksums by file name or null
+     */
+	private static void hash(List<FileWrapper> pending, final DigestProvider provider, int threads, 
+			final ChecksumCache cache, final Map<String, String> digests) {
+		if (pending.size() == 0) {
+			return;
+		}
+		Collections.sort(pending, new Comparator<FileWrapper>() {
+			public int compare(FileWrapper f1, FileWrapper f2) {
+				long diff = f2.getFileLength() - f1.getFileLength();
+				return diff > 0 ? 1 : (diff < 0 ? -1 : 0);
+			}
+		});
+		int processors = Runtime.getRuntime().availableProcessors();
+		if (threads <= 0) {
+			threads = processors - 1;
+		}
+		threads = Math.max(1, Math.min(Math.min(threads, processors), pending.size()));
+		ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "FileHasher");
+				thread.setDaemon(true);
+				thread.setPriority(Thread.MIN_PRIORITY);
+				return thread;
+			}
+		});
+		for (final FileWrapper file : pending) {
+			executor.execute(new Runnable() {
+				public void run() {
+					File localFile = new File(file.getName());
+					try {
+						ChecksumCache.Stamp stamp = ChecksumCache.stamp(localFile);
+						String digest = digest(localFile, provider);
+						if (cache != null) {
+							cache.put(localFile, stamp, provider.getName(), digest);
+						}
+						if (digests != null) {
+							synchronized (digests) {
+								digests.put(file.getName(), digest);
+							}
+						}
+					} catch (IOException e) {
+						// the file is left without checksum
+						e.printStackTrace();
+					}
+				}
+			});
+		}
+		executor.shutdown();
+		try {
+			executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+			executor.shutdownNow();
+		}
+	}
+}
@@ -0,0 +1,134 @@
+package edu.isi.misd.tagfiler.util;
+
+/* 
+ * Copyright 2010 University of Southern California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.channels.FileChannel;
+
+/**
+ * Materializer of local files with the same content as an existing local file.
+ * The content is copied by the file channels, unless a hard link is requested and
+ * the file system and the Java runtime support it. A hard link shares later changes of either file.
+ *
+ * @author agent
+ *
+ */
+public class FileLinker {
+
+	// the method File.toPath() or null if the Java runtime does not have it
+	private static Method toPath;
+
+	// the method Files.createLink(Path, Path) or null if the Java runtime does not have it
+	private static Method createLink;
+
+	static {
+		try {
+			Class<?> pathClass = Class.forName("java.nio.file.Path");
+			Class<?> filesClass = Class.forName("java.nio.file.Files");
+			toPath = File.class.getMethod("toPath");
+			createLink = filesClass.getMethod("createLink", pathClass, pathClass);
+		} catch (Exception e) {
+			// the files are copied
+			toPath = null;
+			createLink = null;
+		}
+	}
+
+    /**
+     * Create a file with the content of an existing file
+     * An existing target file is replaced
+     *
+     * @param source
+     *            the existing file
+     * @param target
+     *            the file to be created
+     * @param link
+     *            if true, try first to create a hard link
+     * @return true if a hard link was created; false if the content was copied
+     * @throws IOException
+     *             if the file can not be created
+     */
+	public static boolean materialize(File source, File target, boolean link) throws IOException {
+        if (source == null || target == null) throw new IllegalArgumentException(""+source+", "+target);
+		File dir = target.getParentFile();
+		if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Can not make directory \"" + dir + "\".");
+		}
+		if (target.exists() && !target.delete()) {
+			throw new IOException("Can not replace the file \"" + target + "\".");
+		}
+		if (link && createLink(source, target)) {
+			return true;
+		}
+		copy(source, target);
+		return false;
+	}
+
+    /**
+     * Create a hard link
+     *
+     * @param source
+     *            the existing file
+     * @param target
+     *            the link to be created
+     * @return true if the link was created
+     */
+	private static boolean createLink(File source, File target) {
+		if (createLink == null) {
+			return false;
+		}
+		try {
+			createLink.invoke(null, toPath.invoke(target), toPath.invoke(source));
+			return true;
+		} catch (Exception e) {
+			// the file system does not support hard links or the files are on different devices
+			return false;
+		}
+	}
+
+    /**
+     * Copy the content of a file
+     *
+     * @param source
+     *            the existing file
+     * @param target
+     *            the file to be created
+     */
+	private static void copy(File source, File target) throws IOException {
+		FileInputStream fis = new FileInputStream(source);
+		try {
+			FileOutputStream fos = new FileOutputStream(target);
+			try {
+				FileChannel in = fis.getChannel();
+				FileChannel out = fos.getChannel();
+				long length = in.size();
+				long position = 0;
+				while (position < length) {
+					position += in.transferTo(position, length - position, out);
+				}
+			} finally {
+				fos.close();
+			}
+		} finally {
+			fis.close();
+		}
+	}
+}
@@ -0,0 +1,540 @@
+package edu.isi.misd.tagfiler.util;
+
+/* 
+ * Copyright 2010 University of Southern California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Columnar table of the files of a transfer session.
+ * Each file has an integer id; its directory is shared with the other files of the same directory,
+ * its size, version and SHA-256 digest are kept in primitive columns.
+ * The table is exposed as the files list and the String keyed maps used by the session.
+ * The maps of the client (completion, check points and chunks checksums) are still keyed by name.
+ * As the column maps do not hold null values, putting a null value removes the file from the map.
+ *
+ * @author agent
+ *
+ */
+public class FileTable {
+
+	// the length of a SHA-256 digest
+	private static final int DIGEST_LENGTH = 32;
+
+	// the value of an absent size
+	private static final long NO_BYTES = Long.MIN_VALUE;
+
+	// the value of an absent version
+	private static final int NO_VERSION = Integer.MIN_VALUE;
+
+	private static final char HEX[] = "0123456789abcdef".toCharArray();
+
+    // the distinct directories of the files names
+	private ArrayList<String> dirs = new ArrayList<String>();
+
+    // the ids of the directories
+	private HashMap<String, Integer> dirIds = new HashMap<String, Integer>();
+
+    // the number of files in the table
+	private int count;
+
+    // the directory id of each file
+	private int dir[] = new int[16];
+
+    // the name of each file without its directory
+	private String leaf[] = new String[16];
+
+    // the hash code of each file name
+	private int hash[] = new int[16];
+
+    // the size of each file
+	private long bytes[] = new long[16];
+
+    // the version of each file
+	private int version[] = new int[16];
+
+    // the binary SHA-256 digest of each file
+	private byte digests[] = new byte[16 * DIGEST_LENGTH];
+
+    // the files having a binary digest
+	private BitSet hasDigest = new BitSet();
+
+    // the checksums that are not hexa SHA-256 digests
+	private HashMap<Integer, String> otherChecksums = new HashMap<Integer, String>();
+
+    // open addressing index of the names; a slot holds the file id + 1 or 0 if empty
+	private int index[] = new int[32];
+
+    // the ids of the listed files, in the listing order
+	private int order[] = new int[16];
+
+    // the number of listed files
+	private int orderCount;
+
+    /**
+     * Get the id of a file, adding the file if it is not in the table
+     *
+     * @param name
+     *            the file name
+     * @return the file id
+     */
+	public synchronized int add(String name) {
+        if (name == null) throw new IllegalArgumentException("name");
+		int id = getId(name);
+		if (id != -1) {
+			return id;
+		}
+		if (count == dir.length) {
+			grow();
+		}
+		id = count++;
+		int sep = Math.max(name.lastIndexOf('/'), name.lastIndexOf('\\')) + 1;
+		String dirName = name.substring(0, sep);
+		Integer dirId = dirIds.get(dirName);
+		if (dirId == null) {
+			dirId = dirs.size();
+			dirs.add(dirName);
+			dirIds.put(dirName, dirId);
+		}
+		dir[id] = dirId;
+		leaf[id] = name.substring(sep);
+		hash[id] = name.hashCode();
+		bytes[id] = NO_BYTES;
+		version[id] = NO_VERSION;
+		if (2 * count > index.length) {
+			rehash();
+		} else {
+			insert(id);
+		}
+		return id;
+	}
+
+    /**
+     * Get the id of a file
+     *
+     * @param name
+     *            the file name
+     * @return the file id or -1 if the file is not in the table
+     */
+	public synchronized int getId(String name) {
+		int h = name.hashCode();
+		int mask = index.length - 1;
+		for (int slot = spread(h) & mask; index[slot] != 0; slot = (slot + 1) & mask) {
+			int id = index[slot] - 1;
+			if (hash[id] == h && matches(id, name)) {
+				return id;
+			}
+		}
+		return -1;
+	}
+
+    /**
+     * Get the name of a file
+     *
+     * @param id
+     *            the file id
+     * @return the file name
+     */
+	public synchronized String getName(int id) {
+		return dirs.get(dir[id]) + leaf[id];
+	}
+
+    /**
+     * Get the number of files in the table
+     */
+	public synchronized int size() {
+		return count;
+	}
+
+	public synchronized long getBytes(int id) {
+		return bytes[id];
+	}
+
+	public synchronized void setBytes(int id, long size) {
+		bytes[id] = size;
+	}
+
+	public synchronized int getVersion(int id) {
+		return version[id];
+	}
+
+	public synchronized void setVersion(int id, int fileVersion) {
+		version[id] = fileVersion;
+	}
+
+    /**
+     * Get the checksum of a file
+     *
+     * @param id
+     *            the file id
+     * @return the hexa checksum or null if the file has no checksum
+     */
+	public synchronized String getChecksum(int id) {
+		if (!hasDigest.get(id)) {
+			return otherChecksums.get(id);
+		}
+		char buffer[] = new char[2 * DIGEST_LENGTH];
+		int offset = id * DIGEST_LENGTH;
+		for (int i = 0; i < DIGEST_LENGTH; i++) {
+			int b = digests[offset + i] & 0xff;
+			buffer[2 * i] = HEX[b >> 4];
+			buffer[2 * i + 1] = HEX[b & 0x0f];
+		}
+		return new String(buffer);
+	}
+
+    /**
+     * Set the checksum of a file
+     * A hexa SHA-256 digest is stored in binary form
+     *
+     * @param id
+     *            the file id
+     * @param checksum
+     *            the checksum or null to remove it
+     */
+	public synchronized void setChecksum(int id, String checksum) {
+		hasDigest.clear(id);
+		otherChecksums.remove(id);
+		if (checksum == null) {
+			return;
+		}
+		if (!isHexDigest(checksum)) {
+			otherChecksums.put(id, checksum);
+			return;
+		}
+		int offset = id * DIGEST_LENGTH;
+		for (int i = 0; i < DIGEST_LENGTH; i++) {
+			digests[offset + i] = (byte) ((Character.digit(checksum.charAt(2 * i), 16) << 4) | Character.digit(checksum.charAt(2 * i + 1), 16));
+		}
+		hasDigest.set(id);
+	}
+
+    /**
+     * Get the list of the files names, in the listing order
+     * Adding a name to the list adds the file to the table
+     */
+	public List<String> getNames() {
+		return new AbstractList<String>() {
+			public String get(int i) {
+				synchronized (FileTable.this) {
+					if (i < 0 || i >= orderCount) throw new IndexOutOfBoundsException("" + i);
+					return getName(order[i]);
+				}
+			}
+
+			public int size() {
+				synchronized (FileTable.this) {
+					return orderCount;
+				}
+			}
+
+			public boolean add(String name) {
+				synchronized (FileTable.this) {
+					int id = FileTable.this.add(name);
+					if (orderCount == order.length) {
+						int temp[] = new int[2 * order.length];
+						System.arraycopy(order, 0, temp, 0, orderCount);
+						order = temp;
+					}
+					order[orderCount++] = id;
+					modCount++;
+					return true;
+				}
+			}
+		};
+	}
+
+    /**
+     * Get the map of the files sizes
+     */
+	public Map<String, Long> getBytesMap() {
+		return new ColumnMap<Long>() {
+			Long getValue(int id) {
+				return bytes[id] == NO_BYTES ? null : Long.valueOf(bytes[id]);
+			}
+
+			void setValue(int id, Long value) {
+				bytes[id] = value == null ? NO_BYTES : value.longValue();
+			}
+		};
+	}
+
+    /**
+     * Get the map of the files versions
+     */
+	public Map<String, Integer> getVersionMap() {
+		return new ColumnMap<Integer>() {
+			Integer getValue(int id) {
+				return version[id] == NO_VERSION ? null : Integer.valueOf(version[id]);
+			}
+
+			void setValue(int id, Integer value) {
+				version[id] = value == null ? NO_VERSION : value.intValue();
+			}
+		};
+	}
+
+    /**
+     * Get the map of the files checksums
+     */
+	public Map<String, String> getChecksumMap() {
+		return new ColumnMap<String>() {
+			String getValue(int id) {
+				return getChecksum(id);
+			}
+
+			void setValue(int id, String value) {
+				setChecksum(id, value);
+			}
+		};
+	}
+
+	/**
+	 * Map view of a column of the table
+	 * A file is in the map if it has a value in the column
+	 *
+	 */
+	private abstract class ColumnMap<V> extends AbstractMap<String, V> {
+
+	    /**
+	     * Get the value of a file or null if it has no value
+	     */
+		abstract V getValue(int id);
+
+	    /**
+	     * Set the value of a file; null removes the value
+	     */
+		abstract void setValue(int id, V value);
+
+		public V get(Object key) {
+			if (!(key instanceof String)) {
+				return null;
+			}
+			synchronized (FileTable.this) {
+				int id = getId((String) key);
+				return id == -1 ? null : getValue(id);
+			}
+		}
+
+		public boolean containsKey(Object key) {
+			return get(key) != null;
+		}
+
+		public V put(String key, V value) {
+			if (value == null) {
+				// a file without a value is not in the map
+				return remove(key);
+			}
+			synchronized (FileTable.this) {
+				int id = add(key);
+				V old = getValue(id);
+				setValue(id, value);
+				return old;
+			}
+		}
+
+		public V remove(Object key) {
+			if (!(key instanceof String)) {
+				return null;
+			}
+			synchronized (FileTable.this) {
+				int id = getId((String) key);
+				if (id == -1) {
+					return null;
+				}
+				V old = getValue(id);
+				setValue(id, null);
+				return old;
+			}
+		}
+
+		public Set<Map.Entry<String, V>> entrySet() {
+			return new AbstractSet<Map.Entry<String, V>>() {
+				public Iterator<Map.Entry<String, V>> iterator() {
+					return new Iterator<Map.Entry<String, V>>() {
+						// the id of the next entry
+						private int next = advance(0);
+
+						// the id of the last returned entry
+						private int last = -1;
+
+						public boolean hasNext() {
+							return next < count;
+						}
+
+						public Map.Entry<String, V> next() {
+							if (!hasNext()) throw new NoSuchElementException();
+							last = next;
+							next = advance(next + 1);
+							synchronized (FileTable.this) {
+								return new SimpleEntry(getName(last), getValue(last));
+							}
+						}
+
+						public void remove() {
+							if (last == -1) throw new IllegalStateException();
+							synchronized (FileTable.this) {
+								setValue(last, null);
+							}
+							last = -1;
+						}
+					};
+				}
+
+				public int size() {
+					int size = 0;
+					for (int id = advance(0); id < count; id = advance(id + 1)) {
+						size++;
+					}
+					return size;
+				}
+			};
+		}
+
+	    /**
+	     * Get the first file having a value, starting from an id
+	     */
+		private int advance(int id) {
+			synchronized (FileTable.this) {
+				while (id < count && getValue(id) == null) {
+					id++;
+				}
+				return id;
+			}
+		}
+
+		/**
+		 * Entry of the map view
+		 *
+		 */
+		private class SimpleEntry implements Map.Entry<String, V> {
+
+			private String key;
+
+			private V value;
+
+			SimpleEntry(String key, V value) {
+				this.key = key;
+				this.value = value;
+			}
+
+			public String getKey() {
+				return key;
+			}
+
+			public V getValue() {
+				return value;
+			}
+
+			public V setValue(V newValue) {
+				V old = value;
+				put(key, newValue);
+				value = newValue;
+				return old;
+			}
+		}
+	}
+
+    /**
+     * Check if a file has a given name
+     */
+	private boolean matches(int id, String name) {
+		String dirName = dirs.get(dir[id]);
+		String leafName = leaf[id];
+		return name.length() == dirName.length() + leafName.length() && 
+			name.startsWith(dirName) && name.regionMatches(dirName.length(), leafName, 0, leafName.length());
+	}
+
+    /**
+     * Mix the high bits of a hash code into its low bits used by the index
+     */
+	private static int spread(int h) {
+		return h ^ (h >>> 16);
+	}
+
+    /**
+     * Check if a checksum is a lower case hexa SHA-256 digest
+     */
+	private static boolean isHexDigest(String checksum) {
+		if (checksum.length() != 2 * DIGEST_LENGTH) {
+			return false;
+		}
+		for (int i = 0; i < checksum.length(); i++) {
+			char c = checksum.charAt(i);
+			if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+    /**
+     * Double the capacity of the columns
+     */
+	private void grow() {
+		int capacity = 2 * dir.length;
+		int newDir[] = new int[capacity];
+		System.arraycopy(dir, 0, newDir, 0, count);
+		dir = newDir;
+		String newLeaf[] = new String[capacity];
+		System.arraycopy(leaf, 0, newLeaf, 0, count);
+		leaf = newLeaf;
+		int newHash[] = new int[capacity];
+		System.arraycopy(hash, 0, newHash, 0, count);
+		hash = newHash;
+		long newBytes[] = new long[capacity];
+		System.arraycopy(bytes, 0, newBytes, 0, count);
+		bytes = newBytes;
+		int newVersion[] = new int[capacity];
+		System.arraycopy(version, 0, newVersion, 0, count);
+		version = newVersion;
+		byte newDigests[] = new byte[capacity * DIGEST_LENGTH];
+		System.arraycopy(digests, 0, newDigests, 0, count * DIGEST_LENGTH);
+		digests = newDigests;
+	}
+
+    /**
+     * Double the size of the names index
+     */
+	private void rehash() {
+		index = new int[2 * index.length];
+		for (int id = 0; id < count; id++) {
+			insert(id);
+		}
+	}
+
+    /**
+     * Insert a file into the names index
+     */
+	private void insert(int id) {
+		int mask = index.length - 1;
+		int slot = spread(hash[id]) & mask;
+		while (index[slot] != 0) {
+			slot = (slot + 1) & mask;
+		}
+		index[slot] = id + 1;
+	}
+}
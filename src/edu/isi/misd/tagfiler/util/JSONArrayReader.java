@@ -0,0 +1,153 @@
+package edu.isi.misd.tagfiler.util;
+
+/* 
+ * Copyright 2010 University of Southern California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UnsupportedEncodingException;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Incremental reader of a JSON array of objects.
+ * The objects are parsed one at a time while the content is read from the stream,
+ * so the array is never held in memory.
+ *
+ * @author agent
+ *
+ */
+public class JSONArrayReader {
+
+    // the reader of the JSON content
+	private Reader reader;
+
+    // the text of the current object
+	private StringBuffer buffer = new StringBuffer();
+
+    // true if the opening bracket of the array was read
+	private boolean started;
+
+    // true if the closing bracket of the array was read
+	private boolean finished;
+
+    /**
+     * Constructor
+     *
+     * @param is
+     *            the input stream with the UTF-8 JSON content
+     */
+	public JSONArrayReader(InputStream is) throws UnsupportedEncodingException {
+        if (is == null) throw new IllegalArgumentException("is");
+		reader = new BufferedReader(new InputStreamReader(is, "UTF-8"));
+	}
+
+    /**
+     * Get the next object of the array
+     *
+     * @return the next object or null if the end of the array was reached
+     * @throws IOException
+     *             if the stream can not be read
+     * @throws JSONException
+     *             if the content is not a JSON array of objects
+     */
+	public JSONObject next() throws IOException, JSONException {
+		if (finished) {
+			return null;
+		}
+		int c = nextClean();
+		if (!started) {
+			if (c != '[') {
+				throw new JSONException("A JSON array text must start with '['");
+			}
+			started = true;
+			c = nextClean();
+		} else if (c == ',') {
+			c = nextClean();
+		}
+		if (c == ']') {
+			finished = true;
+			// consume the rest of the stream, so the whole content was read
+			while (reader.read() != -1) {
+				;
+			}
+			return null;
+		}
+		if (c != '{') {
+			throw new JSONException("Expected a JSON object instead of " + (c == -1 ? "end of stream" : "'" + (char) c + "'"));
+		}
+
+		// collect the object text up to the matching brace
+		buffer.setLength(0);
+		buffer.append((char) c);
+		int depth = 1;
+		boolean string = false;
+		while (depth > 0) {
+			c = reader.read();
+			if (c == -1) {
+				throw new JSONException("Unterminated JSON object");
+			}
+			buffer.append((char) c);
+			if (string) {
+				if (c == '\\') {
+					c = reader.read();
+					if (c == -1) {
+						throw new JSONException("Unterminated JSON string");
+					}
+					buffer.append((char) c);
+				} else if (c == '"') {
+					string = false;
+				}
+			} else if (c == '"') {
+				string = true;
+			} else if (c == '{' || c == '[') {
+				depth++;
+			} else if (c == '}' || c == ']') {
+				depth--;
+			}
+		}
+		return new JSONObject(buffer.toString());
+	}
+
+    /**
+     * Close the stream
+     */
+	public void close() {
+		try {
+			reader.close();
+		} catch (IOException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+		}
+	}
+
+    /**
+     * Read the next character that is not a white space
+     *
+     * @return the character or -1 at the end of the stream
+     */
+	private int nextClean() throws IOException {
+		int c;
+		do {
+			c = reader.read();
+		} while (c != -1 && Character.isWhitespace((char) c));
+		return c;
+	}
+}
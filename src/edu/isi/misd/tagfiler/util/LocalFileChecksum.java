@@ -17,13 +17,8 @@ package edu.isi.misd.tagfiler.util;
  */
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 
-import javax.xml.crypto.dsig.DigestMethod;
-
-import org.apache.commons.codec.digest.DigestUtils;
-
 import edu.isi.misd.tagfiler.exception.FatalException;
 
 /**
@@ -34,9 +29,6 @@ import edu.isi.misd.tagfiler.exception.FatalException;
  */
 public final class LocalFileChecksum {
 
-    private static final String digestType = TagFilerProperties
-            .getProperty("tagfiler.checksum.type");
-
     /**
      * Computes a checksum on a file, given the proper message digest
      * implementation
@@ -49,32 +41,38 @@ public final class LocalFileChecksum {
      * @thows FatalException if the checksum cannot be constructed.
      */
     public static String computeFileChecksum(File file) throws FatalException {
-        if (file == null) throw new IllegalArgumentException("file");
+        return computeFileChecksum(file, DigestProviders.getDefault());
+    }
+
+    /**
+     * Computes a checksum on a file with a given digest provider
+     * 
+     * @param file
+     *            file to read
+     * @param provider
+     *            the digest provider
+     * @return the checksum bytes of the file
+     * @thows FatalException if the checksum cannot be constructed.
+     */
+    public static String computeFileChecksum(File file, DigestProvider provider) throws FatalException {
+        if (file == null || provider == null) throw new IllegalArgumentException(""+file+", "+provider);
 
-        String checksum = null;
+        // a checksum computed before is reused if the file did not change
+        ChecksumCache cache = ChecksumCache.getDefault();
+        String checksum = cache != null ? cache.get(file, provider.getName()) : null;
+        if (checksum != null) {
+        	return checksum;
+        }
 
-        FileInputStream stream = null;
+        ChecksumCache.Stamp stamp = ChecksumCache.stamp(file);
         try {
-            stream = new FileInputStream(file);
-            if (DigestMethod.SHA512.equals(digestType)) {
-                checksum = DigestUtils.sha512Hex(stream);
-            } else if (DigestMethod.SHA256.equals(digestType)) {
-                checksum = DigestUtils.sha256Hex(stream);
-            } else if (DigestMethod.SHA1.equals(digestType)) {
-                checksum = DigestUtils.shaHex(stream);
-            } else {
-                checksum = DigestUtils.md5Hex(stream);
-            }
+            checksum = FileHasher.digest(file, provider);
         } catch (IOException e) {
             e.printStackTrace();
             throw new FatalException(e);
-        } finally {
-            if (stream != null) {
-                try {
-                    stream.close();
-                } catch (IOException e) {
-                }
-            }
+        }
+        if (cache != null) {
+        	cache.put(file, stamp, provider.getName(), checksum);
         }
         return checksum;
     }
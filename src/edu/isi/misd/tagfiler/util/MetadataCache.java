@@ -0,0 +1,379 @@
+package edu.isi.misd.tagfiler.util;
+
+/* 
+ * Copyright 2010 University of Southern California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Properties;
+
+/**
+ * On-disk cache of the dataset metadata query results.
+ * A result is stored with its HTTP validators (ETag and Last-Modified),
+ * so it can be revalidated with a conditional request.
+ * The results of immutable queries are reused without any request.
+ *
+ * @author agent
+ *
+ */
+public class MetadataCache {
+
+	private static final String ETAG = "etag";
+
+	private static final String LAST_MODIFIED = "last-modified";
+
+	private static final String IMMUTABLE = "immutable";
+
+	private static final String URL = "url";
+
+	/**
+	 * A cached query result
+	 *
+	 */
+	public static class Entry {
+
+	    // the file with the query result
+		private File data;
+
+	    // the entity tag of the result or null
+		private String etag;
+
+	    // the last modification date of the result or null
+		private String lastModified;
+
+	    // true if the result never changes
+		private boolean immutable;
+
+		public String getEtag() {
+			return etag;
+		}
+
+		public String getLastModified() {
+			return lastModified;
+		}
+
+		public boolean isImmutable() {
+			return immutable;
+		}
+
+	    /**
+	     * Open the cached result
+	     *
+	     * @return the input stream of the result
+	     */
+		public InputStream open() throws FileNotFoundException {
+			return new FileInputStream(data);
+		}
+
+	    /**
+	     * Read the cached result
+	     *
+	     * @return the content of the result
+	     */
+		public byte[] read() throws IOException {
+			InputStream is = open();
+			try {
+				ByteArrayOutputStream content = new ByteArrayOutputStream();
+				byte buffer[] = new byte[8192];
+				int res;
+				while ((res = is.read(buffer)) != -1) {
+					content.write(buffer, 0, res);
+				}
+				return content.toByteArray();
+			} finally {
+				is.close();
+			}
+		}
+	}
+
+    // the cache directory
+	private File dir;
+
+	// the number of requests avoided or answered with 304
+	private int hits;
+
+	// the number of results stored
+	private int stores;
+
+    /**
+     * Constructor
+     *
+     * @param dir
+     *            the cache directory; it is created if it does not exist
+     */
+	public MetadataCache(File dir) {
+        if (dir == null) throw new IllegalArgumentException("dir");
+		this.dir = dir;
+		dir.mkdirs();
+	}
+
+    /**
+     * Get the cached result of a query
+     *
+     * @param url
+     *            the query URL
+     * @return the cached result or null if the query is not cached
+     */
+	public synchronized Entry get(String url) {
+		String key = getKey(url);
+		File meta = new File(dir, key + ".properties");
+		File data = new File(dir, key + ".json");
+		if (!meta.isFile() || !data.isFile()) {
+			return null;
+		}
+		Properties properties = new Properties();
+		try {
+			FileInputStream fis = new FileInputStream(meta);
+			try {
+				properties.load(fis);
+			} finally {
+				fis.close();
+			}
+		} catch (IOException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+			return null;
+		}
+		if (!url.equals(properties.getProperty(URL))) {
+			return null;
+		}
+		Entry entry = new Entry();
+		entry.data = data;
+		entry.etag = properties.getProperty(ETAG);
+		entry.lastModified = properties.getProperty(LAST_MODIFIED);
+		entry.immutable = Boolean.valueOf(properties.getProperty(IMMUTABLE)).booleanValue();
+		return entry;
+	}
+
+    /**
+     * Record that a cached result was reused
+     */
+	public synchronized void hit() {
+		hits++;
+	}
+
+    /**
+     * Check if a result can be cached
+     *
+     * @param etag
+     *            the entity tag of the result or null
+     * @param lastModified
+     *            the last modification date of the result or null
+     * @param immutable
+     *            true if the result never changes
+     * @return true if the result has validators or is immutable
+     */
+	public boolean isCacheable(String etag, String lastModified, boolean immutable) {
+		return immutable || etag != null || lastModified != null;
+	}
+
+    /**
+     * Store the result of a query
+     *
+     * @param url
+     *            the query URL
+     * @param etag
+     *            the entity tag of the result or null
+     * @param lastModified
+     *            the last modification date of the result or null
+     * @param immutable
+     *            true if the result never changes
+     * @param content
+     *            the result content
+     */
+	public void store(String url, String etag, String lastModified, boolean immutable, byte content[]) {
+		try {
+			File temp = File.createTempFile("query", ".tmp", dir);
+			FileOutputStream fos = new FileOutputStream(temp);
+			try {
+				fos.write(content);
+			} finally {
+				fos.close();
+			}
+			commit(url, etag, lastModified, immutable, temp);
+		} catch (IOException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+		}
+	}
+
+    /**
+     * Store the result of a query while it is read
+     * The result is stored only if the returned stream is read up to its end
+     *
+     * @param url
+     *            the query URL
+     * @param etag
+     *            the entity tag of the result or null
+     * @param lastModified
+     *            the last modification date of the result or null
+     * @param immutable
+     *            true if the result never changes
+     * @param is
+     *            the input stream of the result
+     * @return the input stream to be read instead of the original one
+     */
+	public InputStream store(final String url, final String etag, final String lastModified, final boolean immutable, InputStream is) {
+		final File temp;
+		final OutputStream os;
+		try {
+			temp = File.createTempFile("query", ".tmp", dir);
+			os = new FileOutputStream(temp);
+		} catch (IOException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+			return is;
+		}
+		return new FilterInputStream(is) {
+			// true if the end of the stream was reached
+			private boolean eof;
+
+			// true if the copy has failed
+			private boolean failed;
+
+			public int read() throws IOException {
+				int c = super.read();
+				if (c == -1) {
+					eof = true;
+				} else {
+					write(new byte[] { (byte) c }, 0, 1);
+				}
+				return c;
+			}
+
+			public int read(byte b[], int off, int len) throws IOException {
+				int res = super.read(b, off, len);
+				if (res == -1) {
+					eof = true;
+				} else {
+					write(b, off, res);
+				}
+				return res;
+			}
+
+			public void close() throws IOException {
+				try {
+					os.close();
+				} catch (IOException e) {
+					failed = true;
+				}
+				if (eof && !failed) {
+					commit(url, etag, lastModified, immutable, temp);
+				} else {
+					temp.delete();
+				}
+				super.close();
+			}
+
+			private void write(byte b[], int off, int len) {
+				if (failed) {
+					return;
+				}
+				try {
+					os.write(b, off, len);
+				} catch (IOException e) {
+					failed = true;
+				}
+			}
+		};
+	}
+
+    /**
+     * Get the statistics of the cache
+     *
+     * @return the number of reused and stored results
+     */
+	public synchronized String getStatistics() {
+		return hits + " cached result(s) reused, " + stores + " result(s) stored";
+	}
+
+    /**
+     * Replace the cached result of a query
+     *
+     * @param url
+     *            the query URL
+     * @param etag
+     *            the entity tag of the result or null
+     * @param lastModified
+     *            the last modification date of the result or null
+     * @param immutable
+     *            true if the result never changes
+     * @param temp
+     *            the temporary file with the result content
+     */
+	private synchronized void commit(String url, String etag, String lastModified, boolean immutable, File temp) {
+		String key = getKey(url);
+		File meta = new File(dir, key + ".properties");
+		File data = new File(dir, key + ".json");
+		Properties properties = new Properties();
+		properties.setProperty(URL, url);
+		if (etag != null) {
+			properties.setProperty(ETAG, etag);
+		}
+		if (lastModified != null) {
+			properties.setProperty(LAST_MODIFIED, lastModified);
+		}
+		properties.setProperty(IMMUTABLE, "" + immutable);
+		try {
+			// the old metadata is removed first, so a partial replace is never used
+			meta.delete();
+			data.delete();
+			if (!temp.renameTo(data)) {
+				temp.delete();
+				return;
+			}
+			FileOutputStream fos = new FileOutputStream(meta);
+			try {
+				properties.store(fos, null);
+			} finally {
+				fos.close();
+			}
+			stores++;
+		} catch (IOException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+			meta.delete();
+		}
+	}
+
+    /**
+     * Get the cache key of a query
+     *
+     * @param url
+     *            the query URL
+     * @return the hexa digest of the URL
+     */
+	private static String getKey(String url) {
+		try {
+			MessageDigest md = MessageDigest.getInstance("SHA-1");
+			return DatasetUtils.hexChecksum(md.digest(url.getBytes("UTF-8")));
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
@@ -68,6 +68,38 @@ public class TagFilerProperties {
         return properties.getProperty(propertyName);
     }
 
+    /**
+     * 
+     * @param propertyName
+     *            name of the property
+     * @param defaultValue
+     *            value returned if the property is not set
+     * @return the value of the property as a long
+     */
+    public static long getProperty(String propertyName, long defaultValue) {
+        String value = getProperty(propertyName);
+        if (value == null || value.trim().length() == 0) {
+            return defaultValue;
+        }
+        return Long.parseLong(value.trim());
+    }
+
+    /**
+     * 
+     * @param propertyName
+     *            name of the property
+     * @param defaultValue
+     *            value returned if the property is not set
+     * @return the value of the property as a boolean
+     */
+    public static boolean getProperty(String propertyName, boolean defaultValue) {
+        String value = getProperty(propertyName);
+        if (value == null || value.trim().length() == 0) {
+            return defaultValue;
+        }
+        return Boolean.parseBoolean(value.trim());
+    }
+
     /**
      * 
      * @param propertyName
@@ -0,0 +1,67 @@
+package edu.isi.misd.tagfiler;
+
+/* 
+ * Copyright 2010 University of Southern California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Base class of the tests
+ * Every public method without arguments whose name starts with "test" is run by the TestRunner
+ *
+ * @author agent
+ *
+ */
+public abstract class TestCase {
+
+    /**
+     * Fail the test
+     *
+     * @param message
+     *            the failure message
+     */
+	protected static void fail(String message) {
+		throw new AssertionError(message);
+	}
+
+    /**
+     * Check a condition
+     *
+     * @param message
+     *            the failure message
+     * @param condition
+     *            the condition to be true
+     */
+	protected static void assertTrue(String message, boolean condition) {
+		if (!condition) {
+			fail(message);
+		}
+	}
+
+    /**
+     * Check two values are equal
+     *
+     * @param message
+     *            the failure message
+     * @param expected
+     *            the expected value
+     * @param actual
+     *            the actual value
+     */
+	protected static void assertEquals(String message, Object expected, Object actual) {
+		if (expected == null ? actual != null : !expected.equals(actual)) {
+			fail(message + ": expected <" + expected + "> but was <" + actual + ">");
+		}
+	}
+}
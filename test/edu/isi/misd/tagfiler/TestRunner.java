@@ -0,0 +1,93 @@
+package edu.isi.misd.tagfiler;
+
+/* 
+ * Copyright 2010 University of Southern California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Runs the test classes found in a class directory
+ * The test classes are the subclasses of TestCase whose names end with "Test"
+ * The process exits with status 1 if a test fails
+ *
+ * @author agent
+ *
+ */
+public class TestRunner {
+
+	public static void main(String args[]) throws Exception {
+		File root = new File(args.length > 0 ? args[0] : ".");
+		List<String> classes = new ArrayList<String>();
+		findTests(root, "", classes);
+		Collections.sort(classes);
+		int tests = 0;
+		int failures = 0;
+		for (String name : classes) {
+			Class<?> cls = Class.forName(name);
+			if (!TestCase.class.isAssignableFrom(cls) || Modifier.isAbstract(cls.getModifiers())) {
+				continue;
+			}
+			for (Method method : cls.getMethods()) {
+				if (!method.getName().startsWith("test") || method.getParameterTypes().length != 0) {
+					continue;
+				}
+				tests++;
+				long t0 = System.currentTimeMillis();
+				try {
+					method.invoke(cls.getDeclaredConstructor().newInstance());
+					System.out.println("PASS " + name + "." + method.getName() + " (" + (System.currentTimeMillis() - t0) + " ms)");
+				} catch (InvocationTargetException e) {
+					failures++;
+					System.out.println("FAIL " + name + "." + method.getName());
+					e.getCause().printStackTrace(System.out);
+				}
+			}
+		}
+		System.out.println("Tests run: " + tests + ", Failures: " + failures);
+		System.exit(failures == 0 ? 0 : 1);
+	}
+
+    /**
+     * Collect the names of the test classes
+     *
+     * @param dir
+     *            the directory to scan
+     * @param packageName
+     *            the package of the directory
+     * @param classes
+     *            the list where the class names are added
+     */
+	private static void findTests(File dir, String packageName, List<String> classes) {
+		File files[] = dir.listFiles();
+		if (files == null) {
+			return;
+		}
+		for (File file : files) {
+			String name = file.getName();
+			if (file.isDirectory()) {
+				findTests(file, packageName + name + ".", classes);
+			} else if (name.endsWith("Test.class") && name.indexOf('$') == -1) {
+				classes.add(packageName + name.substring(0, name.length() - ".class".length()));
+			}
+		}
+	}
+}
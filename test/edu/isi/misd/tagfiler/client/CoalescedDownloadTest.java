@@ -0,0 +1,166 @@
+package edu.isi.misd.tagfiler.client;
+
+/* 
+ * Copyright 2010 University of Southern California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import edu.isi.misd.tagfiler.TestCase;
+import edu.isi.misd.tagfiler.util.DatasetUtils;
+import edu.isi.misd.tagfiler.util.DigestProviders;
+import edu.isi.misd.tagfiler.util.FileWrapper;
+
+/**
+ * Tests of the downloads with merged chunk requests
+ *
+ * @author agent
+ *
+ */
+public class CoalescedDownloadTest extends TestCase {
+
+	// the size of a chunk
+	private static final int CHUNK_SIZE = 1024;
+
+	// the content of the file
+	private byte content[];
+
+	// the ranges requested from the server
+	private List<String> ranges = new ArrayList<String>();
+
+	// true after a merged range response was broken
+	private boolean broken;
+
+    /**
+     * Server answering the ranged GET requests
+     * The first response of a merged range is broken in the middle of its second block
+     */
+	private class RangeHandler implements HttpHandler {
+		public void handle(HttpExchange exchange) throws IOException {
+			String range = exchange.getRequestHeaders().getFirst("Range");
+			int first = 0;
+			int last = content.length - 1;
+			if (range != null) {
+				String values[] = range.substring("bytes=".length()).split("-");
+				first = Integer.parseInt(values[0]);
+				last = Integer.parseInt(values[1]);
+			}
+			int length = last - first + 1;
+			boolean breakStream = false;
+			synchronized (CoalescedDownloadTest.this) {
+				ranges.add(first + "-" + last);
+				if (!broken && length >= 2 * CHUNK_SIZE) {
+					broken = breakStream = true;
+				}
+			}
+			exchange.sendResponseHeaders(range != null ? 206 : 200, length);
+			OutputStream os = exchange.getResponseBody();
+			try {
+				os.write(content, first, breakStream ? CHUNK_SIZE + CHUNK_SIZE / 2 : length);
+				os.flush();
+			} finally {
+				if (breakStream) {
+					// close the connection before the end of the range
+					exchange.close();
+				} else {
+					os.close();
+				}
+			}
+		}
+	}
+
+	public void testBrokenMergedRangeIsResumed() throws Exception {
+		content = new byte[16 * CHUNK_SIZE + 100];
+		new Random(7).nextBytes(content);
+		StandInServer server = new StandInServer(new RangeHandler());
+		File dir = File.createTempFile("coalesce", "");
+		dir.delete();
+		dir.mkdirs();
+		try {
+			RecordingListener listener = new RecordingListener();
+			listener.enableChecksum = true;
+			ConcurrentJakartaClient client = new ConcurrentJakartaClient(2, 8192, 30000, listener);
+			StandInServer.allowPlainHttp(client);
+			client.setBaseURL(server.getURL() + "/tagfiler/file/name=test");
+			client.setChunked(true);
+			client.setChunkSize(CHUNK_SIZE);
+			client.setCoalesceChunks(4);
+			client.setRetryCount(3);
+
+			MessageDigest md = DigestProviders.getDefault().newDigest();
+			md.update(content);
+			HashMap<String, String> checksumMap = new HashMap<String, String>();
+			checksumMap.put("data.bin", DatasetUtils.hexChecksum(md.digest()));
+			HashMap<String, Long> bytesMap = new HashMap<String, Long>();
+			bytesMap.put("data.bin", (long) content.length);
+			List<FileWrapper> files = new ArrayList<FileWrapper>();
+			files.add(new FileWrapper("data.bin", 0, 0, content.length));
+			client.download(files, dir.getAbsolutePath(), checksumMap, bytesMap, null);
+
+			assertTrue("the download did not complete: " + listener.failures, listener.awaitCompletion(30000));
+			assertTrue("no merged range was requested: " + ranges, broken);
+			assertEquals("file content", DatasetUtils.hexChecksum(content), DatasetUtils.hexChecksum(read(new File(dir, "data.bin"))));
+
+			// the retry of the broken range starts after its first block, which was written
+			String brokenRange = null;
+			for (String range : ranges) {
+				String values[] = range.split("-");
+				if (Integer.parseInt(values[1]) - Integer.parseInt(values[0]) + 1 >= 2 * CHUNK_SIZE) {
+					brokenRange = range;
+					break;
+				}
+			}
+			String values[] = brokenRange.split("-");
+			String resumed = (Integer.parseInt(values[0]) + CHUNK_SIZE) + "-" + values[1];
+			assertTrue("the broken range " + brokenRange + " was not resumed: " + ranges, ranges.contains(resumed));
+		} finally {
+			server.stop();
+			for (File file : dir.listFiles()) {
+				file.delete();
+			}
+			dir.delete();
+		}
+	}
+
+    /**
+     * Read a file
+     *
+     * @param file
+     *            the file
+     * @return the file content
+     */
+	static byte[] read(File file) throws IOException {
+		byte buffer[] = new byte[(int) file.length()];
+		FileInputStream fis = new FileInputStream(file);
+		int offset = 0;
+		int res;
+		while (offset < buffer.length && (res = fis.read(buffer, offset, buffer.length - offset)) != -1) {
+			offset += res;
+		}
+		fis.close();
+		return buffer;
+	}
+}
@@ -0,0 +1,137 @@
+package edu.isi.misd.tagfiler.client;
+
+/* 
+ * Copyright 2010 University of Southern California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import edu.isi.misd.tagfiler.TestCase;
+import edu.isi.misd.tagfiler.util.DatasetUtils;
+import edu.isi.misd.tagfiler.util.FileWrapper;
+
+/**
+ * Tests of the Content-MD5 of the whole file uploads
+ *
+ * @author agent
+ *
+ */
+public class ContentDigestUploadTest extends TestCase {
+
+	// the Content-MD5 headers of the uploads
+	private List<String> digests = new ArrayList<String>();
+
+	// the MD5 digests of the uploaded bodies
+	private List<String> bodies = new ArrayList<String>();
+
+    /**
+     * Server rejecting the first upload with a given error description
+     */
+	private class UploadHandler implements HttpHandler {
+
+		// the error description of the first upload
+		private String error;
+
+		UploadHandler(String error) {
+			this.error = error;
+		}
+
+		public void handle(HttpExchange exchange) throws IOException {
+			byte body[] = StandInServer.readBody(exchange);
+			if (!exchange.getRequestMethod().equals("PUT")) {
+				StandInServer.send(exchange, 204, new byte[0]);
+				return;
+			}
+			boolean reject;
+			synchronized (ContentDigestUploadTest.this) {
+				digests.add(exchange.getRequestHeaders().getFirst("Content-MD5"));
+				bodies.add(DatasetUtils.contentMD5(body, 0, body.length));
+				reject = digests.size() == 1;
+			}
+			if (reject) {
+				exchange.getResponseHeaders().add("X-Error-Description", URLEncoder.encode(error, "UTF-8"));
+				StandInServer.send(exchange, 400, new byte[0]);
+			} else {
+				String path = exchange.getRequestURI().getPath();
+				exchange.getResponseHeaders().add("Location", path + "@1");
+				StandInServer.send(exchange, 201, new byte[0]);
+			}
+		}
+	}
+
+	public void testDigestMismatchIsResent() throws Exception {
+		RecordingListener listener = upload(new UploadHandler("Content-MD5 mismatch"));
+		assertTrue("the upload did not complete: " + listener.failures, listener.successes > 0);
+		assertEquals("uploads", 2, digests.size());
+		for (int i = 0; i < digests.size(); i++) {
+			assertEquals("Content-MD5", bodies.get(i), digests.get(i));
+		}
+	}
+
+	public void testOtherBadRequestIsNotResent() throws Exception {
+		RecordingListener listener = upload(new UploadHandler("Invalid tag"));
+		assertTrue("the upload did not fail", listener.failures.size() > 0);
+		assertEquals("uploads", 1, digests.size());
+		assertEquals("Content-MD5", bodies.get(0), digests.get(0));
+	}
+
+    /**
+     * Upload a file as a single request
+     *
+     * @param handler
+     *            the handler of the server
+     * @return the listener of the upload
+     */
+	private RecordingListener upload(HttpHandler handler) throws Exception {
+		StandInServer server = new StandInServer(handler);
+		File dir = File.createTempFile("digest", "");
+		dir.delete();
+		dir.mkdirs();
+		File file = new File(dir, "data.bin");
+		try {
+			byte content[] = new byte[10000];
+			new Random(3).nextBytes(content);
+			FileOutputStream fos = new FileOutputStream(file);
+			fos.write(content);
+			fos.close();
+
+			RecordingListener listener = new RecordingListener();
+			ConcurrentJakartaClient client = new ConcurrentJakartaClient(1, 8192, 30000, listener);
+			StandInServer.allowPlainHttp(client);
+			client.setBaseURL(server.getURL() + "/tagfiler/file/name=test");
+			client.setChunkDigest(true);
+			client.setRetryCount(3);
+			List<FileWrapper> files = new ArrayList<FileWrapper>();
+			files.add(new FileWrapper(file.getAbsolutePath(), 0, 0, content.length));
+			client.upload(files, dir.getAbsolutePath(), new HashMap<String, String>(), new HashMap<String, Integer>());
+			listener.awaitCompletion(30000);
+			return listener;
+		} finally {
+			server.stop();
+			file.delete();
+			dir.delete();
+		}
+	}
+}
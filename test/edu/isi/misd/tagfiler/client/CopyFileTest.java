@@ -0,0 +1,94 @@
+package edu.isi.misd.tagfiler.client;
+
+/* 
+ * Copyright 2010 University of Southern California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import edu.isi.misd.tagfiler.TestCase;
+import edu.isi.misd.tagfiler.util.DatasetUtils;
+
+/**
+ * Tests of the file versions created by copying the content of an uploaded duplicate
+ *
+ * @author agent
+ *
+ */
+public class CopyFileTest extends TestCase {
+
+	// the checksum of the content
+	private static final String CHECKSUM = "e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855";
+
+	// the method of the request
+	private String method;
+
+	// the path of the request
+	private String path;
+
+	// the Destination header of the request
+	private String destination;
+
+    /**
+     * Server creating the copied version
+     */
+	private class CopyHandler implements HttpHandler {
+		public void handle(HttpExchange exchange) throws IOException {
+			StandInServer.readBody(exchange);
+			method = exchange.getRequestMethod();
+			path = exchange.getRequestURI().getRawPath();
+			destination = exchange.getRequestHeaders().getFirst("Destination");
+			exchange.getResponseHeaders().add("Location", URI.create(destination).getRawPath() + ";version=1");
+			StandInServer.send(exchange, 201, new byte[0]);
+		}
+	}
+
+	public void testCopyCarriesTheUploadTags() throws Exception {
+		StandInServer server = new StandInServer(new CopyHandler());
+		try {
+			JakartaClient client = new JakartaClient(1, 8192, 30000);
+			StandInServer.allowPlainHttp(client);
+			String source = DatasetUtils.getDatasetUrl("test/a/data.bin", 1, server.getURL() + "/tagfiler");
+			String baseURL = DatasetUtils.getBaseUploadQuery("test", server.getURL() + "/tagfiler");
+			ClientURLResponse response = client.copyFile(source, 
+					DatasetUtils.getCopyDestination(baseURL, "/b/copy of data.bin", 12345, CHECKSUM), null);
+			assertEquals("status", 201, response.getStatus());
+			response.release();
+
+			assertEquals("method", "COPY", method);
+			assertEquals("source", "/tagfiler/file/name=test%2Fa%2Fdata.bin;version=1", path);
+			URI uri = URI.create(destination);
+			assertEquals("destination", "/tagfiler/file/name=test%2Fb%2Fcopy+of+data.bin", uri.getRawPath());
+			Map<String, String> tags = new HashMap<String, String>();
+			for (String param : uri.getRawQuery().split("&")) {
+				String values[] = param.split("=", 2);
+				tags.put(URLDecoder.decode(values[0], "UTF-8"), URLDecoder.decode(values[1], "UTF-8"));
+			}
+			assertEquals("bytes", "12345", tags.get("bytes"));
+			assertEquals("sha256sum", CHECKSUM, tags.get("sha256sum"));
+			assertEquals("check point offset", "12345", tags.get("check point offset"));
+			assertEquals("version", 1, DatasetUtils.getVersion(response.getLocationString()));
+		} finally {
+			server.stop();
+		}
+	}
+}
@@ -0,0 +1,67 @@
+package edu.isi.misd.tagfiler.client;
+
+/* 
+ * Copyright 2010 University of Southern California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.isi.misd.tagfiler.TestCase;
+import edu.isi.misd.tagfiler.util.DatasetUtils;
+
+/**
+ * Tests of the streamed body registering the files of a dataset version
+ *
+ * @author agent
+ *
+ */
+public class DatasetFilesEntityTest extends TestCase {
+
+	public void testRepeatedFileIsRegisteredOnce() throws Exception {
+		List<String> files = new ArrayList<String>();
+		Map<String, Integer> versionMap = new HashMap<String, Integer>();
+		String names[] = {"/data/a.txt", "/data/b c.txt", "/data/a.txt", "/data/d.txt", "/data/b c.txt"};
+		for (String name : names) {
+			files.add(name);
+			versionMap.put(name, 2);
+		}
+		DatasetFilesEntity entity = new DatasetFilesEntity("test", "/data", files, versionMap);
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		entity.writeTo(body);
+		String expected = DatasetUtils.getDatasetFileEntry("test", "/data", "/data/a.txt", 2) + "&" +
+			DatasetUtils.getDatasetFileEntry("test", "/data", "/data/b c.txt", 2) + "&" +
+			DatasetUtils.getDatasetFileEntry("test", "/data", "/data/d.txt", 2);
+		assertEquals("body", expected, body.toString("US-ASCII"));
+		assertEquals("Content-Length", (long) body.size(), entity.getContentLength());
+		assertEquals("files", 3, entity.getFilesCount());
+	}
+
+	public void testDuplicateFirstEntryHasNoLeadingSeparator() throws Exception {
+		List<String> files = new ArrayList<String>();
+		Map<String, Integer> versionMap = new HashMap<String, Integer>();
+		files.add("/data/a.txt");
+		files.add("/data/a.txt");
+		versionMap.put("/data/a.txt", 1);
+		DatasetFilesEntity entity = new DatasetFilesEntity("test", "/data", files, versionMap);
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		entity.writeTo(body);
+		assertEquals("body", DatasetUtils.getDatasetFileEntry("test", "/data", "/data/a.txt", 1), body.toString("US-ASCII"));
+		assertEquals("Content-Length", (long) body.size(), entity.getContentLength());
+	}
+}
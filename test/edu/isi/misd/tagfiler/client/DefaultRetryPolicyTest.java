@@ -0,0 +1,78 @@
+package edu.isi.misd.tagfiler.client;
+
+/* 
+ * Copyright 2010 University of Southern California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import edu.isi.misd.tagfiler.TestCase;
+
+/**
+ * Tests of the default retry policy
+ *
+ * @author agent
+ *
+ */
+public class DefaultRetryPolicyTest extends TestCase {
+
+	public void testCircuitIsScopedPerHost() {
+		DefaultRetryPolicy policy = new DefaultRetryPolicy(3, 10, 100, 2, 60000);
+		policy.recordFailure("a:80", "IOException");
+		policy.recordFailure("a:80", "IOException");
+		long t0 = System.currentTimeMillis();
+		policy.awaitAvailable("b:80");
+		assertTrue("the circuit of another host is open", System.currentTimeMillis() - t0 < 1000);
+	}
+
+	public void testCircuitOpensAndLogsThroughListener() {
+		RecordingListener listener = new RecordingListener();
+		DefaultRetryPolicy policy = new DefaultRetryPolicy(3, 10, 100, 2, 200);
+		policy.setListener(listener);
+		policy.recordFailure("a:80", "IOException");
+		assertEquals("messages before the threshold", 0, listener.messages.size());
+		policy.recordFailure("a:80", "HTTP 503");
+		assertEquals("messages after the threshold", 1, listener.messages.size());
+		long t0 = System.currentTimeMillis();
+		policy.awaitAvailable("a:80");
+		assertTrue("the open circuit did not pause the thread", System.currentTimeMillis() - t0 >= 150);
+		assertEquals("IOException count", Integer.valueOf(1), policy.getRetryCounts().get("IOException"));
+	}
+
+	public void testSuccessClosesCircuit() {
+		DefaultRetryPolicy policy = new DefaultRetryPolicy(3, 10, 100, 1, 60000);
+		policy.recordFailure("a:80", "IOException");
+		policy.recordSuccess("a:80");
+		long t0 = System.currentTimeMillis();
+		policy.awaitAvailable("a:80");
+		assertTrue("the circuit is still open", System.currentTimeMillis() - t0 < 1000);
+	}
+
+	public void testInterruptIsPreserved() {
+		DefaultRetryPolicy policy = new DefaultRetryPolicy(3, 10, 100, 1, 60000);
+		policy.recordFailure("a:80", "IOException");
+		Thread.currentThread().interrupt();
+		long t0 = System.currentTimeMillis();
+		policy.awaitAvailable("a:80");
+		boolean interrupted = Thread.interrupted();
+		assertTrue("the wait was not interrupted", System.currentTimeMillis() - t0 < 1000);
+		assertTrue("the interrupt status was lost", interrupted);
+	}
+
+	public void testDelayIsCapped() {
+		DefaultRetryPolicy policy = new DefaultRetryPolicy(20, 100, 1000, 5, 1000);
+		assertTrue("backoff delay", policy.getDelay(15, -1) <= 1250);
+		assertEquals("Retry-After delay", Long.valueOf(1000), Long.valueOf(policy.getDelay(1, 5000)));
+		assertTrue("retries", policy.canRetry(19) && !policy.canRetry(20));
+	}
+}
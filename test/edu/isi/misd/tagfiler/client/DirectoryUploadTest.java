@@ -0,0 +1,150 @@
+package edu.isi.misd.tagfiler.client;
+
+/* 
+ * Copyright 2010 University of Southern California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import edu.isi.misd.tagfiler.TestCase;
+import edu.isi.misd.tagfiler.util.DirectoryScanner;
+
+/**
+ * Tests of the upload of a directory while it is scanned
+ *
+ * @author agent
+ *
+ */
+public class DirectoryUploadTest extends TestCase {
+
+	// the size of a chunk
+	private static final int CHUNK_SIZE = 1024;
+
+	// the number of subdirectories
+	private static final int DIRS = 4;
+
+	// the number of files in each subdirectory
+	private static final int FILES = 25;
+
+	// the names of the uploaded files
+	private Set<String> uploaded = new HashSet<String>();
+
+	// the number of files found by the scan
+	private int found;
+
+	// the number of files uploaded when the scan passed half of the files
+	private int uploadedDuringScan = -1;
+
+    /**
+     * Server storing the chunks and recording the uploaded files
+     */
+	private class RecordingHandler implements HttpHandler {
+		public void handle(HttpExchange exchange) throws IOException {
+			StandInServer.readBody(exchange);
+			String path = exchange.getRequestURI().getPath();
+			if (exchange.getRequestMethod().equals("PUT")) {
+				synchronized (DirectoryUploadTest.this) {
+					uploaded.add(path.replaceAll(";.*", ""));
+					DirectoryUploadTest.this.notifyAll();
+				}
+			}
+			if (path.indexOf(";version=") == -1) {
+				path += ";version=1";
+			}
+			exchange.getResponseHeaders().add("Location", path);
+			// the stand-in server can miss a request arriving on a busy kept-alive connection
+			exchange.getResponseHeaders().add("Connection", "close");
+			StandInServer.send(exchange, exchange.getRequestMethod().equals("PUT") ? 201 : 200, new byte[0]);
+		}
+	}
+
+	public void testUploadStartsDuringTheScan() throws Exception {
+		StandInServer server = new StandInServer(new RecordingHandler());
+		File dir = File.createTempFile("scan", "");
+		dir.delete();
+		dir.mkdirs();
+		try {
+			Random random = new Random(13);
+			for (int i = 0; i < DIRS; i++) {
+				File subdir = new File(dir, "sub" + i);
+				subdir.mkdirs();
+				for (int j = 0; j < FILES; j++) {
+					byte content[] = new byte[2 * CHUNK_SIZE + 10];
+					random.nextBytes(content);
+					FileOutputStream fos = new FileOutputStream(new File(subdir, "data" + j + ".bin"));
+					fos.write(content);
+					fos.close();
+				}
+			}
+
+			RecordingListener listener = new RecordingListener();
+			ConcurrentJakartaClient client = new ConcurrentJakartaClient(3, 8192, 30000, listener);
+			StandInServer.allowPlainHttp(client);
+			client.setBaseURL(server.getURL() + "/tagfiler/file/name=test");
+			client.setChunked(true);
+			client.setChunkSize(CHUNK_SIZE);
+			HashMap<String, Integer> versionMap = new HashMap<String, Integer>();
+			client.uploadDirectory(new File[] { dir }, dir.getAbsolutePath(), new HashMap<String, String>(), versionMap, 
+					new DirectoryScanner.FileHandler() {
+						public void fileFound(String path, long length) {
+							synchronized (DirectoryUploadTest.this) {
+								if (++found == DIRS * FILES / 2) {
+									// the scan goes on only after the first files were uploaded
+									long deadline = System.currentTimeMillis() + 10000;
+									while (uploaded.size() == 0 && System.currentTimeMillis() < deadline) {
+										try {
+											DirectoryUploadTest.this.wait(100);
+										} catch (InterruptedException e) {
+											// TODO Auto-generated catch block
+											e.printStackTrace();
+										}
+									}
+									uploadedDuringScan = uploaded.size();
+								}
+							}
+						}
+					});
+			assertTrue("upload not completed: " + listener.failures + listener.messages, listener.awaitCompletion(30000));
+			assertEquals("found", DIRS * FILES, found);
+			assertTrue("no file uploaded during the scan", uploadedDuringScan > 0);
+			assertEquals("uploaded files", DIRS * FILES, uploaded.size());
+			for (int i = 0; i < DIRS; i++) {
+				for (int j = 0; j < FILES; j++) {
+					String name = "/tagfiler/file/name=test/sub" + i + "/data" + j + ".bin";
+					assertTrue("not uploaded: " + name + " in " + uploaded, uploaded.contains(name));
+				}
+			}
+			assertEquals("versions", DIRS * FILES, versionMap.size());
+		} finally {
+			server.stop();
+			for (File subdir : dir.listFiles()) {
+				for (File file : subdir.listFiles()) {
+					file.delete();
+				}
+				subdir.delete();
+			}
+			dir.delete();
+		}
+	}
+}
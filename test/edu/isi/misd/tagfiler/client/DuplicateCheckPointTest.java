@@ -0,0 +1,176 @@
+package edu.isi.misd.tagfiler.client;
+
+/* 
+ * Copyright 2010 University of Southern California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Random;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import edu.isi.misd.tagfiler.TestCase;
+import edu.isi.misd.tagfiler.util.DatasetUtils;
+import edu.isi.misd.tagfiler.util.DigestProviders;
+import edu.isi.misd.tagfiler.util.FileLinker;
+import edu.isi.misd.tagfiler.util.FileWrapper;
+import edu.isi.misd.tagfiler.util.TagFilerProperties;
+
+/**
+ * Tests of the check point of the files created locally from a downloaded file with the same content
+ *
+ * @author agent
+ *
+ */
+public class DuplicateCheckPointTest extends TestCase {
+
+	// the content of the downloaded file
+	private byte content[];
+
+	// the checksum of the content
+	private String checksum;
+
+    /**
+     * Server answering the file GET requests
+     */
+	private class ContentHandler implements HttpHandler {
+		public void handle(HttpExchange exchange) throws IOException {
+			StandInServer.readBody(exchange);
+			StandInServer.send(exchange, 200, content);
+		}
+	}
+
+    /**
+     * Listener creating a duplicate when the download succeeds
+     * The duplicate is added to the check point; it can be written as if the next duplicate failed
+     */
+	private class DuplicateListener extends RecordingListener {
+
+		// the client of the download
+		ConcurrentJakartaClient client;
+
+		// the download directory
+		File dir;
+
+		// if true, the check point is written after the duplicate was created
+		boolean write;
+
+		public void notifySuccess() {
+			try {
+				File copy = new File(dir, "copy.bin");
+				FileLinker.materialize(new File(dir, "data.bin"), copy, false);
+				client.addCheckPoint("copy.bin", copy.length(), checksum);
+				if (write) {
+					client.writeCheckPoint();
+				}
+			} catch (IOException e) {
+				notifyFailure(e.getMessage(), false);
+				return;
+			}
+			super.notifySuccess();
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	public void testCreatedDuplicateIsInTheCheckPoint() throws Exception {
+		File dir = download(true);
+		try {
+			File checkPoint = new File(dir, TagFilerProperties.getProperty("tagfiler.checkpoint.file"));
+			assertTrue("no check point", checkPoint.isFile());
+			ObjectInputStream in = new ObjectInputStream(new FileInputStream(checkPoint));
+			Hashtable<String, Long> offsets = (Hashtable<String, Long>) in.readObject();
+			HashMap<String, String> checksums = (HashMap<String, String>) in.readObject();
+			in.close();
+			assertEquals("downloaded file offset", Long.valueOf(content.length), offsets.get("data.bin"));
+			assertEquals("duplicate offset", Long.valueOf(content.length), offsets.get("copy.bin"));
+			assertEquals("downloaded file checksum", checksum, checksums.get("data.bin"));
+			assertEquals("duplicate checksum", checksum, checksums.get("copy.bin"));
+		} finally {
+			delete(dir);
+		}
+	}
+
+	public void testCompletedDownloadDeletesTheCheckPoint() throws Exception {
+		File dir = download(false);
+		try {
+			assertTrue("the duplicate was not created", new File(dir, "copy.bin").length() == content.length);
+			assertTrue("check point left", !new File(dir, TagFilerProperties.getProperty("tagfiler.checkpoint.file")).exists());
+		} finally {
+			delete(dir);
+		}
+	}
+
+    /**
+     * Download a file and create its duplicate
+     *
+     * @param write
+     *            if true, the listener writes the check point after the duplicate was created
+     * @return the download directory
+     */
+	private File download(boolean write) throws Exception {
+		content = new byte[20000];
+		new Random(5).nextBytes(content);
+		MessageDigest md = DigestProviders.getDefault().newDigest();
+		md.update(content);
+		checksum = DatasetUtils.hexChecksum(md.digest());
+		StandInServer server = new StandInServer(new ContentHandler());
+		File dir = File.createTempFile("duplicate", "");
+		dir.delete();
+		dir.mkdirs();
+		try {
+			DuplicateListener listener = new DuplicateListener();
+			listener.enableChecksum = true;
+			listener.dir = dir;
+			listener.write = write;
+			ConcurrentJakartaClient client = new ConcurrentJakartaClient(1, 8192, 30000, listener);
+			listener.client = client;
+			StandInServer.allowPlainHttp(client);
+			client.setBaseURL(server.getURL() + "/tagfiler/file/name=test");
+			client.setChunked(true);
+			client.setChunkSize(content.length);
+
+			HashMap<String, String> checksumMap = new HashMap<String, String>();
+			checksumMap.put("data.bin", checksum);
+			HashMap<String, Long> bytesMap = new HashMap<String, Long>();
+			bytesMap.put("data.bin", (long) content.length);
+			List<FileWrapper> files = new ArrayList<FileWrapper>();
+			files.add(new FileWrapper("data.bin", 0, 0, content.length));
+			client.download(files, dir.getAbsolutePath(), checksumMap, bytesMap, null);
+			assertTrue("the download did not complete: " + listener.failures, listener.awaitCompletion(30000));
+		} finally {
+			server.stop();
+		}
+		return dir;
+	}
+
+    /**
+     * Delete the download directory
+     */
+	private static void delete(File dir) {
+		for (File file : dir.listFiles()) {
+			file.delete();
+		}
+		dir.delete();
+	}
+}
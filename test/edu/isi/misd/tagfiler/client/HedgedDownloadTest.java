@@ -0,0 +1,182 @@
+package edu.isi.misd.tagfiler.client;
+
+/* 
+ * Copyright 2010 University of Southern California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import edu.isi.misd.tagfiler.TestCase;
+import edu.isi.misd.tagfiler.util.DatasetUtils;
+import edu.isi.misd.tagfiler.util.DigestProviders;
+import edu.isi.misd.tagfiler.util.FileWrapper;
+import edu.isi.misd.tagfiler.util.TagFilerProperties;
+
+/**
+ * Tests of the hedged download requests
+ *
+ * @author agent
+ *
+ */
+public class HedgedDownloadTest extends TestCase {
+
+	// the size of a chunk
+	private static final int CHUNK_SIZE = 1024;
+
+	// the number of chunks of the file
+	private static final int CHUNKS = 20;
+
+	// the offset of the delayed range
+	private static final int DELAYED_OFFSET = 15 * CHUNK_SIZE;
+
+	// the delay of the first response of the delayed range (milliseconds)
+	private static final long DELAY = 3000;
+
+	// the content of the file
+	private byte content[];
+
+	// the number of requests of the delayed range
+	private int delayedRequests;
+
+	// true after the delayed response was finished
+	private boolean delayedDone;
+
+	// true if the client closed the connection of the delayed response
+	private boolean aborted;
+
+    /**
+     * Server answering the ranged GET requests
+     * The first response of the delayed range stalls after its first bytes
+     */
+	private class DelayHandler implements HttpHandler {
+		public void handle(HttpExchange exchange) throws IOException {
+			String range = exchange.getRequestHeaders().getFirst("Range");
+			int first = 0;
+			int last = content.length - 1;
+			if (range != null) {
+				String values[] = range.substring("bytes=".length()).split("-");
+				first = Integer.parseInt(values[0]);
+				last = Integer.parseInt(values[1]);
+			}
+			int length = last - first + 1;
+			boolean delay = false;
+			if (first == DELAYED_OFFSET) {
+				synchronized (HedgedDownloadTest.this) {
+					delay = (delayedRequests++ == 0);
+				}
+			}
+			exchange.sendResponseHeaders(range != null ? 206 : 200, length);
+			OutputStream os = exchange.getResponseBody();
+			if (!delay) {
+				os.write(content, first, length);
+				os.close();
+				return;
+			}
+			try {
+				os.write(content, first, 100);
+				os.flush();
+				Thread.sleep(DELAY);
+				// the writes fail once the client aborted the response
+				for (int offset = 100; offset < length; offset += 100) {
+					os.write(content, first + offset, Math.min(100, length - offset));
+					os.flush();
+					Thread.sleep(50);
+				}
+				os.close();
+			} catch (IOException e) {
+				synchronized (HedgedDownloadTest.this) {
+					aborted = true;
+				}
+			} catch (InterruptedException e) {
+				// TODO Auto-generated catch block
+				e.printStackTrace();
+			} finally {
+				synchronized (HedgedDownloadTest.this) {
+					delayedDone = true;
+					HedgedDownloadTest.this.notifyAll();
+				}
+				exchange.close();
+			}
+		}
+	}
+
+	public void testHedgedRequestWinsOverDelayedRange() throws Exception {
+		content = new byte[CHUNKS * CHUNK_SIZE];
+		new Random(5).nextBytes(content);
+		StandInServer server = new StandInServer(new DelayHandler());
+		File dir = File.createTempFile("hedge", "");
+		dir.delete();
+		dir.mkdirs();
+		long samples = TagFilerProperties.getProperty("tagfiler.hedge.samples", 20L);
+		long interval = TagFilerProperties.getProperty("tagfiler.hedge.interval", 500L);
+		TagFilerProperties.setProperty("tagfiler.hedge.samples", "5");
+		TagFilerProperties.setProperty("tagfiler.hedge.interval", "50");
+		try {
+			RecordingListener listener = new RecordingListener();
+			listener.enableChecksum = true;
+			ConcurrentJakartaClient client = new ConcurrentJakartaClient(2, 8192, 30000, listener);
+			StandInServer.allowPlainHttp(client);
+			client.setBaseURL(server.getURL() + "/tagfiler/file/name=test");
+			client.setChunked(true);
+			client.setChunkSize(CHUNK_SIZE);
+			client.setRetryCount(3);
+			client.setHedgeMode(true);
+
+			MessageDigest md = DigestProviders.getDefault().newDigest();
+			md.update(content);
+			HashMap<String, String> checksumMap = new HashMap<String, String>();
+			checksumMap.put("data.bin", DatasetUtils.hexChecksum(md.digest()));
+			HashMap<String, Long> bytesMap = new HashMap<String, Long>();
+			bytesMap.put("data.bin", (long) content.length);
+			List<FileWrapper> files = new ArrayList<FileWrapper>();
+			files.add(new FileWrapper("data.bin", 0, 0, content.length));
+			long start = System.currentTimeMillis();
+			client.download(files, dir.getAbsolutePath(), checksumMap, bytesMap, null);
+
+			assertTrue("the download did not complete: " + listener.failures, listener.awaitCompletion(30000));
+			assertTrue("the download waited for the delayed range", System.currentTimeMillis() - start < DELAY);
+			assertEquals("requests of the delayed range", 2, delayedRequests);
+			assertEquals("file content", DatasetUtils.hexChecksum(content), DatasetUtils.hexChecksum(CoalescedDownloadTest.read(new File(dir, "data.bin"))));
+			// the progress counts each byte once written and once digested; the losing request adds none
+			assertEquals("transferred bytes", 2L * content.length, listener.transferred);
+
+			synchronized (this) {
+				long end = System.currentTimeMillis() + 2 * DELAY;
+				while (!delayedDone && System.currentTimeMillis() < end) {
+					wait(end - System.currentTimeMillis());
+				}
+				assertTrue("the delayed response was not aborted", aborted);
+			}
+		} finally {
+			TagFilerProperties.setProperty("tagfiler.hedge.samples", "" + samples);
+			TagFilerProperties.setProperty("tagfiler.hedge.interval", "" + interval);
+			server.stop();
+			for (File file : dir.listFiles()) {
+				file.delete();
+			}
+			dir.delete();
+		}
+	}
+}
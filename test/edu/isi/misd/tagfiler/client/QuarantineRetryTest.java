@@ -0,0 +1,156 @@
+package edu.isi.misd.tagfiler.client;
+
+/* 
+ * Copyright 2010 University of Southern California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import edu.isi.misd.tagfiler.TestCase;
+import edu.isi.misd.tagfiler.util.DatasetUtils;
+import edu.isi.misd.tagfiler.util.DigestProviders;
+import edu.isi.misd.tagfiler.util.FileWrapper;
+
+/**
+ * Tests of the final pass of the quarantined files
+ *
+ * @author agent
+ *
+ */
+public class QuarantineRetryTest extends TestCase {
+
+	// the size of a chunk
+	private static final int CHUNK_SIZE = 1024;
+
+	// the names of the files
+	private static final String NAMES[] = {"a.bin", "b.bin", "c.bin"};
+
+	// the file failing once
+	private static final String FAILING = "b.bin";
+
+	// the contents of the files
+	private HashMap<String, byte[]> contents = new HashMap<String, byte[]>();
+
+	// the number of failed requests of the failing file
+	private int failed;
+
+	// the number of requests of the failing file after its failure
+	private int retried;
+
+    /**
+     * Server answering the GET requests
+     * The first request of the failing file gets an internal error
+     */
+	private class FailOnceHandler implements HttpHandler {
+		public void handle(HttpExchange exchange) throws IOException {
+			String path = exchange.getRequestURI().getRawPath();
+			String name = null;
+			for (String candidate : NAMES) {
+				if (path.endsWith(candidate)) {
+					name = candidate;
+				}
+			}
+			if (name == null) {
+				StandInServer.send(exchange, 404, new byte[0]);
+				return;
+			}
+			if (name.equals(FAILING)) {
+				synchronized (QuarantineRetryTest.this) {
+					if (failed == 0) {
+						failed++;
+						StandInServer.send(exchange, 500, new byte[0]);
+						return;
+					}
+					retried++;
+				}
+			}
+			byte content[] = contents.get(name);
+			String range = exchange.getRequestHeaders().getFirst("Range");
+			int first = 0;
+			int last = content.length - 1;
+			if (range != null) {
+				String values[] = range.substring("bytes=".length()).split("-");
+				first = Integer.parseInt(values[0]);
+				last = Integer.parseInt(values[1]);
+			}
+			int length = last - first + 1;
+			exchange.sendResponseHeaders(range != null ? 206 : 200, length);
+			OutputStream os = exchange.getResponseBody();
+			os.write(content, first, length);
+			os.close();
+		}
+	}
+
+	public void testQuarantinedFileIsRetriedInTheFinalPass() throws Exception {
+		Random random = new Random(11);
+		for (String name : NAMES) {
+			byte content[] = new byte[4 * CHUNK_SIZE + 100];
+			random.nextBytes(content);
+			contents.put(name, content);
+		}
+		StandInServer server = new StandInServer(new FailOnceHandler());
+		File dir = File.createTempFile("quarantine", "");
+		dir.delete();
+		dir.mkdirs();
+		try {
+			RecordingListener listener = new RecordingListener();
+			listener.enableChecksum = true;
+			ConcurrentJakartaClient client = new ConcurrentJakartaClient(2, 8192, 30000, listener);
+			StandInServer.allowPlainHttp(client);
+			client.setBaseURL(server.getURL() + "/tagfiler/file/name=test");
+			client.setChunked(true);
+			client.setChunkSize(CHUNK_SIZE);
+			client.setRetryCount(0);
+			client.setQuarantineMode(true);
+
+			HashMap<String, String> checksumMap = new HashMap<String, String>();
+			HashMap<String, Long> bytesMap = new HashMap<String, Long>();
+			List<FileWrapper> files = new ArrayList<FileWrapper>();
+			for (String name : NAMES) {
+				byte content[] = contents.get(name);
+				MessageDigest md = DigestProviders.getDefault().newDigest();
+				md.update(content);
+				checksumMap.put(name, DatasetUtils.hexChecksum(md.digest()));
+				bytesMap.put(name, (long) content.length);
+				files.add(new FileWrapper(name, 0, 0, content.length));
+			}
+			client.download(files, dir.getAbsolutePath(), checksumMap, bytesMap, null);
+
+			assertTrue("the download did not complete: " + listener.failures, listener.awaitCompletion(30000));
+			assertEquals("failed requests", 1, failed);
+			assertTrue("the failing file was not requested again", retried > 0);
+			for (String name : NAMES) {
+				assertEquals("content of " + name, DatasetUtils.hexChecksum(contents.get(name)),
+						DatasetUtils.hexChecksum(CoalescedDownloadTest.read(new File(dir, name))));
+			}
+		} finally {
+			server.stop();
+			for (File file : dir.listFiles()) {
+				file.delete();
+			}
+			dir.delete();
+		}
+	}
+}
@@ -0,0 +1,116 @@
+package edu.isi.misd.tagfiler.client;
+
+/* 
+ * Copyright 2010 University of Southern California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Client listener that records the notifications received by the tests
+ *
+ * @author agent
+ *
+ */
+public class RecordingListener implements ClientURLListener {
+
+	// the logged messages
+	public List<String> messages = new ArrayList<String>();
+
+	// the acknowledged files
+	public List<String> acknowledged = new ArrayList<String>();
+
+	// the failures
+	public List<String> failures = new ArrayList<String>();
+
+	// the number of success notifications
+	public int successes;
+
+	// the number of bytes reported as transferred
+	public long transferred;
+
+	// the checksum mode of the session
+	public boolean enableChecksum;
+
+	public synchronized void notifySuccess() {
+		successes++;
+		notifyAll();
+	}
+
+	public synchronized void notifyFailure(String err, boolean connectionBroken) {
+		failures.add(err);
+		notifyAll();
+	}
+
+	public synchronized void notifyChunkTransfered(long size) {
+		transferred += size;
+	}
+
+	public synchronized void notifyFileTransfered(long size) {
+		transferred += size;
+	}
+
+	public synchronized void notifyFileAcknowledged(String filename, long length) {
+		acknowledged.add(filename);
+	}
+
+	public synchronized void notifyError(String err, Exception e) {
+		failures.add(err);
+		notifyAll();
+	}
+
+	public synchronized void notifyLogMessage(String message) {
+		messages.add(message);
+	}
+
+	public String getCookie() {
+		return null;
+	}
+
+	public void updateSessionCookie() {
+	}
+
+	public String getDataset() {
+		return "test";
+	}
+
+	public boolean isEnableChecksum() {
+		return enableChecksum;
+	}
+
+	public String getDatasetId() {
+		return "test";
+	}
+
+    /**
+     * Wait until the transfer succeeds or fails
+     *
+     * @param timeout
+     *            the maximum time to wait (milliseconds)
+     * @return true if the transfer succeeded
+     */
+	public synchronized boolean awaitCompletion(long timeout) throws InterruptedException {
+		long end = System.currentTimeMillis() + timeout;
+		while (successes == 0 && failures.isEmpty()) {
+			long delay = end - System.currentTimeMillis();
+			if (delay <= 0) {
+				break;
+			}
+			wait(delay);
+		}
+		return successes > 0;
+	}
+}
@@ -0,0 +1,194 @@
+package edu.isi.misd.tagfiler.client;
+
+/* 
+ * Copyright 2010 University of Southern California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Random;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import edu.isi.misd.tagfiler.TestCase;
+import edu.isi.misd.tagfiler.util.DatasetUtils;
+import edu.isi.misd.tagfiler.util.DigestProviders;
+import edu.isi.misd.tagfiler.util.FileWrapper;
+import edu.isi.misd.tagfiler.util.TagFilerProperties;
+
+/**
+ * Tests of the downloads splitting a chunk in progress
+ *
+ * @author agent
+ *
+ */
+public class SplitDownloadTest extends TestCase {
+
+	// the size of a chunk
+	private static final int CHUNK_SIZE = 16 * 1024;
+
+	// the offset of the slow chunk
+	private static final int SLOW_OFFSET = 2 * CHUNK_SIZE;
+
+	// the size of the pieces of the slow response
+	private static final int PIECE = 1024;
+
+	// the content of the file
+	private byte content[];
+
+	// the checksum of the content
+	private String checksum;
+
+	// the ranges requested from the server
+	private List<String> ranges = new ArrayList<String>();
+
+	// true after the slow response was sent
+	private boolean slow;
+
+    /**
+     * Server answering the ranged GET requests
+     * The first response of the slow chunk is sent a piece at a time
+     */
+	private class SlowRangeHandler implements HttpHandler {
+		public void handle(HttpExchange exchange) throws IOException {
+			String range = exchange.getRequestHeaders().getFirst("Range");
+			int first = 0;
+			int last = content.length - 1;
+			if (range != null) {
+				String values[] = range.substring("bytes=".length()).split("-");
+				first = Integer.parseInt(values[0]);
+				last = Integer.parseInt(values[1]);
+			}
+			int length = last - first + 1;
+			boolean slowStream = false;
+			synchronized (SplitDownloadTest.this) {
+				ranges.add(first + "-" + last);
+				if (!slow && first == SLOW_OFFSET) {
+					slow = slowStream = true;
+				}
+			}
+			exchange.sendResponseHeaders(range != null ? 206 : 200, length);
+			OutputStream os = exchange.getResponseBody();
+			if (!slowStream) {
+				os.write(content, first, length);
+				os.close();
+				return;
+			}
+			try {
+				for (int offset = 0; offset < length; offset += PIECE) {
+					os.write(content, first + offset, Math.min(PIECE, length - offset));
+					os.flush();
+					Thread.sleep(100);
+				}
+				os.close();
+			} catch (IOException e) {
+				// the client aborted the rest of the response after the chunk was split
+			} catch (InterruptedException e) {
+				// TODO Auto-generated catch block
+				e.printStackTrace();
+			} finally {
+				exchange.close();
+			}
+		}
+	}
+
+    /**
+     * Listener writing the check point when the download succeeds
+     */
+	private class CheckPointListener extends RecordingListener {
+
+		// the client of the download
+		ConcurrentJakartaClient client;
+
+		public void notifySuccess() {
+			client.writeCheckPoint();
+			super.notifySuccess();
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	public void testSplitChunkIsWrittenInPlace() throws Exception {
+		content = new byte[4 * CHUNK_SIZE + 100];
+		new Random(3).nextBytes(content);
+		MessageDigest md = DigestProviders.getDefault().newDigest();
+		md.update(content);
+		checksum = DatasetUtils.hexChecksum(md.digest());
+		StandInServer server = new StandInServer(new SlowRangeHandler());
+		File dir = File.createTempFile("split", "");
+		dir.delete();
+		dir.mkdirs();
+		long splitMin = TagFilerProperties.getProperty("tagfiler.split.min", 1048576L);
+		TagFilerProperties.setProperty("tagfiler.split.min", "" + PIECE);
+		try {
+			CheckPointListener listener = new CheckPointListener();
+			listener.enableChecksum = true;
+			ConcurrentJakartaClient client = new ConcurrentJakartaClient(2, 8192, 30000, listener);
+			listener.client = client;
+			StandInServer.allowPlainHttp(client);
+			client.setBaseURL(server.getURL() + "/tagfiler/file/name=test");
+			client.setChunked(true);
+			client.setChunkSize(CHUNK_SIZE);
+			client.setRetryCount(3);
+			client.setSplitMode(true);
+
+			HashMap<String, String> checksumMap = new HashMap<String, String>();
+			checksumMap.put("data.bin", checksum);
+			HashMap<String, Long> bytesMap = new HashMap<String, Long>();
+			bytesMap.put("data.bin", (long) content.length);
+			List<FileWrapper> files = new ArrayList<FileWrapper>();
+			files.add(new FileWrapper("data.bin", 0, 0, content.length));
+			client.download(files, dir.getAbsolutePath(), checksumMap, bytesMap, null);
+
+			assertTrue("the download did not complete: " + listener.failures, listener.awaitCompletion(30000));
+			assertEquals("file content", DatasetUtils.hexChecksum(content), DatasetUtils.hexChecksum(CoalescedDownloadTest.read(new File(dir, "data.bin"))));
+
+			// a part of the slow chunk was requested from its middle
+			boolean split = false;
+			for (String range : ranges) {
+				int first = Integer.parseInt(range.split("-")[0]);
+				if (first > SLOW_OFFSET && first < SLOW_OFFSET + CHUNK_SIZE) {
+					split = true;
+				}
+			}
+			assertTrue("the slow chunk was not split: " + ranges, split);
+
+			// the check point covers the split chunk
+			File checkPoint = new File(dir, TagFilerProperties.getProperty("tagfiler.checkpoint.file"));
+			assertTrue("no check point", checkPoint.isFile());
+			ObjectInputStream in = new ObjectInputStream(new FileInputStream(checkPoint));
+			Hashtable<String, Long> offsets = (Hashtable<String, Long>) in.readObject();
+			HashMap<String, String> checksums = (HashMap<String, String>) in.readObject();
+			in.close();
+			assertEquals("check point offset", Long.valueOf(content.length), offsets.get("data.bin"));
+			assertEquals("check point checksum", checksum, checksums.get("data.bin"));
+		} finally {
+			TagFilerProperties.setProperty("tagfiler.split.min", "" + splitMin);
+			server.stop();
+			for (File file : dir.listFiles()) {
+				file.delete();
+			}
+			dir.delete();
+		}
+	}
+}
@@ -0,0 +1,127 @@
+package edu.isi.misd.tagfiler.client;
+
+/* 
+ * Copyright 2010 University of Southern California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.net.InetSocketAddress;
+import java.util.concurrent.Executors;
+
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.impl.client.DefaultHttpClient;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Local HTTP server standing in for the tagfiler server in the tests
+ *
+ * @author agent
+ *
+ */
+public class StandInServer {
+
+	// the HTTP server
+	private HttpServer server;
+
+    /**
+     * Start a server on a free local port
+     *
+     * @param handler
+     *            the handler of all the requests
+     */
+	public StandInServer(HttpHandler handler) throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/", handler);
+		server.setExecutor(Executors.newCachedThreadPool());
+		server.start();
+	}
+
+    /**
+     * Get the URL of the server
+     *
+     * @return the URL of the server root
+     */
+	public String getURL() {
+		return "http://127.0.0.1:" + server.getAddress().getPort();
+	}
+
+    /**
+     * Allow a client to send plain HTTP requests to the server
+     * The clients register only the https scheme
+     *
+     * @param client
+     *            the client
+     */
+	public static void allowPlainHttp(JakartaClient client) throws Exception {
+		Field field = JakartaClient.class.getDeclaredField("httpclient");
+		field.setAccessible(true);
+		DefaultHttpClient httpclient = (DefaultHttpClient) field.get(client);
+		httpclient.getConnectionManager().getSchemeRegistry().register(new Scheme("http", PlainSocketFactory.getSocketFactory(), 80));
+	}
+
+    /**
+     * Stop the server
+     */
+	public void stop() {
+		server.stop(0);
+	}
+
+    /**
+     * Read the body of a request
+     *
+     * @param exchange
+     *            the HTTP exchange
+     * @return the request body
+     */
+	public static byte[] readBody(HttpExchange exchange) throws IOException {
+		InputStream is = exchange.getRequestBody();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte buffer[] = new byte[8192];
+		int res;
+		while ((res = is.read(buffer)) != -1) {
+			out.write(buffer, 0, res);
+		}
+		is.close();
+		return out.toByteArray();
+	}
+
+    /**
+     * Send a response
+     *
+     * @param exchange
+     *            the HTTP exchange
+     * @param status
+     *            the HTTP status
+     * @param body
+     *            the response body
+     */
+	public static void send(HttpExchange exchange, int status, byte body[]) throws IOException {
+		exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+		OutputStream os = exchange.getResponseBody();
+		if (body.length > 0) {
+			// the stream of a response without body is already closed; a write would drop the connection
+			os.write(body);
+		}
+		os.close();
+	}
+}
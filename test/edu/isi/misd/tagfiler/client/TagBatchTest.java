@@ -0,0 +1,137 @@
+package edu.isi.misd.tagfiler.client;
+
+/* 
+ * Copyright 2010 University of Southern California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import edu.isi.misd.tagfiler.TestCase;
+import edu.isi.misd.tagfiler.util.FileWrapper;
+
+/**
+ * Tests of the batched deletes of the 'incomplete' tag of the uploaded files
+ *
+ * @author agent
+ *
+ */
+public class TagBatchTest extends TestCase {
+
+	// the size of a chunk
+	private static final int CHUNK_SIZE = 1024;
+
+	// the number of uploaded files
+	private static final int FILES = 3;
+
+	// the number of batched deletes
+	private int deletes;
+
+    /**
+     * Server storing the chunks and failing the tag deletes
+     */
+	private class FailingTagsHandler implements HttpHandler {
+		public void handle(HttpExchange exchange) throws IOException {
+			StandInServer.readBody(exchange);
+			if (exchange.getRequestMethod().equals("DELETE")) {
+				synchronized (TagBatchTest.this) {
+					deletes++;
+				}
+				StandInServer.send(exchange, 500, new byte[0]);
+				return;
+			}
+			String path = exchange.getRequestURI().getRawPath();
+			if (path.indexOf(";version=") == -1) {
+				path += ";version=1";
+			}
+			exchange.getResponseHeaders().add("Location", path);
+			StandInServer.send(exchange, 201, new byte[0]);
+		}
+	}
+
+	public void testFailedBatchFailsTheUpload() throws Exception {
+		RecordingListener listener = upload(false);
+		assertEquals("successes", 0, listener.successes);
+		assertEquals("failures", 1, listener.failures.size());
+		assertTrue("failure: " + listener.failures, listener.failures.get(0).indexOf("Can not delete") != -1);
+		assertTrue("no batched delete", deletes >= 1);
+	}
+
+	public void testFailedBatchQuarantinesEachFile() throws Exception {
+		RecordingListener listener = upload(true);
+		assertEquals("successes", 0, listener.successes);
+		assertEquals("failures", 1, listener.failures.size());
+		String failure = listener.failures.get(0);
+		assertTrue("failure: " + failure, failure.indexOf(FILES + " file(s) failed to be transferred") != -1);
+		for (int i = 0; i < FILES; i++) {
+			assertTrue("file " + i + " not reported: " + failure, failure.indexOf("data" + i + ".bin") != -1);
+		}
+		// the quarantined files were sent again in the final pass
+		assertTrue("deletes: " + deletes, deletes >= 2);
+	}
+
+    /**
+     * Upload files of several chunks, deleting their 'incomplete' tags in a single batch
+     *
+     * @param quarantine
+     *            the quarantine mode
+     * @return the listener of the upload
+     */
+	private RecordingListener upload(boolean quarantine) throws Exception {
+		StandInServer server = new StandInServer(new FailingTagsHandler());
+		File dir = File.createTempFile("batch", "");
+		dir.delete();
+		dir.mkdirs();
+		try {
+			List<FileWrapper> files = new ArrayList<FileWrapper>();
+			Random random = new Random(11);
+			for (int i = 0; i < FILES; i++) {
+				byte content[] = new byte[3 * CHUNK_SIZE + 10];
+				random.nextBytes(content);
+				File file = new File(dir, "data" + i + ".bin");
+				FileOutputStream fos = new FileOutputStream(file);
+				fos.write(content);
+				fos.close();
+				files.add(new FileWrapper(file.getAbsolutePath(), 0, 0, content.length));
+			}
+
+			RecordingListener listener = new RecordingListener();
+			ConcurrentJakartaClient client = new ConcurrentJakartaClient(2, 8192, 30000, listener);
+			StandInServer.allowPlainHttp(client);
+			client.setBaseURL(server.getURL() + "/tagfiler/file/name=test");
+			client.setChunked(true);
+			client.setChunkSize(CHUNK_SIZE);
+			client.setTagBatchSize(FILES);
+			client.setQuarantineMode(quarantine);
+			client.upload(files, dir.getAbsolutePath(), new HashMap<String, String>(), new HashMap<String, Integer>());
+			listener.awaitCompletion(30000);
+			return listener;
+		} finally {
+			server.stop();
+			for (File file : dir.listFiles()) {
+				file.delete();
+			}
+			dir.delete();
+		}
+	}
+}
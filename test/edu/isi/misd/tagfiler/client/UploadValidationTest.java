@@ -0,0 +1,211 @@
+package edu.isi.misd.tagfiler.client;
+
+/* 
+ * Copyright 2010 University of Southern California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import edu.isi.misd.tagfiler.TestCase;
+import edu.isi.misd.tagfiler.util.FileWrapper;
+
+/**
+ * Tests of the validation of the uploaded files against the tags reported by the server
+ *
+ * @author agent
+ *
+ */
+public class UploadValidationTest extends TestCase {
+
+	// the size of a chunk
+	private static final int CHUNK_SIZE = 1024;
+
+	// the uploaded files
+	private static final String FILES[] = {"a.bin", "b.bin", "c.bin"};
+
+	// the bytes stored by the server, by file name
+	private HashMap<String, Long> stored = new HashMap<String, Long>();
+
+	// the number of validation queries
+	private int queries;
+
+    /**
+     * Server storing the chunks and reporting the stored bytes
+     */
+	private class StoringHandler implements HttpHandler {
+
+		// the file whose last bytes are dropped or null
+		private String truncated;
+
+		// if true, the server does not answer the validation queries
+		private boolean noQuery;
+
+		StoringHandler(String truncated, boolean noQuery) {
+			this.truncated = truncated;
+			this.noQuery = noQuery;
+		}
+
+		public void handle(HttpExchange exchange) throws IOException {
+			byte body[] = StandInServer.readBody(exchange);
+			String path = exchange.getRequestURI().getPath();
+			if (exchange.getRequestMethod().equals("GET") && path.startsWith("/tagfiler/query/vname=")) {
+				synchronized (UploadValidationTest.this) {
+					queries++;
+				}
+				if (noQuery) {
+					StandInServer.send(exchange, 404, new byte[0]);
+					return;
+				}
+				String vnames = path.substring("/tagfiler/query/vname=".length(), path.indexOf("("));
+				JSONArray result = new JSONArray();
+				for (String vname : vnames.split(",")) {
+					String name = vname.substring(0, vname.lastIndexOf("@"));
+					synchronized (UploadValidationTest.this) {
+						if (stored.containsKey(name)) {
+							JSONObject obj = new JSONObject();
+							try {
+								obj.put("vname", vname);
+								obj.put("bytes", stored.get(name));
+							} catch (Exception e) {
+								throw new IOException(e.toString());
+							}
+							result.put(obj);
+						}
+					}
+				}
+				StandInServer.send(exchange, 200, result.toString().getBytes("UTF-8"));
+				return;
+			}
+			if (exchange.getRequestMethod().equals("PUT")) {
+				String name = path.substring(path.indexOf("name=") + "name=".length()).replaceAll(";.*", "");
+				long length = body.length;
+				String query = exchange.getRequestURI().getRawQuery();
+				if (name.endsWith("/" + truncated) && (query == null || query.indexOf("incomplete") == -1)) {
+					// the last chunk is stored without its last bytes
+					length -= 10;
+				}
+				synchronized (UploadValidationTest.this) {
+					Long bytes = stored.get(name);
+					stored.put(name, (bytes == null ? 0 : bytes) + length);
+				}
+			}
+			if (path.indexOf(";version=") == -1) {
+				path += ";version=1";
+			}
+			exchange.getResponseHeaders().add("Location", path);
+			StandInServer.send(exchange, exchange.getRequestMethod().equals("PUT") ? 201 : 200, new byte[0]);
+		}
+	}
+
+	public void testTruncatedFileFailsTheUpload() throws Exception {
+		RecordingListener listener = upload(new StoringHandler("b.bin", false));
+		assertEquals("successes", 0, listener.successes);
+		assertEquals("failures", 1, listener.failures.size());
+		String failure = listener.failures.get(0);
+		assertTrue("failure: " + failure, failure.indexOf("b.bin") != -1 && failure.indexOf("stored") != -1);
+		assertTrue("truncated file acknowledged: " + listener.acknowledged, !listener.acknowledged.contains(find(listener, "b.bin")));
+	}
+
+	public void testStoredFilesAreAcknowledged() throws Exception {
+		RecordingListener listener = upload(new StoringHandler(null, false));
+		assertEquals("failures: " + listener.failures, 0, listener.failures.size());
+		assertEquals("successes", 1, listener.successes);
+		assertEquals("acknowledged files: " + listener.acknowledged, FILES.length, listener.acknowledged.size());
+		assertEquals("queries", 1, queries);
+	}
+
+	public void testUnconfirmedFilesAreNotAcknowledged() throws Exception {
+		RecordingListener listener = upload(new StoringHandler(null, true));
+		assertEquals("failures: " + listener.failures, 0, listener.failures.size());
+		assertEquals("successes", 1, listener.successes);
+		// the files are left to the listing check
+		assertEquals("acknowledged files: " + listener.acknowledged, 0, listener.acknowledged.size());
+		assertTrue("no validation query", queries >= 1);
+	}
+
+    /**
+     * Find the path of an acknowledged file
+     *
+     * @param listener
+     *            the listener of the upload
+     * @param name
+     *            the file name
+     * @return the path of the acknowledged file or the name
+     */
+	private String find(RecordingListener listener, String name) {
+		for (String path : listener.acknowledged) {
+			if (path.endsWith(File.separator + name)) {
+				return path;
+			}
+		}
+		return name;
+	}
+
+    /**
+     * Upload files of several chunks, validating them in a single query
+     *
+     * @param handler
+     *            the handler of the server
+     * @return the listener of the upload
+     */
+	private RecordingListener upload(HttpHandler handler) throws Exception {
+		StandInServer server = new StandInServer(handler);
+		File dir = File.createTempFile("validate", "");
+		dir.delete();
+		dir.mkdirs();
+		try {
+			List<FileWrapper> files = new ArrayList<FileWrapper>();
+			Random random = new Random(17);
+			for (int i = 0; i < FILES.length; i++) {
+				byte content[] = new byte[3 * CHUNK_SIZE + 100];
+				random.nextBytes(content);
+				File file = new File(dir, FILES[i]);
+				FileOutputStream fos = new FileOutputStream(file);
+				fos.write(content);
+				fos.close();
+				files.add(new FileWrapper(file.getAbsolutePath(), 0, 0, content.length));
+			}
+
+			RecordingListener listener = new RecordingListener();
+			ConcurrentJakartaClient client = new ConcurrentJakartaClient(2, 8192, 30000, listener);
+			StandInServer.allowPlainHttp(client);
+			client.setBaseURL(server.getURL() + "/tagfiler/file/name=test");
+			client.setChunked(true);
+			client.setChunkSize(CHUNK_SIZE);
+			client.setValidateBatchSize(FILES.length);
+			client.upload(files, dir.getAbsolutePath(), new HashMap<String, String>(), new HashMap<String, Integer>());
+			listener.awaitCompletion(30000);
+			return listener;
+		} finally {
+			server.stop();
+			for (File file : dir.listFiles()) {
+				file.delete();
+			}
+			dir.delete();
+		}
+	}
+}
@@ -0,0 +1,155 @@
+package edu.isi.misd.tagfiler.download;
+
+/* 
+ * Copyright 2010 University of Southern California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.isi.misd.tagfiler.TestCase;
+import edu.isi.misd.tagfiler.util.DatasetUtils;
+import edu.isi.misd.tagfiler.util.DigestProviders;
+
+/**
+ * Tests of the comparison of the downloaded files with the files listing
+ *
+ * @author agent
+ *
+ */
+public class VerifyFilesTest extends TestCase {
+
+	// the listed files
+	private List<String> fileNames = new ArrayList<String>();
+
+	// the listed bytes
+	private Map<String, Long> bytesMap = new HashMap<String, Long>();
+
+	// the listed checksums
+	private Map<String, String> checksumMap = new HashMap<String, String>();
+
+	public void testMissingExtraAndMismatchedFiles() throws Exception {
+		File root = createTempDir();
+		try {
+			list(write(root, "same.txt", "same"), "same");
+			list(write(root, "dir/same.txt", "nested"), "nested");
+			list(write(root, "size.txt", "short"), "a longer content");
+			list(write(root, "content.txt", "abcd"), "wxyz");
+			list("missing.txt", "missing");
+			write(root, "extra.txt", "extra");
+			write(root, "dir/extra.txt", "extra");
+
+			List<String> missing = new ArrayList<String>();
+			List<String> extra = new ArrayList<String>();
+			List<String> mismatched = new ArrayList<String>();
+			int hashed = FileDownloadImplementation.compareFiles(root, fileNames, bytesMap, checksumMap, 
+					DigestProviders.get("SHA-256"), missing, extra, mismatched);
+			assertEquals("missing", names("missing.txt"), missing);
+			assertEquals("extra", names("dir/extra.txt", "extra.txt"), extra);
+			assertEquals("mismatched", names("size.txt", "content.txt"), mismatched);
+			assertEquals("hashed", 3, hashed);
+		} finally {
+			delete(root);
+		}
+	}
+
+	public void testFileWithoutBytesIsCheckedByChecksum() throws Exception {
+		File root = createTempDir();
+		try {
+			list(write(root, "good.txt", "good"), "good");
+			list(write(root, "bad.txt", "bad"), "other");
+			bytesMap.clear();
+
+			List<String> missing = new ArrayList<String>();
+			List<String> extra = new ArrayList<String>();
+			List<String> mismatched = new ArrayList<String>();
+			FileDownloadImplementation.compareFiles(root, fileNames, bytesMap, checksumMap, 
+					DigestProviders.get("SHA-256"), missing, extra, mismatched);
+			assertEquals("missing", 0, missing.size());
+			assertEquals("extra", 0, extra.size());
+			assertEquals("mismatched", names("bad.txt"), mismatched);
+		} finally {
+			delete(root);
+		}
+	}
+
+    /**
+     * Add a file to the listing, with the bytes and checksum of a content
+     */
+	private void list(String file, String content) throws Exception {
+		byte data[] = content.getBytes("UTF-8");
+		MessageDigest md = MessageDigest.getInstance("SHA-256");
+		fileNames.add(file);
+		bytesMap.put(file, (long) data.length);
+		checksumMap.put(file, DatasetUtils.hexChecksum(md.digest(data)));
+	}
+
+    /**
+     * Make a list of file names
+     */
+	private static List<String> names(String... values) {
+		List<String> result = new ArrayList<String>();
+		for (String value : values) {
+			result.add(value);
+		}
+		return result;
+	}
+
+    /**
+     * Write a local file
+     *
+     * @return the file name relative to the root
+     */
+	private static String write(File root, String file, String content) throws IOException {
+		File localFile = new File(root, file.replace('/', File.separatorChar));
+		localFile.getParentFile().mkdirs();
+		FileOutputStream out = new FileOutputStream(localFile);
+		try {
+			out.write(content.getBytes("UTF-8"));
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+
+    /**
+     * Create an empty temporary directory
+     */
+	private static File createTempDir() throws IOException {
+		File dir = File.createTempFile("verify", "");
+		dir.delete();
+		dir.mkdirs();
+		return dir.getAbsoluteFile();
+	}
+
+    /**
+     * Delete a directory tree
+     */
+	private static void delete(File file) {
+		File files[] = file.listFiles();
+		if (files != null) {
+			for (File child : files) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+}
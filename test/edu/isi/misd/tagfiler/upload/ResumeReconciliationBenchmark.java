@@ -0,0 +1,233 @@
+package edu.isi.misd.tagfiler.upload;
+
+/* 
+ * Copyright 2010 University of Southern California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+import edu.isi.misd.tagfiler.FileTagsReader;
+import edu.isi.misd.tagfiler.util.DatasetUtils;
+
+/**
+ * Timed run of the resume reconciliation of the upload and download sessions
+ * The upload index and lookups are the ones of FileUploadImplementation.buildTotalSize,
+ * fed by a FileTagsReader over a generated listing; the download uses the check point set of
+ * FileDownloadImplementation.downloadFiles. The previous list scans run on a smaller size,
+ * since they are quadratic.
+ * Usage: ResumeReconciliationBenchmark [files ...] (default 100000 1000000)
+ *
+ * @author agent
+ *
+ */
+public class ResumeReconciliationBenchmark {
+
+	// the dataset name prefix
+	private static final String DATASET = "benchmark";
+
+	// the base directory of the local files
+	private static final String BASE = "/data/upload";
+
+	// the number of files reconciled by the previous list scans
+	private static final int SCAN_FILES = 10000;
+
+	// the time when the upload index was built
+	private static long indexTime;
+
+    /**
+     * Listing of the files tags generated record by record
+     * Every second file has a check point; every sixth one is partial
+     */
+	private static class ListingInputStream extends InputStream {
+		private int files;
+		private int index = -1;
+		private byte record[] = "[".getBytes();
+		private int position;
+
+		ListingInputStream(int files) {
+			this.files = files;
+		}
+
+		public int read() throws IOException {
+			while (position == record.length) {
+				if (index == files) {
+					return -1;
+				}
+				index++;
+				if (index == files) {
+					record = "]".getBytes();
+				} else {
+					String offset = index % 2 == 0 ? (index % 3 == 0 ? "512" : "1024") : "null";
+					record = ((index > 0 ? "," : "") + "{\"name\":\"" + DATASET + "/" + name(index) + "\",\"vname\":\"" + DATASET + "/" + name(index) + "@1\"," +
+							"\"bytes\":1024,\"sha256sum\":null,\"check point offset\":" + offset + "}").getBytes();
+				}
+				position = 0;
+			}
+			return record[position++] & 0xff;
+		}
+	}
+
+	private static String name(int i) {
+		return "dir" + (i % 100) + "/file" + i + ".dat";
+	}
+
+	private static List<String> localFiles(int files) {
+		List<String> paths = new ArrayList<String>(files);
+		for (int i = 0; i < files; i++) {
+			paths.add(BASE + "/" + name(i));
+		}
+		return paths;
+	}
+
+    /**
+     * Reconcile through the hash index of the local files
+     *
+     * @return the number of files still to be uploaded
+     */
+	private static int reconcileIndexed(List<String> files) throws Exception {
+		LinkedHashMap<String, String> tempFiles = new LinkedHashMap<String, String>();
+		for (String filename : files) {
+			tempFiles.put(DATASET + DatasetUtils.getBaseName(filename, BASE), filename);
+		}
+		indexTime = System.nanoTime();
+		int pending = 0;
+		FileTagsReader reader = new FileTagsReader(new ListingInputStream(files.size()));
+		try {
+			while (reader.next()) {
+				String name = reader.getName();
+				String filename = tempFiles.get(name);
+				if (filename != null && reader.getCheckPointOffset() != -1) {
+					if (reader.getCheckPointOffset() != 1024) {
+						pending++;
+					}
+					tempFiles.remove(name);
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		return pending + tempFiles.size();
+	}
+
+    /**
+     * Reconcile by scanning the local files for every listing record (the previous algorithm)
+     *
+     * @return the number of files still to be uploaded
+     */
+	private static int reconcileScanned(List<String> files) throws Exception {
+		ArrayList<String> tempFiles = new ArrayList<String>(files);
+		int pending = 0;
+		FileTagsReader reader = new FileTagsReader(new ListingInputStream(files.size()));
+		try {
+			while (reader.next()) {
+				for (String filename : tempFiles) {
+					if (reader.getName().equals(DATASET + DatasetUtils.getBaseName(filename, BASE))) {
+						if (reader.getCheckPointOffset() != -1) {
+							if (reader.getCheckPointOffset() != 1024) {
+								pending++;
+							}
+							tempFiles.remove(filename);
+						}
+						break;
+					}
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		return pending + tempFiles.size();
+	}
+
+    /**
+     * Remove the check point files from the download list
+     *
+     * @return the number of files without check point
+     */
+	private static int checkPointSet(List<String> names, List<String> checkPoint) {
+		LinkedHashSet<String> tempFiles = new LinkedHashSet<String>(names);
+		for (String key : checkPoint) {
+			tempFiles.remove(key);
+		}
+		return tempFiles.size();
+	}
+
+    /**
+     * Remove the check point files from the download list (the previous algorithm)
+     *
+     * @return the number of files without check point
+     */
+	private static int checkPointList(List<String> names, List<String> checkPoint) {
+		ArrayList<String> tempFiles = new ArrayList<String>(names);
+		for (String key : checkPoint) {
+			if (tempFiles.contains(key)) {
+				tempFiles.remove(key);
+			}
+		}
+		return tempFiles.size();
+	}
+
+	private static void run(int files, boolean scan) throws Exception {
+		List<String> paths = localFiles(files);
+		List<String> names = new ArrayList<String>(files);
+		List<String> checkPoint = new ArrayList<String>();
+		for (int i = 0; i < files; i++) {
+			names.add(name(i));
+			if (i % 2 == 0) {
+				checkPoint.add(name(files - 1 - i));
+			}
+		}
+
+		long t0 = System.nanoTime();
+		int pending = reconcileIndexed(paths);
+		long t1 = System.nanoTime();
+		int remaining = checkPointSet(names, checkPoint);
+		long t2 = System.nanoTime();
+		System.out.println(files + " files: upload index " + (t1 - t0) / 1000000 + " ms (index " + (indexTime - t0) / 1000000 + " ms, listing " + 
+				(t1 - indexTime) / 1000000 + " ms, " + pending + " to upload), " +
+				"download check point set " + (t2 - t1) / 1000000 + " ms (" + remaining + " to download)");
+		if (scan) {
+			t0 = System.nanoTime();
+			int scanned = reconcileScanned(paths);
+			t1 = System.nanoTime();
+			int listed = checkPointList(names, checkPoint);
+			t2 = System.nanoTime();
+			if (scanned != pending || listed != remaining) {
+				throw new IllegalStateException("the algorithms disagree");
+			}
+			System.out.println(files + " files: upload list scan " + (t1 - t0) / 1000000 + " ms, " +
+					"download check point list " + (t2 - t1) / 1000000 + " ms");
+		}
+	}
+
+	public static void main(String args[]) throws Exception {
+		int sizes[] = new int[] { 100000, 1000000 };
+		if (args.length > 0) {
+			sizes = new int[args.length];
+			for (int i = 0; i < args.length; i++) {
+				sizes[i] = Integer.parseInt(args[i]);
+			}
+		}
+		// warm up and compare with the previous algorithms
+		run(SCAN_FILES, true);
+		for (int files : sizes) {
+			run(files, files <= SCAN_FILES);
+		}
+	}
+}
@@ -0,0 +1,107 @@
+package edu.isi.misd.tagfiler.util;
+
+/* 
+ * Copyright 2010 University of Southern California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import edu.isi.misd.tagfiler.TestCase;
+
+/**
+ * Tests of the persistent checksum cache
+ *
+ * @author agent
+ *
+ */
+public class ChecksumCacheTest extends TestCase {
+
+	// the digest algorithm
+	private static final String ALGORITHM = "SHA-256";
+
+	public void testChecksumIsReusedAfterReload() throws Exception {
+		File dir = createTempDir();
+		File data = write(new File(dir, "data"), "content");
+		data.setLastModified(System.currentTimeMillis() - 60000);
+		File cacheFile = new File(dir, "checksums");
+		ChecksumCache cache = new ChecksumCache(cacheFile);
+		assertTrue("not stored", cache.put(data, ChecksumCache.stamp(data), ALGORITHM, "digest"));
+		cache.close();
+		cache = new ChecksumCache(cacheFile);
+		assertEquals("checksum", "digest", cache.get(data, ALGORITHM));
+		assertEquals("other algorithm", null, cache.get(data, "MD5"));
+		cache.close();
+	}
+
+	public void testFileChangedWhileHashingIsNotStored() throws Exception {
+		File dir = createTempDir();
+		File data = write(new File(dir, "data"), "content");
+		data.setLastModified(System.currentTimeMillis() - 60000);
+		ChecksumCache cache = new ChecksumCache(new File(dir, "checksums"));
+		ChecksumCache.Stamp stamp = ChecksumCache.stamp(data);
+		// the file is rewritten with the same length while it is hashed
+		write(data, "CONTENT");
+		data.setLastModified(System.currentTimeMillis() - 30000);
+		assertTrue("stale checksum stored", !cache.put(data, stamp, ALGORITHM, "digest"));
+		assertEquals("stale checksum", null, cache.get(data, ALGORITHM));
+		cache.close();
+	}
+
+	public void testRecentlyModifiedFileIsNotStored() throws Exception {
+		File dir = createTempDir();
+		File data = write(new File(dir, "data"), "content");
+		ChecksumCache cache = new ChecksumCache(new File(dir, "checksums"));
+		assertTrue("racy checksum stored", !cache.put(data, ChecksumCache.stamp(data), ALGORITHM, "digest"));
+		assertEquals("racy checksum", null, cache.get(data, ALGORITHM));
+		cache.close();
+	}
+
+	public void testMissingFileIsNotStored() throws Exception {
+		File dir = createTempDir();
+		File data = new File(dir, "missing");
+		ChecksumCache cache = new ChecksumCache(new File(dir, "checksums"));
+		assertEquals("stamp", null, ChecksumCache.stamp(data));
+		assertTrue("missing file stored", !cache.put(data, null, ALGORITHM, "digest"));
+		cache.close();
+	}
+
+    /**
+     * Create an empty temporary directory
+     */
+	private static File createTempDir() throws IOException {
+		File dir = File.createTempFile("checksums", "");
+		dir.delete();
+		dir.mkdirs();
+		dir.deleteOnExit();
+		new File(dir, "checksums").deleteOnExit();
+		return dir;
+	}
+
+    /**
+     * Write a file
+     */
+	private static File write(File file, String content) throws IOException {
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(content.getBytes("UTF-8"));
+		} finally {
+			out.close();
+		}
+		file.deleteOnExit();
+		return file;
+	}
+}
@@ -0,0 +1,64 @@
+package edu.isi.misd.tagfiler.util;
+
+/* 
+ * Copyright 2010 University of Southern California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.isi.misd.tagfiler.TestCase;
+
+/**
+ * Tests of the dataset URL utilities
+ *
+ * @author agent
+ *
+ */
+public class DatasetUtilsTest extends TestCase {
+
+	// the server URL
+	private static final String SERVER = "https://localhost/tagfiler";
+
+	public void testFilesVersionsTagFitsInMaxLength() throws Exception {
+		List<String> vnames = new ArrayList<String>();
+		for (int i = 0; i < 500; i++) {
+			vnames.add("dataset/dir with spaces/file-" + i + ".dat@" + (i % 7 + 1));
+		}
+		List<List<String>> groups = DatasetUtils.splitFilesVersionsTag(SERVER, vnames, "incomplete", 2000);
+		assertTrue("the list was not split", groups.size() > 1);
+		List<String> all = new ArrayList<String>();
+		for (List<String> group : groups) {
+			String url = DatasetUtils.getFilesVersionsTag(SERVER, group, "incomplete");
+			assertTrue("URL too long: " + url.length(), url.length() <= 2000);
+			all.addAll(group);
+		}
+		assertEquals("files versions", vnames, all);
+	}
+
+	public void testLongFileVersionHasItsOwnGroup() throws Exception {
+		StringBuffer name = new StringBuffer();
+		for (int i = 0; i < 300; i++) {
+			name.append("x");
+		}
+		List<String> vnames = new ArrayList<String>();
+		vnames.add("a@1");
+		vnames.add(name + "@1");
+		vnames.add("b@1");
+		List<List<String>> groups = DatasetUtils.splitFilesVersionsTag(SERVER, vnames, "incomplete", 200);
+		assertEquals("groups", 3, groups.size());
+		assertEquals("long file version", name + "@1", groups.get(1).get(0));
+	}
+}
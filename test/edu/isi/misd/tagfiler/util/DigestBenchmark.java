@@ -0,0 +1,110 @@
+package edu.isi.misd.tagfiler.util;
+
+/* 
+ * Copyright 2010 University of Southern California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.security.MessageDigest;
+import java.util.Random;
+
+/**
+ * Timed run of the registered digest providers, per algorithm and chunk size
+ * As in a JMH throughput benchmark, each case runs warm up iterations, then measured iterations 
+ * whose mean and standard deviation are printed. A case digests an in memory buffer,
+ * updating the digest a chunk at a time as FileChecksum does with the transferred chunks.
+ * Usage: DigestBenchmark [megabytes [iterations]] (default 64 MB, 5 iterations)
+ *
+ * @author agent
+ *
+ */
+public class DigestBenchmark {
+
+	// the algorithms, in the order they are printed
+	private static final String ALGORITHMS[] = {"MD5", "SHA-1", "SHA-256", "SHA-384", "SHA-512", "SHA-512/256"};
+
+	// the sizes of the digest updates
+	private static final int CHUNK_SIZES[] = {4 * 1024, 64 * 1024, 1024 * 1024};
+
+	// the number of warm up iterations
+	private static final int WARMUP = 2;
+
+	// the blackhole keeping the digests alive
+	private static int sink;
+
+	public static void main(String args[]) throws Exception {
+		int megabytes = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+		int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+		byte data[] = new byte[megabytes * 1024 * 1024];
+		new Random(1).nextBytes(data);
+		System.out.println("Digest throughput over " + megabytes + " MB, " + iterations + " iteration(s), MB/s (mean +- stddev)");
+		System.out.print(pad("algorithm", 14));
+		for (int chunkSize : CHUNK_SIZES) {
+			System.out.print(pad((chunkSize / 1024) + " KB chunks", 22));
+		}
+		System.out.println();
+		for (String algorithm : ALGORITHMS) {
+			DigestProvider provider = DigestProviders.get(algorithm);
+			if (provider == null) {
+				System.out.println(pad(algorithm, 14) + "not available");
+				continue;
+			}
+			System.out.print(pad(algorithm, 14));
+			for (int chunkSize : CHUNK_SIZES) {
+				for (int i = 0; i < WARMUP; i++) {
+					run(provider, data, chunkSize);
+				}
+				double throughput[] = new double[iterations];
+				double mean = 0;
+				for (int i = 0; i < iterations; i++) {
+					long t0 = System.nanoTime();
+					run(provider, data, chunkSize);
+					throughput[i] = megabytes * 1e9 / (System.nanoTime() - t0);
+					mean += throughput[i] / iterations;
+				}
+				double variance = 0;
+				for (int i = 0; i < iterations; i++) {
+					variance += (throughput[i] - mean) * (throughput[i] - mean) / Math.max(1, iterations - 1);
+				}
+				System.out.print(pad(Math.round(mean) + " +- " + Math.round(Math.sqrt(variance)), 22));
+			}
+			System.out.println();
+		}
+		if (sink == 42) {
+			System.out.println();
+		}
+	}
+
+    /**
+     * Digest the buffer a chunk at a time
+     */
+	private static void run(DigestProvider provider, byte data[], int chunkSize) {
+		MessageDigest messageDigest = provider.newDigest();
+		for (int offset = 0; offset < data.length; offset += chunkSize) {
+			messageDigest.update(data, offset, Math.min(chunkSize, data.length - offset));
+		}
+		sink += messageDigest.digest()[0];
+	}
+
+    /**
+     * Pad a column of the table
+     */
+	private static String pad(String value, int width) {
+		StringBuffer buffer = new StringBuffer(value);
+		while (buffer.length() < width) {
+			buffer.append(' ');
+		}
+		return buffer.toString();
+	}
+}
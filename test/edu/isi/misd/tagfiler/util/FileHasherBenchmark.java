@@ -0,0 +1,101 @@
+package edu.isi.misd.tagfiler.util;
+
+/* 
+ * Copyright 2010 University of Southern California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Timed run of the files pre-hash phase
+ * The previous sequential stream digest is compared with FileHasher on one thread and on all the processors.
+ * The files are generated first, so they are read from the page cache and the hashing cost is measured.
+ * Usage: FileHasherBenchmark [files [megabytes per file]] (default 16 files of 32 MB)
+ *
+ * @author agent
+ *
+ */
+public class FileHasherBenchmark {
+
+	public static void main(String args[]) throws Exception {
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+		long size = (args.length > 1 ? Long.parseLong(args[1]) : 32) * 1024 * 1024;
+		DigestProvider provider = DigestProviders.get("SHA-256");
+		List<FileWrapper> files = new ArrayList<FileWrapper>();
+		try {
+			for (int i = 0; i < count; i++) {
+				File file = FileHasherTest.generate(size, i);
+				files.add(new FileWrapper(file.getPath(), 0, 0, size));
+			}
+			double megabytes = (double) count * size / (1024 * 1024);
+			System.out.println("Hashing " + count + " file(s), " + (long) megabytes + " MB, " + 
+					Runtime.getRuntime().availableProcessors() + " processor(s)");
+
+			// warm up the JIT and the page cache
+			FileHasher.getDigests(files, provider, 0, null);
+
+			long t0 = System.currentTimeMillis();
+			for (FileWrapper file : files) {
+				streamDigest(new File(file.getName()));
+			}
+			report("sequential stream", megabytes, System.currentTimeMillis() - t0);
+
+			t0 = System.currentTimeMillis();
+			Map<String, String> digests = FileHasher.getDigests(files, provider, 1, null);
+			report("FileHasher, 1 thread", megabytes, System.currentTimeMillis() - t0);
+			if (digests.size() != count) {
+				throw new IllegalStateException("missing digests: " + digests.size());
+			}
+
+			t0 = System.currentTimeMillis();
+			digests = FileHasher.getDigests(files, provider, Runtime.getRuntime().availableProcessors(), null);
+			report("FileHasher, all processors", megabytes, System.currentTimeMillis() - t0);
+		} finally {
+			for (FileWrapper file : files) {
+				new File(file.getName()).delete();
+			}
+		}
+	}
+
+    /**
+     * Digest a file through a plain input stream, as the checksums were computed before FileHasher
+     */
+	private static String streamDigest(File file) throws Exception {
+		MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
+		byte buffer[] = new byte[8192];
+		FileInputStream in = new FileInputStream(file);
+		try {
+			int count;
+			while ((count = in.read(buffer)) != -1) {
+				messageDigest.update(buffer, 0, count);
+			}
+		} finally {
+			in.close();
+		}
+		return DatasetUtils.hexChecksum(messageDigest.digest());
+	}
+
+    /**
+     * Print the time and the throughput of a run
+     */
+	private static void report(String run, double megabytes, long millis) {
+		System.out.println(run + ": " + millis + " ms, " + (long) (megabytes * 1000 / Math.max(1, millis)) + " MB/s");
+	}
+}
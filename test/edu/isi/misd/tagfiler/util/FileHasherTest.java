@@ -0,0 +1,123 @@
+package edu.isi.misd.tagfiler.util;
+
+/* 
+ * Copyright 2010 University of Southern California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import edu.isi.misd.tagfiler.TestCase;
+
+/**
+ * Tests of the files hashing engine against a reference digest
+ * The reference is the sha256sum command when it is available, a stream digest otherwise
+ *
+ * @author agent
+ *
+ */
+public class FileHasherTest extends TestCase {
+
+	// a file larger than a memory mapped region of FileHasher
+	private static final long LARGE_FILE = 150L * 1024 * 1024 + 12345;
+
+	public void testLargeFileMatchesReference() throws Exception {
+		File file = generate(LARGE_FILE, 1);
+		try {
+			String digest = FileHasher.digest(file, DigestProviders.get("SHA-256"));
+			assertEquals("SHA-256 of " + file.length() + " bytes", reference(file), digest);
+		} finally {
+			file.delete();
+		}
+	}
+
+	public void testParallelDigestsMatchReference() throws Exception {
+		List<FileWrapper> files = new ArrayList<FileWrapper>();
+		long sizes[] = {0, 1, 4096, 1024 * 1024 - 1, 1024 * 1024, 3 * 1024 * 1024 + 17};
+		try {
+			for (int i = 0; i < sizes.length; i++) {
+				File file = generate(sizes[i], i + 2);
+				files.add(new FileWrapper(file.getPath(), 0, 0, sizes[i]));
+			}
+			Map<String, String> digests = FileHasher.getDigests(files, DigestProviders.get("SHA-256"), 4, null);
+			assertEquals("digests", files.size(), digests.size());
+			for (FileWrapper file : files) {
+				assertEquals("SHA-256 of " + file.getFileLength() + " bytes", reference(new File(file.getName())), digests.get(file.getName()));
+			}
+		} finally {
+			for (FileWrapper file : files) {
+				new File(file.getName()).delete();
+			}
+		}
+	}
+
+    /**
+     * Generate a file of pseudo random content
+     */
+	static File generate(long length, long seed) throws IOException {
+		File file = File.createTempFile("hasher", ".dat");
+		file.deleteOnExit();
+		Random random = new Random(seed);
+		byte buffer[] = new byte[1024 * 1024];
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			for (long written = 0; written < length; written += buffer.length) {
+				random.nextBytes(buffer);
+				out.write(buffer, 0, (int) Math.min(buffer.length, length - written));
+			}
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+
+    /**
+     * Get the reference SHA-256 digest of a file
+     */
+	private static String reference(File file) throws Exception {
+		try {
+			Process process = new ProcessBuilder("sha256sum", file.getPath()).start();
+			BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), "US-ASCII"));
+			String line = reader.readLine();
+			reader.close();
+			if (process.waitFor() == 0 && line != null) {
+				return line.substring(0, line.indexOf(' '));
+			}
+		} catch (IOException e) {
+			// the command is not available
+		}
+		MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
+		byte buffer[] = new byte[8192];
+		FileInputStream in = new FileInputStream(file);
+		try {
+			int count;
+			while ((count = in.read(buffer)) != -1) {
+				messageDigest.update(buffer, 0, count);
+			}
+		} finally {
+			in.close();
+		}
+		return DatasetUtils.hexChecksum(messageDigest.digest());
+	}
+}
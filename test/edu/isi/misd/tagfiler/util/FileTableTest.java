@@ -0,0 +1,67 @@
+package edu.isi.misd.tagfiler.util;
+
+/* 
+ * Copyright 2010 University of Southern California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.isi.misd.tagfiler.TestCase;
+
+/**
+ * Tests of the columnar file table
+ *
+ * @author agent
+ *
+ */
+public class FileTableTest extends TestCase {
+
+	// a hexa SHA-256 digest
+	private static final String DIGEST = "e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855";
+
+	public void testPutNullRemovesTheValue() throws Exception {
+		FileTable table = new FileTable();
+		Map<String, String> checksumMap = table.getChecksumMap();
+		checksumMap.put("/a/b.dat", DIGEST);
+		assertEquals("old checksum", DIGEST, checksumMap.put("/a/b.dat", null));
+		assertTrue("the file is still mapped", !checksumMap.containsKey("/a/b.dat"));
+		assertEquals("new file", null, checksumMap.put("/a/c.dat", null));
+		assertEquals("map size", 0, checksumMap.size());
+	}
+
+	public void testColumnsMatchHashMaps() throws Exception {
+		FileTable table = new FileTable();
+		List<String> names = table.getNames();
+		Map<String, Long> bytesMap = table.getBytesMap();
+		Map<String, String> checksumMap = table.getChecksumMap();
+		Map<String, Long> expectedBytes = new HashMap<String, Long>();
+		Map<String, String> expectedChecksums = new HashMap<String, String>();
+		for (int i = 0; i < 1000; i++) {
+			String name = "/dataset/dir" + (i % 10) + "/file" + i;
+			String checksum = i % 3 == 0 ? "md5-" + i : DIGEST;
+			names.add(name);
+			bytesMap.put(name, (long) i);
+			checksumMap.put(name, checksum);
+			expectedBytes.put(name, (long) i);
+			expectedChecksums.put(name, checksum);
+		}
+		assertEquals("names", 1000, names.size());
+		assertEquals("first name", "/dataset/dir0/file0", names.get(0));
+		assertEquals("sizes", expectedBytes, new HashMap<String, Long>(bytesMap));
+		assertEquals("checksums", expectedChecksums, new HashMap<String, String>(checksumMap));
+	}
+}